@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks, if a user has a role in a company. Compares the {@link PartnerNetCompanyAuthorizationManager} with filtering
+ * the roles of the user with a stream, as done per request by applications. Each invocation checks 16 companies, half
+ * of them granted. Building the {@link PartnerNetAuthorizationIndex} is measured separately, it happens once per user.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompanyRoleCheckBenchmark {
+
+    private static final String ROLE = "DEALER_ADMIN";
+    private static final int CHECKS = 16;
+
+    @Param({ "100", "1000", "5000" })
+    public int roles;
+
+    private List<PartnerNetRoleDTO> roleList;
+    private PartnerNetAuthorizationIndex index;
+    private PartnerNetCompanyAuthorizationManager<Integer> manager;
+    private int[] companyIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int companyCount = Math.max(roles / 20, CHECKS);
+
+        roleList = new ArrayList<>(roles);
+
+        for (int i = 0; i < roles; i++) {
+            int companyId = i % companyCount;
+            // Every other company has the checked role
+            String matchcode = i < companyCount && companyId % 2 == 0 ? ROLE : "R" + i % 50;
+
+            roleList.add(new PartnerNetRoleDTO(companyId, "V", matchcode));
+        }
+
+        // Like on startup, the manager knows its role before the index is built
+        manager = PartnerNetCompanyAuthorizationManager.hasCompanyRole(Function.identity(), ROLE);
+        index = PartnerNetAuthorizationIndex.of(roleList, null, null, null);
+        companyIds = new int[CHECKS];
+
+        for (int i = 0; i < CHECKS; i++) {
+            // Spread the checked companies over the whole list
+            companyIds[i] = (int) ((long) i * (companyCount - 1) / (CHECKS - 1));
+        }
+    }
+
+    @Benchmark
+    public int streamFilter() {
+        int granted = 0;
+
+        for (int companyId : companyIds) {
+            if (
+                roleList
+                    .stream()
+                    .filter(role -> role.getCompanyId() != null && role.getCompanyId() == companyId)
+                    .anyMatch(role -> ROLE.equals(role.getRoleMatchcode()))
+            ) {
+                granted++;
+            }
+        }
+
+        return granted;
+    }
+
+    @Benchmark
+    public int authorizationManager() {
+        int granted = 0;
+
+        for (int companyId : companyIds) {
+            if (manager.isGranted(index, companyId)) {
+                granted++;
+            }
+        }
+
+        return granted;
+    }
+
+    @Benchmark
+    public PartnerNetAuthorizationIndex buildIndex() {
+        return PartnerNetAuthorizationIndex.of(roleList, null, null, null);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import at.porscheinformatik.idp.openidconnect.convert.PartnerNetClaimTypeConverterFactory;
+import at.porscheinformatik.idp.openidconnect.convert.PartnerNetCompanyConverter;
+import at.porscheinformatik.idp.openidconnect.convert.PartnerNetContractConverter;
+import at.porscheinformatik.idp.openidconnect.convert.PartnerNetRoleConverter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.converter.ClaimConversionService;
+import org.springframework.security.oauth2.core.converter.ClaimTypeConverter;
+
+/**
+ * Conversion of the userinfo claims, as done by the {@link PartnerNetOpenIdConnectUserService}. Compares the direct
+ * decoders of the {@link PartnerNetClaimTypeConverterFactory} with converters, that look up the conversion of each
+ * value in the {@link ClaimConversionService}. The claims are built like the JSON parser returns them, with numbers
+ * as longs.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ClaimConversionBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int roles;
+
+    private Converter<Map<String, Object>, Map<String, Object>> direct;
+    private Converter<Map<String, Object>, Map<String, Object>> conversionService;
+    private Map<String, Object> claims;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Also registers the integer converter with the shared conversion service
+        direct = new PartnerNetClaimTypeConverterFactory().apply(registration());
+        conversionService = conversionServiceConverter();
+        claims = claims(roles);
+    }
+
+    @Benchmark
+    public Map<String, Object> directDecoders() {
+        return direct.convert(claims);
+    }
+
+    @Benchmark
+    public Map<String, Object> conversionServiceLookups() {
+        return conversionService.convert(claims);
+    }
+
+    private static Converter<Map<String, Object>, Map<String, Object>> conversionServiceConverter() {
+        Converter<Object, ?> intConverter = lookup(Integer.class);
+        Converter<Object, ?> stringConverter = lookup(String.class);
+        Map<String, Converter<Object, ?>> converters = OidcUserService.createDefaultClaimTypeConverters();
+
+        converters.put(
+            PartnerNetOpenIdConnectUser.USER_INFO_COMPANIES,
+            new PartnerNetCompanyConverter(intConverter, stringConverter)
+        );
+        converters.put(
+            PartnerNetOpenIdConnectUser.USER_INFO_ROLES,
+            new PartnerNetRoleConverter(intConverter, stringConverter)
+        );
+        converters.put(
+            PartnerNetOpenIdConnectUser.USER_INFO_CONTRACTS,
+            new PartnerNetContractConverter(intConverter, stringConverter)
+        );
+
+        return new ClaimTypeConverter(converters);
+    }
+
+    private static Converter<Object, ?> lookup(Class<?> targetType) {
+        TypeDescriptor sourceDescriptor = TypeDescriptor.valueOf(Object.class);
+        TypeDescriptor targetDescriptor = TypeDescriptor.valueOf(targetType);
+
+        return source -> ClaimConversionService.getSharedInstance().convert(source, sourceDescriptor, targetDescriptor);
+    }
+
+    private static Map<String, Object> claims(int roleCount) {
+        int companyCount = Math.max(roleCount / 20, 1);
+        List<Object> companies = new ArrayList<>();
+        List<Object> roles = new ArrayList<>();
+        List<Object> contracts = new ArrayList<>();
+
+        for (int i = 0; i < companyCount; i++) {
+            companies.add(Map.of("company_id", (long) i, "company_number", String.valueOf(10000 + i), "name", "C" + i));
+            contracts.add(Map.of("company_id", (long) i, "brand_id", "V", "contract_matchcode", "SALES"));
+        }
+
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(Map.of("company_id", (long) (i % companyCount), "brand_id", "V", "role_matchcode", "R" + i % 50));
+        }
+
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "user");
+        claims.put(PartnerNetOpenIdConnectUser.USER_INFO_COMPANIES, companies);
+        claims.put(PartnerNetOpenIdConnectUser.USER_INFO_ROLES, roles);
+        claims.put(PartnerNetOpenIdConnectUser.USER_INFO_CONTRACTS, contracts);
+
+        return claims;
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://idp.example.com/authorize")
+            .tokenUri("https://idp.example.com/token")
+            .build();
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import net.shibboleth.shared.xml.XMLParserException;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.saml2.core.Response;
+
+/**
+ * Factories shared by the benchmarks. The components are configured like {@link PartnerNetSaml2Configurer} does by
+ * default.
+ *
+ * @author Daniel Furtlehner
+ */
+final class Saml2Benchmarks {
+
+    private Saml2Benchmarks() {
+        super();
+    }
+
+    static PartnerNetSaml2ResponseParser responseParser() {
+        return new PartnerNetSaml2ResponseParser(new DefaultPartnerNetSaml2AuthoritiesMapper());
+    }
+
+    static PartnerNetSamlAuthenticationProvider authenticationProvider(Saml2ResponseProcessor processor) {
+        return new PartnerNetSamlAuthenticationProvider(processor, responseParser());
+    }
+
+    /**
+     * Unmarshalls the response with the {@link PartnerNetSamlAuthenticationProvider}.
+     */
+    static Response parse(String serializedResponse) throws XMLParserException, UnmarshallingException {
+        return PartnerNetSamlAuthenticationProvider.parse(
+            XMLObjectProviderRegistrySupport.getParserPool(),
+            serializedResponse
+        );
+    }
+}
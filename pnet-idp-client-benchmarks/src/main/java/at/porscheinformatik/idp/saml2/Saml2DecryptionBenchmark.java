@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import at.porscheinformatik.idp.saml2.Saml2ResponseFixture.Profile;
+import at.porscheinformatik.idp.saml2.response.DecrypterFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.core.Response;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+
+/**
+ * Decryption of the encrypted assertion, including the lookup of the decrypter.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Saml2DecryptionBenchmark {
+
+    @Param({ "SMALL", "TYPICAL", "HUGE" })
+    public Profile profile;
+
+    private final DecrypterFactory decrypterFactory = new DecrypterFactory();
+
+    private RelyingPartyRegistration registration;
+    private EncryptedAssertion encryptedAssertion;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Saml2ResponseFixture fixture = Saml2ResponseFixture.create(profile);
+        Response response = Saml2Benchmarks.parse(fixture.getSerializedResponse());
+
+        registration = fixture.getRegistration();
+        encryptedAssertion = response.getEncryptedAssertions().get(0);
+    }
+
+    @Benchmark
+    public Assertion decrypt() throws Exception {
+        return decrypterFactory
+            .getDecrypter(registration.getEntityId(), registration.getDecryptionX509Credentials())
+            .decrypt(encryptedAssertion);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import at.porscheinformatik.idp.saml2.Saml2ResponseFixture.Profile;
+import at.porscheinformatik.idp.saml2.response.DecryptAssertionsMessageHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.MessageHandler;
+import org.opensaml.saml.saml2.core.Response;
+
+/**
+ * Each handler of {@link Saml2ResponseProcessor#withDefaultHandlers()} on its own. Before each iteration, the message
+ * context is prepared by running all handlers in front of the measured one.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Saml2MessageHandlerBenchmark {
+
+    @Param({ "SMALL", "TYPICAL", "HUGE" })
+    public Profile profile;
+
+    @Param(
+        {
+            "MessageLifetimeSecurityHandler",
+            "ThrowOnMissingIdMessageHandler",
+            "CheckIssuerMessageHandler",
+            "VerifySignatureMessageHandler",
+            "DecryptAssertionsMessageHandler",
+            "VerifyStatusMessageHandler",
+            "CheckAssertionStructureMessageHandler",
+            "CheckSubjectMessageHandler",
+            "CheckAudienceRestrictionMessageHandler",
+            "CheckEndpointMessageHandler",
+            "VerifyAuthnInstantMessageHandler",
+            "CheckSubjectIdentifierMessageHandler",
+            "VerifyAuthenticationStrengthMessageHandler",
+            "CheckRelayStateMessageHandler",
+        }
+    )
+    public String handler;
+
+    private Saml2ResponseFixture fixture;
+    private List<MessageHandler> precedingHandlers;
+    private MessageHandler measuredHandler;
+    private boolean addsAssertions;
+
+    private Response response;
+    private MessageContext messageContext;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = Saml2ResponseFixture.create(profile);
+
+        List<MessageHandler> handlers = Saml2ResponseProcessor.defaultHandlers();
+
+        // Initializes the handlers like in the application
+        new Saml2ResponseProcessor(handlers).initialize();
+
+        for (int i = 0; i < handlers.size(); i++) {
+            if (handlers.get(i).getClass().getSimpleName().equals(handler)) {
+                precedingHandlers = handlers.subList(0, i);
+                measuredHandler = handlers.get(i);
+            }
+        }
+
+        if (measuredHandler == null) {
+            throw new IllegalArgumentException("Unknown handler " + handler);
+        }
+
+        addsAssertions = measuredHandler instanceof DecryptAssertionsMessageHandler;
+    }
+
+    @Setup(Level.Iteration)
+    public void prepareMessageContext() throws Exception {
+        response = Saml2Benchmarks.parse(fixture.getSerializedResponse());
+        messageContext = Saml2ResponseProcessor.buildMessageContext(fixture.newToken(), response);
+
+        for (MessageHandler precedingHandler : precedingHandlers) {
+            precedingHandler.invoke(messageContext);
+        }
+    }
+
+    @Benchmark
+    public MessageContext invoke() throws Exception {
+        measuredHandler.invoke(messageContext);
+
+        if (addsAssertions) {
+            // The decrypted assertions are added to the response. Remove them, so they do not pile up.
+            response.getAssertions().clear();
+        }
+
+        return messageContext;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import at.porscheinformatik.idp.saml2.Saml2ResponseFixture.Profile;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.Response;
+
+/**
+ * Unmarshalling of the serialized response. Compares the bytes fed to the parser by the
+ * {@link PartnerNetSamlAuthenticationProvider} with reading the string with a {@link StringReader}, as done before.
+ * Run with {@code -prof gc} to compare the allocations per response.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Saml2ParseBenchmark {
+
+    @Param({ "SMALL", "TYPICAL", "HUGE" })
+    public Profile profile;
+
+    private String serializedResponse;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        serializedResponse = Saml2ResponseFixture.create(profile).getSerializedResponse();
+    }
+
+    @Benchmark
+    public Response parseBytes() throws Exception {
+        return Saml2Benchmarks.parse(serializedResponse);
+    }
+
+    @Benchmark
+    public Response parseStringReader() throws Exception {
+        return (Response) XMLObjectSupport.unmarshallFromReader(
+            XMLObjectProviderRegistrySupport.getParserPool(),
+            new StringReader(serializedResponse)
+        );
+    }
+}
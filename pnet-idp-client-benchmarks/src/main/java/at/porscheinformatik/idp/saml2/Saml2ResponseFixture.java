@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import static at.porscheinformatik.idp.saml2.Saml2Utils.*;
+
+import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
+import org.springframework.security.saml2.provider.service.authentication.AbstractSaml2AuthenticationRequest;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationToken;
+import org.springframework.security.saml2.provider.service.authentication.Saml2PostAuthenticationRequest;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.security.saml2.provider.service.registration.Saml2MessageBinding;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * A signed response with an encrypted assertion, built with the test keystore of the SAML 2 module. The response is
+ * accepted by the default handlers of the {@link Saml2ResponseProcessor} for a few minutes after it was created. So
+ * the benchmarks create a new fixture per trial.
+ *
+ * @author Daniel Furtlehner
+ */
+public final class Saml2ResponseFixture {
+
+    public static final String IDP_ENTITY_ID = "https://identity.auto-partner.net/identity/saml2";
+    public static final String SP_ENTITY_ID = "https://service.com/service/saml2/pnet";
+    public static final String RESPONSE_DESTINATION = SP_ENTITY_ID + "/sso/post/pnet";
+
+    private static final String IDP_ENDPOINT_URL = IDP_ENTITY_ID + "/authorize";
+    private static final String ATTRIBUTE_PREFIX = IDP_ENTITY_ID + "/attributes/";
+    private static final String AUTHN_REQUEST_ID = "XYZ";
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    /**
+     * The size of the user profile contained in the response.
+     */
+    public enum Profile {
+        /**
+         * A user with a single employment and a handful of roles.
+         */
+        SMALL(1, 3),
+
+        /**
+         * A user with a few employments and some dozen roles.
+         */
+        TYPICAL(5, 50),
+
+        /**
+         * A support user with hundreds of employments and thousands of roles.
+         */
+        HUGE(250, 5000);
+
+        private final int companyCount;
+        private final int roleCount;
+
+        Profile(int companyCount, int roleCount) {
+            this.companyCount = companyCount;
+            this.roleCount = roleCount;
+        }
+    }
+
+    public static Saml2ResponseFixture create(Profile profile) throws Exception {
+        Saml2CredentialsManager credentialsManager = Saml2TestUtils.defaultCredentialsManager();
+        Saml2X509Credential decryptionCredential = credentialsManager
+            .getCredentials(Saml2X509CredentialType.DECRYPTION)
+            .get(0);
+        Saml2X509Credential signingCredential = credentialsManager
+            .getCredentials(Saml2X509CredentialType.SIGNING)
+            .get(0);
+
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, AUTHN_REQUEST_ID);
+        response.setStatus(Saml2ObjectUtils.status(StatusCode.SUCCESS, null));
+
+        Subject subject = Saml2ObjectUtils.subject(RESPONSE_DESTINATION, 30 * 60, AUTHN_REQUEST_ID);
+        Conditions conditions = Saml2ObjectUtils.conditions(SP_ENTITY_ID);
+        AuthnStatement authnStatement = Saml2ObjectUtils.authnStatement(
+            Instant.now(),
+            "urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport"
+        );
+        AttributeStatement attributeStatement = Saml2ObjectUtils.attributeStatement();
+        fillAttributes(attributeStatement, profile);
+
+        Assertion assertion = Saml2ObjectUtils.assertion(
+            IDP_ENTITY_ID,
+            subject,
+            conditions,
+            authnStatement,
+            attributeStatement
+        );
+
+        response
+            .getEncryptedAssertions()
+            .add(Saml2ObjectUtils.encryptAssertion(assertion, SP_ENTITY_ID, decryptionCredential));
+
+        Saml2ObjectUtils.sign(response, signingCredential);
+
+        String serializedResponse = XmlUtils.marshall(response);
+        String relayState = UUID.randomUUID().toString();
+        RelyingPartyRegistration registration = buildRelyingPartyRegistration(credentialsManager);
+
+        return new Saml2ResponseFixture(serializedResponse, relayState, registration);
+    }
+
+    private static void fillAttributes(AttributeStatement attributeStatement, Profile profile) {
+        int companies = profile.companyCount;
+        int roles = profile.roleCount;
+
+        attributeStatement.getAttributes().add(attribute(SUBJECT_ID_NAME, XmlUtils.xmlString("1234@localhost")));
+        attributeStatement.getAttributes().add(stringAttribute("guid", UUID.randomUUID().toString()));
+        attributeStatement.getAttributes().add(stringAttribute("auth_provider", "PNET"));
+        attributeStatement.getAttributes().add(stringAttribute("user_type", "EMPLOYEE"));
+        attributeStatement.getAttributes().add(stringAttribute("firstname", "Jane"));
+        attributeStatement.getAttributes().add(stringAttribute("lastname", "Doe"));
+        attributeStatement.getAttributes().add(stringAttribute("email", "jane.doe@example.com"));
+        attributeStatement.getAttributes().add(stringAttribute("language", "de-AT"));
+        attributeStatement.getAttributes().add(attribute(attributeName("person_id"), XmlUtils.xmlInt(4711)));
+        attributeStatement.getAttributes().add(attribute(attributeName("gender"), XmlUtils.xmlInt(2)));
+        attributeStatement
+            .getAttributes()
+            .add(attribute(attributeName("responsible_user"), XmlUtils.xmlBoolean(false)));
+        attributeStatement
+            .getAttributes()
+            .add(attribute(attributeName("preferred_company"), XmlUtils.xmlInt(companyId(0))));
+        attributeStatement
+            .getAttributes()
+            .add(multiValued("employment", companies, i -> companyId(i) + ";" + (10000 + i) + ";Company " + i));
+        attributeStatement
+            .getAttributes()
+            .add(
+                multiValued(
+                    "employment_address",
+                    companies,
+                    i -> companyId(i) + ";;Street " + i + ";;1010;;Vienna;;AT"
+                )
+            );
+        attributeStatement
+            .getAttributes()
+            .add(multiValued("employment_companytypes", companies, i -> companyId(i) + ";DEALER"));
+        attributeStatement
+            .getAttributes()
+            .add(multiValued("employment_contracts", companies, i -> companyId(i) + ";V;SALES"));
+        attributeStatement
+            .getAttributes()
+            .add(multiValued("functional_numbers", companies, i -> companyId(i) + ";FN;" + i));
+        attributeStatement
+            .getAttributes()
+            .add(
+                multiValued("roles", roles, i -> companyId(i % companies) + ";" + brand(i) + ";ROLE_" + (i / companies))
+            );
+
+        Attribute contactCompanies = Saml2ObjectUtils.attribute(attributeName("contact_company"), Attribute.URI_REFERENCE);
+
+        for (int i = 0; i < companies; i++) {
+            contactCompanies.getAttributeValues().add(XmlUtils.xmlInt(companyId(i)));
+        }
+
+        attributeStatement.getAttributes().add(contactCompanies);
+    }
+
+    private static int companyId(int index) {
+        return 100 + index;
+    }
+
+    private static String brand(int index) {
+        return switch (index % 4) {
+            case 0 -> "V";
+            case 1 -> "A";
+            case 2 -> "S";
+            default -> "C";
+        };
+    }
+
+    private static Attribute stringAttribute(String name, String value) {
+        return attribute(attributeName(name), XmlUtils.xmlString(value));
+    }
+
+    private static Attribute multiValued(String name, int count, IntFunction<String> valueFactory) {
+        Attribute attribute = Saml2ObjectUtils.attribute(attributeName(name), Attribute.URI_REFERENCE);
+
+        for (int i = 0; i < count; i++) {
+            attribute.getAttributeValues().add(XmlUtils.xmlString(valueFactory.apply(i)));
+        }
+
+        return attribute;
+    }
+
+    private static Attribute attribute(String name, XMLObject value) {
+        Attribute attribute = Saml2ObjectUtils.attribute(name, Attribute.URI_REFERENCE);
+
+        attribute.getAttributeValues().add(value);
+
+        return attribute;
+    }
+
+    private static String attributeName(String name) {
+        return ATTRIBUTE_PREFIX + name;
+    }
+
+    private static RelyingPartyRegistration buildRelyingPartyRegistration(Saml2CredentialsManager credentialsManager) {
+        return RelyingPartyRegistration.withRegistrationId("pnet")
+            .entityId(SP_ENTITY_ID)
+            .assertionConsumerServiceBinding(Saml2MessageBinding.POST)
+            .assertionConsumerServiceLocation(RESPONSE_DESTINATION)
+            .decryptionX509Credentials(credentials ->
+                credentials.addAll(credentialsManager.getCredentials(Saml2X509CredentialType.DECRYPTION))
+            )
+            .assertingPartyMetadata(builder ->
+                builder
+                    .entityId(IDP_ENTITY_ID)
+                    .singleSignOnServiceBinding(Saml2MessageBinding.REDIRECT)
+                    .singleSignOnServiceLocation(IDP_ENDPOINT_URL)
+                    .wantAuthnRequestsSigned(false)
+                    .verificationX509Credentials(credentials ->
+                        credentialsManager
+                            .getCredentials(Saml2X509CredentialType.SIGNING)
+                            .stream()
+                            .map(Saml2X509Credential::getCertificate)
+                            .map(Saml2X509Credential::verification)
+                            .forEach(credentials::add)
+                    )
+            )
+            .build();
+    }
+
+    private final String serializedResponse;
+    private final String relayState;
+    private final RelyingPartyRegistration registration;
+
+    private Saml2ResponseFixture(String serializedResponse, String relayState, RelyingPartyRegistration registration) {
+        this.serializedResponse = serializedResponse;
+        this.relayState = relayState;
+        this.registration = registration;
+    }
+
+    public String getSerializedResponse() {
+        return serializedResponse;
+    }
+
+    public RelyingPartyRegistration getRegistration() {
+        return registration;
+    }
+
+    /**
+     * @return a new token, as it is created by Spring Security when the response is posted to the service provider
+     */
+    public Saml2AuthenticationToken newToken() {
+        UriComponents uriComponents = UriComponentsBuilder.fromUriString(RESPONSE_DESTINATION).build();
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", uriComponents.getPath());
+
+        request.setScheme(uriComponents.getScheme());
+        request.setServerName(uriComponents.getHost());
+        request.setServerPort(uriComponents.getPort());
+        request.setPathInfo(uriComponents.getPath());
+        request.addParameter(RELAY_STATE_PARAM, relayState);
+
+        Saml2Utils.storeAuthnRequestId(request, AUTHN_REQUEST_ID);
+
+        AbstractSaml2AuthenticationRequest authenticationRequest =
+            Saml2PostAuthenticationRequest.withRelyingPartyRegistration(registration)
+                .samlRequest("dummy request")
+                .relayState(relayState)
+                .build();
+        Saml2AuthenticationToken token = new Saml2AuthenticationToken(
+            registration,
+            serializedResponse,
+            authenticationRequest
+        );
+        token.setDetails(new HttpRequestContext(request));
+
+        return token;
+    }
+}
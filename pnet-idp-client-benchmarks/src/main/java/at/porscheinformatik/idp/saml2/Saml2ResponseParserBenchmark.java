@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import at.porscheinformatik.idp.saml2.Saml2ResponseFixture.Profile;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.saml2.core.Response;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Decoding of the attributes of a processed response into the {@link PartnerNetSaml2AuthenticationPrincipal} by the
+ * {@link PartnerNetSaml2ResponseParser}.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Saml2ResponseParserBenchmark {
+
+    @Param({ "SMALL", "TYPICAL", "HUGE" })
+    public Profile profile;
+
+    private PartnerNetSaml2ResponseParser parser;
+    private Response response;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Saml2ResponseFixture fixture = Saml2ResponseFixture.create(profile);
+        Saml2ResponseProcessor processor = Saml2ResponseProcessor.withDefaultHandlers();
+        processor.initialize();
+
+        parser = Saml2Benchmarks.responseParser();
+        response = Saml2Benchmarks.parse(fixture.getSerializedResponse());
+
+        // Decrypts the assertion
+        processor.process(fixture.newToken(), response);
+    }
+
+    @Benchmark
+    public Authentication parseResponse() {
+        return parser.parseResponse(response, Optional.empty());
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import at.porscheinformatik.idp.saml2.Saml2ResponseFixture.Profile;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.Authentication;
+
+/**
+ * The whole way from the serialized response to the authentication: pre-validation, parsing, all default handlers
+ * and the attribute decoding, as done by {@link PartnerNetSamlAuthenticationProvider#authenticate} for each login.
+ *
+ * @author Daniel Furtlehner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class Saml2ResponsePipelineBenchmark {
+
+    @Param({ "SMALL", "TYPICAL", "HUGE" })
+    public Profile profile;
+
+    private Saml2ResponseFixture fixture;
+    private PartnerNetSamlAuthenticationProvider provider;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Saml2ResponseProcessor processor = Saml2ResponseProcessor.withDefaultHandlers();
+        processor.initialize();
+
+        fixture = Saml2ResponseFixture.create(profile);
+        provider = Saml2Benchmarks.authenticationProvider(processor);
+        provider.setPreValidator(new Saml2ResponsePreValidator());
+    }
+
+    @Benchmark
+    public Authentication authenticate() {
+        return provider.authenticate(fixture.newToken());
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A hash map with primitive int keys and open addressing, so looking up a company does not box its id. It is filled
+ * once and only read afterwards.
+ *
+ * @author Daniel Furtlehner
+ * @param <V> type of the values
+ */
+final class IntObjectMap<V> {
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    IntObjectMap(int expectedSize) {
+        super();
+
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+
+        for (int index = hash(key) & mask; values[index] != null; index = (index + 1) & mask) {
+            if (keys[index] == key) {
+                return (V) values[index];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @param factory creates the value, if there is none for the key
+     * @return the value of the key
+     */
+    @SuppressWarnings("unchecked")
+    V computeIfAbsent(int key, IntFunction<V> factory) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return (V) values[index];
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        V value = factory.apply(key);
+
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys in ascending order
+     */
+    int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+
+        for (int index = 0; index < keys.length; index++) {
+            if (values[index] != null) {
+                result[count++] = keys[index];
+            }
+        }
+
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int mask = oldKeys.length * 2 - 1;
+
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+
+        for (int oldIndex = 0; oldIndex < oldKeys.length; oldIndex++) {
+            if (oldValues[oldIndex] != null) {
+                int index = hash(oldKeys[oldIndex]) & mask;
+
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+
+                keys[index] = oldKeys[oldIndex];
+                values[index] = oldValues[oldIndex];
+            }
+        }
+    }
+
+    static int hash(int key) {
+        // Company ids are often sequential, spread them over the table
+        int hash = key * 0x9E3779B9;
+
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,407 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * The roles, contracts, functional numbers and company types of a user, indexed by company and brand. Checking, if
+ * the user has a role in a company, takes constant time instead of scanning all roles. Build it once per user with
+ * {@link #of(Collection, Collection, Collection, Collection)}; the principals of SAML2 and Open ID Connect do this on
+ * first use.
+ * <p>
+ * Claims without a company id are ignored. The index is immutable and can be shared by threads.
+ * <p>
+ * The role bitsets only contain the roles, that were interned in the {@link PartnerNetRoleDictionary} before the index
+ * was built. Use {@link #knowsRoles(BitSet)} before {@link #hasAnyRole(int, BitSet)} and
+ * {@link #hasAllRoles(int, BitSet)}, the {@link PartnerNetCompanyAuthorizationManager} checks the matchcodes of newer
+ * roles instead.
+ *
+ * @author Daniel Furtlehner
+ */
+public final class PartnerNetAuthorizationIndex {
+
+    private static final PartnerNetAuthorizationIndex EMPTY = new PartnerNetAuthorizationIndex(
+        Integer.MAX_VALUE,
+        new IntObjectMap<>(0),
+        Collections.emptyMap(),
+        Collections.emptyMap(),
+        Collections.emptyMap()
+    );
+
+    private final int knownRoleCount;
+    private final IntObjectMap<CompanyEntry> companies;
+    private final Set<Integer> companyIds;
+    private final Map<String, Set<Integer>> companiesByRole;
+    private final Map<String, Set<Integer>> companiesByContract;
+    private final Map<String, Set<Integer>> companiesByCompanyType;
+
+    private PartnerNetAuthorizationIndex(
+        int knownRoleCount,
+        IntObjectMap<CompanyEntry> companies,
+        Map<String, Set<Integer>> companiesByRole,
+        Map<String, Set<Integer>> companiesByContract,
+        Map<String, Set<Integer>> companiesByCompanyType
+    ) {
+        super();
+        this.knownRoleCount = knownRoleCount;
+        this.companies = companies;
+        this.companiesByRole = companiesByRole;
+        this.companiesByContract = companiesByContract;
+        this.companiesByCompanyType = companiesByCompanyType;
+
+        Set<Integer> ids = new TreeSet<>();
+
+        for (int companyId : companies.keys()) {
+            ids.add(companyId);
+        }
+
+        companyIds = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * @return an index without any claims
+     */
+    public static PartnerNetAuthorizationIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param roles the roles, may be null
+     * @param contracts the contracts, may be null
+     * @param functionalNumbers the functional numbers, may be null
+     * @param companyTypes the company types, may be null
+     * @return the index of the claims
+     */
+    public static PartnerNetAuthorizationIndex of(
+        Collection<? extends PartnerNetRoleDTO> roles,
+        Collection<? extends PartnerNetContractDTO> contracts,
+        Collection<? extends PartnerNetFunctionalNumberDTO> functionalNumbers,
+        Collection<? extends PartnerNetCompanyTypeDTO> companyTypes
+    ) {
+        if (isEmpty(roles) && isEmpty(contracts) && isEmpty(functionalNumbers) && isEmpty(companyTypes)) {
+            return EMPTY;
+        }
+
+        // All roles below this number are found, roles interned while building are checked by matchcode
+        int knownRoleCount = PartnerNetRoleDictionary.shared().size();
+        IntObjectMap<CompanyEntry> companies = new IntObjectMap<>(size(roles) / 8 + size(contracts));
+        Map<String, Set<Integer>> companiesByRole = new HashMap<>();
+        Map<String, Set<Integer>> companiesByContract = new HashMap<>();
+        Map<String, Set<Integer>> companiesByCompanyType = new HashMap<>();
+
+        if (roles != null) {
+            for (PartnerNetRoleDTO role : roles) {
+                CompanyEntry entry = add(
+                    companies,
+                    companiesByRole,
+                    role,
+                    role.getBrandId(),
+                    role.getRoleMatchcode(),
+                    company -> company.roles
+                );
+
+                // Only roles checked by an authorization manager are known
+                int roleId = entry == null ? -1 : PartnerNetRoleDictionary.shared().find(role.getRoleMatchcode());
+
+                if (roleId >= 0 && roleId < knownRoleCount) {
+                    entry.roleIds.set(roleId);
+                }
+            }
+        }
+
+        if (contracts != null) {
+            for (PartnerNetContractDTO contract : contracts) {
+                add(
+                    companies,
+                    companiesByContract,
+                    contract,
+                    contract.getBrandId(),
+                    contract.getContractMatchcode(),
+                    entry -> entry.contracts
+                );
+            }
+        }
+
+        if (functionalNumbers != null) {
+            for (PartnerNetFunctionalNumberDTO functionalNumber : functionalNumbers) {
+                add(companies, null, functionalNumber, null, functionalNumber.getMatchcode(), entry -> entry.functions);
+            }
+        }
+
+        if (companyTypes != null) {
+            for (PartnerNetCompanyTypeDTO companyType : companyTypes) {
+                add(
+                    companies,
+                    companiesByCompanyType,
+                    companyType,
+                    null,
+                    companyType.getCompanyTypeMatchcode(),
+                    entry -> entry.companyTypes
+                );
+            }
+        }
+
+        return new PartnerNetAuthorizationIndex(
+            knownRoleCount,
+            companies,
+            freeze(companiesByRole),
+            freeze(companiesByContract),
+            freeze(companiesByCompanyType)
+        );
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param roleMatchcode the matchcode of the role
+     * @return true, if the user has the role in the company for any brand
+     */
+    public boolean hasRole(int companyId, String roleMatchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.roles.contains(roleMatchcode);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param brandId the id of the brand
+     * @param roleMatchcode the matchcode of the role
+     * @return true, if the user has the role in the company for the brand
+     */
+    public boolean hasRole(int companyId, String brandId, String roleMatchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.roles.contains(brandId, roleMatchcode);
+    }
+
+    /**
+     * @param roleIds the numbers of the roles in the {@link PartnerNetRoleDictionary#shared() shared dictionary}
+     * @return true, if the roles were interned before the index was built, so the bitsets contain them
+     */
+    public boolean knowsRoles(BitSet roleIds) {
+        return roleIds.length() <= knownRoleCount;
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param roleIds the numbers of the roles in the {@link PartnerNetRoleDictionary#shared() shared dictionary}
+     * @return true, if the user has any of the roles in the company for any brand
+     */
+    public boolean hasAnyRole(int companyId, BitSet roleIds) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.roleIds.intersects(roleIds);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param roleIds the numbers of the roles in the {@link PartnerNetRoleDictionary#shared() shared dictionary}
+     * @return true, if the user has all of the roles in the company for any brand
+     */
+    public boolean hasAllRoles(int companyId, BitSet roleIds) {
+        CompanyEntry entry = companies.get(companyId);
+
+        if (entry == null) {
+            return roleIds.isEmpty();
+        }
+
+        for (int roleId = roleIds.nextSetBit(0); roleId >= 0; roleId = roleIds.nextSetBit(roleId + 1)) {
+            if (!entry.roleIds.get(roleId)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param contractMatchcode the matchcode of the contract
+     * @return true, if the company has the contract for any brand
+     */
+    public boolean hasContract(int companyId, String contractMatchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.contracts.contains(contractMatchcode);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param brandId the id of the brand
+     * @param contractMatchcode the matchcode of the contract
+     * @return true, if the company has the contract for the brand
+     */
+    public boolean hasContract(int companyId, String brandId, String contractMatchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.contracts.contains(brandId, contractMatchcode);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param matchcode the matchcode of the functional number
+     * @return true, if the user has the functional number in the company
+     */
+    public boolean hasFunctionalNumber(int companyId, String matchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.functions.contains(matchcode);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param companyTypeMatchcode the matchcode of the company type
+     * @return true, if the company has the type
+     */
+    public boolean hasCompanyType(int companyId, String companyTypeMatchcode) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry != null && entry.companyTypes.contains(companyTypeMatchcode);
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @return the matchcodes of the roles the user has in the company for any brand
+     */
+    public Set<String> getRoles(int companyId) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry == null ? Collections.emptySet() : entry.roles.allView;
+    }
+
+    /**
+     * @param companyId the id of the company
+     * @param brandId the id of the brand
+     * @return the matchcodes of the roles the user has in the company for the brand
+     */
+    public Set<String> getRoles(int companyId, String brandId) {
+        CompanyEntry entry = companies.get(companyId);
+
+        return entry == null ? Collections.emptySet() : entry.roles.byBrand(brandId);
+    }
+
+    /**
+     * @param roleMatchcode the matchcode of the role
+     * @return the ids of the companies, the user has the role in, in ascending order
+     */
+    public Set<Integer> getCompaniesWithRole(String roleMatchcode) {
+        return companiesByRole.getOrDefault(roleMatchcode, Collections.emptySet());
+    }
+
+    /**
+     * @param contractMatchcode the matchcode of the contract
+     * @return the ids of the companies with the contract, in ascending order
+     */
+    public Set<Integer> getCompaniesWithContract(String contractMatchcode) {
+        return companiesByContract.getOrDefault(contractMatchcode, Collections.emptySet());
+    }
+
+    /**
+     * @param companyTypeMatchcode the matchcode of the company type
+     * @return the ids of the companies with the type, in ascending order
+     */
+    public Set<Integer> getCompaniesWithCompanyType(String companyTypeMatchcode) {
+        return companiesByCompanyType.getOrDefault(companyTypeMatchcode, Collections.emptySet());
+    }
+
+    /**
+     * @return the ids of all companies with any claim, in ascending order
+     */
+    public Set<Integer> getCompanyIds() {
+        return companyIds;
+    }
+
+    private static CompanyEntry add(
+        IntObjectMap<CompanyEntry> companies,
+        Map<String, Set<Integer>> companiesByMatchcode,
+        AbstractCompanyDependentClaim claim,
+        String brandId,
+        String matchcode,
+        Function<CompanyEntry, Matchcodes> matchcodes
+    ) {
+        if (claim.getCompanyId() == null || matchcode == null) {
+            return null;
+        }
+
+        int companyId = claim.getCompanyId();
+        CompanyEntry entry = companies.computeIfAbsent(companyId, id -> new CompanyEntry());
+
+        matchcodes.apply(entry).add(brandId, matchcode);
+
+        if (companiesByMatchcode != null) {
+            companiesByMatchcode.computeIfAbsent(matchcode, key -> new TreeSet<>()).add(companyId);
+        }
+
+        return entry;
+    }
+
+    private static Map<String, Set<Integer>> freeze(Map<String, Set<Integer>> companiesByMatchcode) {
+        companiesByMatchcode.replaceAll((matchcode, companyIds) -> Collections.unmodifiableSet(companyIds));
+
+        return Collections.unmodifiableMap(companiesByMatchcode);
+    }
+
+    private static boolean isEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    private static int size(Collection<?> collection) {
+        return collection == null ? 0 : collection.size();
+    }
+
+    private static final class CompanyEntry {
+
+        private final BitSet roleIds = new BitSet();
+        private final Matchcodes roles = new Matchcodes();
+        private final Matchcodes contracts = new Matchcodes();
+        private final Matchcodes functions = new Matchcodes();
+        private final Matchcodes companyTypes = new Matchcodes();
+    }
+
+    /**
+     * The matchcodes of one kind within a company, for any brand and per brand. Only filled while the index is built.
+     */
+    private static final class Matchcodes {
+
+        private final Set<String> all = new HashSet<>(4);
+        private final Set<String> allView = Collections.unmodifiableSet(all);
+        private Map<String, Set<String>> brands;
+
+        void add(String brandId, String matchcode) {
+            all.add(matchcode);
+
+            if (brandId != null) {
+                if (brands == null) {
+                    brands = new HashMap<>(4);
+                }
+
+                brands.computeIfAbsent(brandId, key -> new HashSet<>(4)).add(matchcode);
+            }
+        }
+
+        boolean contains(String matchcode) {
+            return all.contains(matchcode);
+        }
+
+        boolean contains(String brandId, String matchcode) {
+            Set<String> matchcodes = brands == null ? null : brands.get(brandId);
+
+            return matchcodes != null && matchcodes.contains(matchcode);
+        }
+
+        Set<String> byBrand(String brandId) {
+            Set<String> matchcodes = brands == null ? null : brands.get(brandId);
+
+            return matchcodes == null ? Collections.emptySet() : Collections.unmodifiableSet(matchcodes);
+        }
+    }
+}
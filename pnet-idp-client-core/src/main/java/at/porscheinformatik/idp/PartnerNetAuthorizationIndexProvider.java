@@ -0,0 +1,16 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+/**
+ * Implemented by the principals of SAML2 and Open ID Connect, so authorization works the same for both.
+ *
+ * @author Daniel Furtlehner
+ */
+public interface PartnerNetAuthorizationIndexProvider {
+    /**
+     * @return the roles, contracts, functional numbers and company types of the user indexed by company
+     */
+    PartnerNetAuthorizationIndex getAuthorizationIndex();
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.authorization.AuthorizationResult;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Grants access, if the user has the roles in the company of the secured object. The role matchcodes are looked up in
+ * the {@link PartnerNetRoleDictionary} once, when the manager is created. Each check only tests the bitset of the
+ * company in the {@link PartnerNetAuthorizationIndex} of the principal. Indexes built before the manager do not have
+ * bits for its roles, they are checked by the matchcodes of the roles.
+ * <p>
+ * The principal must be a {@link PartnerNetAuthorizationIndexProvider}, like the principals of SAML2 and Open ID
+ * Connect. Access is denied for all other principals and if the company of the object is unknown.
+ *
+ * <pre>
+ * http.authorizeHttpRequests(requests -&gt; requests
+ *     .requestMatchers("/companies/{companyId}/**")
+ *     .access(PartnerNetCompanyAuthorizationManager.hasCompanyRole(
+ *         context -&gt; Integer.valueOf(context.getVariables().get("companyId")), "DEALER_ADMIN")));
+ * </pre>
+ *
+ * For method security, register the manager as bean and call it with the company id of the method:
+ *
+ * <pre>
+ * &#64;PreAuthorize("&#64;dealerAdmin.isGranted(authentication, #companyId)")
+ * </pre>
+ *
+ * @author Daniel Furtlehner
+ * @param <T> type of the secured object
+ */
+public final class PartnerNetCompanyAuthorizationManager<T> implements AuthorizationManager<T> {
+
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+
+    private final Function<T, Integer> companyIdResolver;
+    private final String[] roleMatchcodes;
+    private final BitSet roleIds;
+    private final boolean all;
+
+    private PartnerNetCompanyAuthorizationManager(
+        Function<T, Integer> companyIdResolver,
+        String[] roleMatchcodes,
+        boolean all
+    ) {
+        super();
+
+        if (roleMatchcodes.length == 0) {
+            throw new IllegalArgumentException("At least one role matchcode is required");
+        }
+
+        this.companyIdResolver = Objects.requireNonNull(companyIdResolver, "companyIdResolver must not be null");
+        this.roleMatchcodes = roleMatchcodes.clone();
+        this.roleIds = PartnerNetRoleDictionary.shared().internAll(this.roleMatchcodes);
+        this.all = all;
+    }
+
+    /**
+     * @param <T> type of the secured object
+     * @param companyIdResolver resolves the id of the company from the secured object, may return null
+     * @param roleMatchcode the matchcode of the role
+     * @return a manager, that grants access, if the user has the role in the company
+     */
+    public static <T> PartnerNetCompanyAuthorizationManager<T> hasCompanyRole(
+        Function<T, Integer> companyIdResolver,
+        String roleMatchcode
+    ) {
+        return hasAnyCompanyRole(companyIdResolver, roleMatchcode);
+    }
+
+    /**
+     * @param <T> type of the secured object
+     * @param companyIdResolver resolves the id of the company from the secured object, may return null
+     * @param roleMatchcodes the matchcodes of the roles
+     * @return a manager, that grants access, if the user has any of the roles in the company
+     */
+    public static <T> PartnerNetCompanyAuthorizationManager<T> hasAnyCompanyRole(
+        Function<T, Integer> companyIdResolver,
+        String... roleMatchcodes
+    ) {
+        return new PartnerNetCompanyAuthorizationManager<>(companyIdResolver, roleMatchcodes, false);
+    }
+
+    /**
+     * @param <T> type of the secured object
+     * @param companyIdResolver resolves the id of the company from the secured object, may return null
+     * @param roleMatchcodes the matchcodes of the roles
+     * @return a manager, that grants access, if the user has all of the roles in the company
+     */
+    public static <T> PartnerNetCompanyAuthorizationManager<T> hasAllCompanyRoles(
+        Function<T, Integer> companyIdResolver,
+        String... roleMatchcodes
+    ) {
+        return new PartnerNetCompanyAuthorizationManager<>(companyIdResolver, roleMatchcodes, true);
+    }
+
+    @Override
+    public AuthorizationResult authorize(Supplier<? extends Authentication> authentication, T object) {
+        Integer companyId = companyIdResolver.apply(object);
+
+        if (companyId == null) {
+            return DENIED;
+        }
+
+        return isGranted(authentication.get(), companyId) ? GRANTED : DENIED;
+    }
+
+    /**
+     * @param authentication the authentication of the user, may be null
+     * @param companyId the id of the company
+     * @return true, if the user is authenticated and has the roles in the company
+     */
+    public boolean isGranted(Authentication authentication, int companyId) {
+        if (
+            authentication == null ||
+            !authentication.isAuthenticated() ||
+            !(authentication.getPrincipal() instanceof PartnerNetAuthorizationIndexProvider provider)
+        ) {
+            return false;
+        }
+
+        return isGranted(provider.getAuthorizationIndex(), companyId);
+    }
+
+    /**
+     * @param index the index of the user
+     * @param companyId the id of the company
+     * @return true, if the user has the roles in the company
+     */
+    public boolean isGranted(PartnerNetAuthorizationIndex index, int companyId) {
+        if (!index.knowsRoles(roleIds)) {
+            return hasRoles(index, companyId);
+        }
+
+        return all ? index.hasAllRoles(companyId, roleIds) : index.hasAnyRole(companyId, roleIds);
+    }
+
+    private boolean hasRoles(PartnerNetAuthorizationIndex index, int companyId) {
+        for (String roleMatchcode : roleMatchcodes) {
+            if (index.hasRole(companyId, roleMatchcode) != all) {
+                return !all;
+            }
+        }
+
+        return all;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each role matchcode a small number, so the roles of a company can be kept in a {@link BitSet}. The numbers
+ * are assigned on first use and never change. The {@link #shared() shared} dictionary is used by all
+ * {@link PartnerNetAuthorizationIndex}es.
+ * <p>
+ * Only the roles checked by a {@link PartnerNetCompanyAuthorizationManager} are interned, when the manager is created.
+ * The indexes only look up the numbers of the roles of the user and skip unknown ones, so the roles sent by the
+ * identity provider do not fill the dictionary. Each index remembers the {@link #size()} of the dictionary, so roles
+ * interned later are checked by their matchcode.
+ *
+ * @author Daniel Furtlehner
+ */
+public final class PartnerNetRoleDictionary {
+
+    /**
+     * The Partner.Net knows some hundred roles. Protects the bitsets from growing without limit.
+     */
+    static final int MAX_ROLES = 1 << 16;
+
+    private static final PartnerNetRoleDictionary SHARED = new PartnerNetRoleDictionary();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /**
+     * The roles with lower numbers are all in the map. Written after the map, so readers of the size see them.
+     */
+    private volatile int size;
+
+    PartnerNetRoleDictionary() {
+        super();
+    }
+
+    /**
+     * @return the dictionary shared by all indexes
+     */
+    public static PartnerNetRoleDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param roleMatchcode the matchcode of the role
+     * @return the number of the role, assigned on first use
+     */
+    public int intern(String roleMatchcode) {
+        Objects.requireNonNull(roleMatchcode, "roleMatchcode must not be null");
+
+        Integer id = ids.get(roleMatchcode);
+
+        if (id != null) {
+            return id;
+        }
+
+        // Only the authorization managers intern roles, so this is rare
+        synchronized (this) {
+            id = ids.get(roleMatchcode);
+
+            if (id != null) {
+                return id;
+            }
+
+            if (size >= MAX_ROLES) {
+                throw new IllegalStateException(String.format("More than %d role matchcodes", MAX_ROLES));
+            }
+
+            ids.put(roleMatchcode, size);
+
+            return size++;
+        }
+    }
+
+    /**
+     * @param roleMatchcode the matchcode of the role
+     * @return the number of the role, or -1, if it was never interned
+     */
+    public int find(String roleMatchcode) {
+        Integer id = ids.get(Objects.requireNonNull(roleMatchcode, "roleMatchcode must not be null"));
+
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param roleMatchcodes the matchcodes of the roles
+     * @return the numbers of the roles as bitset
+     */
+    public BitSet internAll(String... roleMatchcodes) {
+        BitSet result = new BitSet();
+
+        for (String roleMatchcode : roleMatchcodes) {
+            result.set(intern(roleMatchcode));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of known roles. All roles with a lower number can be found.
+     */
+    public int size() {
+        return size;
+    }
+}
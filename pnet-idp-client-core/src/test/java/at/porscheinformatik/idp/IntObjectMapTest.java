@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class IntObjectMapTest {
+
+    @Test
+    void storesCompanyIdZero() {
+        IntObjectMap<String> map = new IntObjectMap<>(0);
+
+        // The keys of empty slots are 0, too
+        assertThat(map.get(0), nullValue());
+
+        map.computeIfAbsent(0, String::valueOf);
+
+        assertThat(map.get(0), equalTo("0"));
+        assertThat(map.get(8), nullValue());
+        assertThat(map.keys(), equalTo(new int[] { 0 }));
+    }
+
+    @Test
+    void resolvesCollisions() {
+        // The smallest table has 8 slots
+        List<Integer> colliding = collidingKeys(4, 7);
+        IntObjectMap<String> map = new IntObjectMap<>(0);
+
+        for (int i = 0; i < 3; i++) {
+            map.computeIfAbsent(colliding.get(i), String::valueOf);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(map.get(colliding.get(i)), equalTo(String.valueOf(colliding.get(i))));
+        }
+
+        assertThat(map.get(colliding.get(3)), nullValue());
+        assertThat(map.size(), equalTo(3));
+    }
+
+    @Test
+    void keepsExistingValues() {
+        IntObjectMap<String> map = new IntObjectMap<>(4);
+
+        assertThat(map.computeIfAbsent(7, key -> "first"), equalTo("first"));
+        assertThat(map.computeIfAbsent(7, key -> "second"), equalTo("first"));
+        assertThat(map.size(), equalTo(1));
+    }
+
+    @Test
+    void grows() {
+        IntObjectMap<String> map = new IntObjectMap<>(0);
+
+        for (int key = -1000; key < 1000; key++) {
+            map.computeIfAbsent(key * 64, String::valueOf);
+        }
+
+        assertThat(map.size(), equalTo(2000));
+
+        for (int key = -1000; key < 1000; key++) {
+            assertThat(map.get(key * 64), equalTo(String.valueOf(key * 64)));
+            assertThat(map.get(key * 64 + 1), nullValue());
+        }
+
+        int[] keys = map.keys();
+
+        assertThat(keys.length, equalTo(2000));
+        assertThat(keys[0], equalTo(-64000));
+        assertThat(keys[1999], equalTo(63936));
+    }
+
+    private static List<Integer> collidingKeys(int count, int mask) {
+        List<Integer> keys = new ArrayList<>();
+        int slot = IntObjectMap.hash(1) & mask;
+
+        for (int key = 1; keys.size() < count; key++) {
+            if ((IntObjectMap.hash(key) & mask) == slot) {
+                keys.add(key);
+            }
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetAuthorizationIndexTest {
+
+    @Test
+    void indexesClaimsByCompany() {
+        PartnerNetAuthorizationIndex index = PartnerNetAuthorizationIndex.of(
+            List.of(
+                new PartnerNetRoleDTO(7, "V", "SALES"),
+                new PartnerNetRoleDTO(7, "A", "SERVICE"),
+                new PartnerNetRoleDTO(3, "V", "SALES"),
+                new PartnerNetRoleDTO(null, "V", "ADMIN")
+            ),
+            List.of(new PartnerNetContractDTO(7, "V", "DEALER")),
+            List.of(new PartnerNetFunctionalNumberDTO(7, "SALES_MANAGER", 1)),
+            List.of(new PartnerNetCompanyTypeDTO(3, "IMPORTER"))
+        );
+
+        assertThat(index.hasRole(7, "SALES"), equalTo(true));
+        assertThat(index.hasRole(7, "V", "SALES"), equalTo(true));
+        assertThat(index.hasRole(7, "A", "SALES"), equalTo(false));
+        assertThat(index.hasRole(8, "SALES"), equalTo(false));
+        assertThat(index.hasContract(7, "V", "DEALER"), equalTo(true));
+        assertThat(index.hasContract(3, "DEALER"), equalTo(false));
+        assertThat(index.hasFunctionalNumber(7, "SALES_MANAGER"), equalTo(true));
+        assertThat(index.hasFunctionalNumber(3, "SALES_MANAGER"), equalTo(false));
+        assertThat(index.hasCompanyType(3, "IMPORTER"), equalTo(true));
+        assertThat(index.getRoles(7), containsInAnyOrder("SALES", "SERVICE"));
+        assertThat(index.getRoles(7, "A"), contains("SERVICE"));
+        assertThat(index.getRoles(8), empty());
+        assertThat(index.getCompaniesWithRole("SALES"), contains(3, 7));
+        assertThat(index.getCompaniesWithRole("ADMIN"), empty());
+        assertThat(index.getCompaniesWithContract("DEALER"), contains(7));
+        assertThat(index.getCompaniesWithCompanyType("IMPORTER"), contains(3));
+        assertThat(index.getCompanyIds(), contains(3, 7));
+    }
+
+    @Test
+    void indexesCompanyIdZero() {
+        PartnerNetAuthorizationIndex index = PartnerNetAuthorizationIndex.of(
+            List.of(new PartnerNetRoleDTO(0, "V", "SALES")),
+            null,
+            null,
+            null
+        );
+
+        assertThat(index.hasRole(0, "SALES"), equalTo(true));
+        assertThat(index.hasRole(1, "SALES"), equalTo(false));
+        assertThat(index.getCompanyIds(), contains(0));
+        assertThat(PartnerNetAuthorizationIndex.empty().hasRole(0, "SALES"), equalTo(false));
+    }
+
+    @Test
+    void indexesManyCompanies() {
+        List<PartnerNetRoleDTO> roles = new ArrayList<>();
+
+        for (int companyId = -500; companyId < 500; companyId++) {
+            roles.add(new PartnerNetRoleDTO(companyId * 31, "V", "R" + (companyId & 7)));
+        }
+
+        PartnerNetAuthorizationIndex index = PartnerNetAuthorizationIndex.of(roles, null, null, null);
+
+        assertThat(index.getCompanyIds(), hasSize(1000));
+
+        for (PartnerNetRoleDTO role : roles) {
+            assertThat(index.hasRole(role.getCompanyId(), "V", role.getRoleMatchcode()), equalTo(true));
+        }
+
+        assertThat(index.hasRole(1, "R1"), equalTo(false));
+        assertThat(PartnerNetAuthorizationIndex.of(null, null, null, null).getCompanyIds(), empty());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetCompanyAuthorizationManagerTest {
+
+    private static final Function<Integer, Integer> COMPANY_ID = Function.identity();
+
+    // The managers are created before the indexes, like on startup
+    private static final PartnerNetCompanyAuthorizationManager<Integer> DEALER_ADMIN =
+        PartnerNetCompanyAuthorizationManager.hasCompanyRole(COMPANY_ID, "DEALER_ADMIN");
+    private static final PartnerNetCompanyAuthorizationManager<Integer> ANY =
+        PartnerNetCompanyAuthorizationManager.hasAnyCompanyRole(COMPANY_ID, "DEALER_ADMIN", "SALES");
+    private static final PartnerNetCompanyAuthorizationManager<Integer> ALL =
+        PartnerNetCompanyAuthorizationManager.hasAllCompanyRoles(COMPANY_ID, "DEALER_ADMIN", "SALES");
+
+    private final Authentication authentication = authentication(
+        new PartnerNetRoleDTO(7, "V", "DEALER_ADMIN"),
+        new PartnerNetRoleDTO(7, "A", "SALES"),
+        new PartnerNetRoleDTO(3, "V", "SALES"),
+        new PartnerNetRoleDTO(0, "V", "DEALER_ADMIN")
+    );
+
+    @Test
+    void grantsRoleInCompany() {
+        assertThat(DEALER_ADMIN.authorize(() -> authentication, 7).isGranted(), equalTo(true));
+        assertThat(DEALER_ADMIN.authorize(() -> authentication, 3).isGranted(), equalTo(false));
+        assertThat(DEALER_ADMIN.authorize(() -> authentication, null).isGranted(), equalTo(false));
+        assertThat(DEALER_ADMIN.isGranted(authentication, 0), equalTo(true));
+        assertThat(DEALER_ADMIN.isGranted(authentication, 8), equalTo(false));
+    }
+
+    @Test
+    void grantsAnyOrAllRoles() {
+        assertThat(ANY.isGranted(authentication, 3), equalTo(true));
+        assertThat(ALL.isGranted(authentication, 3), equalTo(false));
+        assertThat(ALL.isGranted(authentication, 7), equalTo(true));
+    }
+
+    @Test
+    void deniesOtherPrincipals() {
+        TestingAuthenticationToken other = new TestingAuthenticationToken("user", null, "SALES");
+        other.setAuthenticated(true);
+
+        assertThat(ANY.isGranted(other, 3), equalTo(false));
+        assertThat(ANY.isGranted((Authentication) null, 3), equalTo(false));
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> PartnerNetCompanyAuthorizationManager.hasAnyCompanyRole(COMPANY_ID)
+        );
+    }
+
+    @Test
+    void grantsRolesInternedAfterTheIndex() {
+        String roleMatchcode = "UNCHECKED_" + UUID.randomUUID();
+        PartnerNetRoleDictionary dictionary = PartnerNetRoleDictionary.shared();
+        int size = dictionary.size();
+
+        PartnerNetAuthorizationIndex index = PartnerNetAuthorizationIndex.of(
+            List.of(new PartnerNetRoleDTO(7, "V", roleMatchcode)),
+            null,
+            null,
+            null
+        );
+
+        assertThat(dictionary.find(roleMatchcode), equalTo(-1));
+        assertThat(dictionary.size(), equalTo(size));
+        assertThat(index.hasRole(7, roleMatchcode), equalTo(true));
+
+        // The index was built before the manager, it checks the matchcodes instead of the bits
+        PartnerNetCompanyAuthorizationManager<Integer> manager = PartnerNetCompanyAuthorizationManager.hasCompanyRole(
+            COMPANY_ID,
+            roleMatchcode
+        );
+        PartnerNetCompanyAuthorizationManager<Integer> all = PartnerNetCompanyAuthorizationManager.hasAllCompanyRoles(
+            COMPANY_ID,
+            roleMatchcode,
+            "DEALER_ADMIN"
+        );
+
+        assertThat(dictionary.find(roleMatchcode), greaterThanOrEqualTo(0));
+        assertThat(index.knowsRoles(PartnerNetRoleDictionary.shared().internAll(roleMatchcode)), equalTo(false));
+        assertThat(manager.isGranted(index, 7), equalTo(true));
+        assertThat(manager.isGranted(index, 8), equalTo(false));
+        assertThat(all.isGranted(index, 7), equalTo(false));
+
+        PartnerNetAuthorizationIndex later = PartnerNetAuthorizationIndex.of(
+            List.of(new PartnerNetRoleDTO(7, "V", roleMatchcode), new PartnerNetRoleDTO(7, "V", "DEALER_ADMIN")),
+            null,
+            null,
+            null
+        );
+
+        assertThat(later.knowsRoles(PartnerNetRoleDictionary.shared().internAll(roleMatchcode)), equalTo(true));
+        assertThat(manager.isGranted(later, 7), equalTo(true));
+        assertThat(all.isGranted(later, 7), equalTo(true));
+    }
+
+    private static Authentication authentication(PartnerNetRoleDTO... roles) {
+        PartnerNetAuthorizationIndex index = PartnerNetAuthorizationIndex.of(List.of(roles), null, null, null);
+        PartnerNetAuthorizationIndexProvider principal = () -> index;
+        TestingAuthenticationToken authentication = new TestingAuthenticationToken(principal, null, List.of());
+        authentication.setAuthenticated(true);
+
+        return authentication;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.StandardClaimNames;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+/**
+ * Caches the userinfo per subject for a limited time. The key contains the <code>updated_at</code> claim of the ID
+ * token, if there is one, so changed user data is fetched again at once. The least recently used entry is evicted,
+ * when the cache is full.
+ *
+ * @author Daniel Furtlehner
+ */
+class CachingUserInfoService implements OAuth2UserService<OAuth2UserRequest, OAuth2User> {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final OAuth2UserService<OAuth2UserRequest, OAuth2User> delegate;
+    private final Duration timeToLive;
+    private final Map<String, CachedUserInfo> cache;
+
+    private Clock clock = Clock.systemUTC();
+
+    CachingUserInfoService(
+        OAuth2UserService<OAuth2UserRequest, OAuth2User> delegate,
+        Duration timeToLive,
+        int maxEntries
+    ) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.timeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null");
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUserInfo> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public OAuth2User loadUser(OAuth2UserRequest userRequest) throws OAuth2AuthenticationException {
+        String key = key(userRequest);
+
+        if (key == null) {
+            return delegate.loadUser(userRequest);
+        }
+
+        Instant now = clock.instant();
+        CachedUserInfo cached;
+
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+
+        if (cached != null && now.isBefore(cached.expiresAt)) {
+            hitCount.increment();
+
+            return cached.user;
+        }
+
+        missCount.increment();
+
+        OAuth2User user = delegate.loadUser(userRequest);
+
+        synchronized (cache) {
+            cache.put(key, new CachedUserInfo(user, now.plus(timeToLive)));
+        }
+
+        return user;
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    private static String key(OAuth2UserRequest userRequest) {
+        if (!(userRequest instanceof OidcUserRequest oidcUserRequest)) {
+            return null;
+        }
+
+        OidcIdToken idToken = oidcUserRequest.getIdToken();
+        String subject = idToken.getClaimAsString(IdTokenClaimNames.SUB);
+
+        if (subject == null) {
+            return null;
+        }
+
+        Object updatedAt = idToken.getClaims().get(StandardClaimNames.UPDATED_AT);
+
+        return userRequest.getClientRegistration().getRegistrationId() + '\n' + subject + '\n' + updatedAt;
+    }
+
+    private static final class CachedUserInfo {
+
+        private final OAuth2User user;
+        private final Instant expiresAt;
+
+        CachedUserInfo(OAuth2User user, Instant expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import com.nimbusds.jose.Algorithm;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyType;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.JWSVerifierFactory;
+import com.nimbusds.jose.proc.SecurityContext;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.security.Key;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Holds the parsed keys of one JWK set, together with the verifiers built for them. Selecting the keys for a token
+ * does not need any network I/O, as long as the key id of the token is known.
+ * <p>
+ * An unknown key id usually means, that the provider rotated its keys. The JWK set is fetched again in this case, but
+ * at most once per minimum refetch interval. Concurrent requests share the fetch.
+ *
+ * @author Daniel Furtlehner
+ */
+class JwkSetCache implements JWSKeySelector<SecurityContext>, JWSVerifierFactory {
+
+    static final String FETCH_OBSERVATION_NAME = "pnet.oidc.jwks.fetch";
+
+    private static final Logger LOG = LoggerFactory.getLogger(JwkSetCache.class);
+    private static final MediaType JWK_SET = MediaType.parseMediaType("application/jwk-set+json");
+
+    private final DefaultJWSVerifierFactory verifierFactory = new DefaultJWSVerifierFactory();
+    private final String jwkSetUri;
+    private final RestClient restClient;
+    private final Set<JWSAlgorithm> algorithms;
+    private final Duration minRefetchInterval;
+    private final Counters counters;
+    private final ObservationRegistry observationRegistry;
+    private final Clock clock;
+
+    private volatile Keys keys;
+    private Instant lastFetch = Instant.MIN;
+
+    JwkSetCache(
+        String jwkSetUri,
+        RestClient restClient,
+        Set<JWSAlgorithm> algorithms,
+        Duration minRefetchInterval,
+        Counters counters,
+        ObservationRegistry observationRegistry,
+        Clock clock
+    ) {
+        this.jwkSetUri = jwkSetUri;
+        this.restClient = restClient;
+        this.algorithms = algorithms;
+        this.minRefetchInterval = minRefetchInterval;
+        this.counters = counters;
+        this.observationRegistry = observationRegistry;
+        this.clock = clock;
+    }
+
+    @Override
+    public List<? extends Key> selectJWSKeys(JWSHeader header, SecurityContext context) {
+        if (!algorithms.contains(header.getAlgorithm())) {
+            return Collections.emptyList();
+        }
+
+        Keys current = keys;
+        List<PublicKey> selected = current == null ? Collections.emptyList() : current.select(header);
+
+        if (!selected.isEmpty()) {
+            counters.hitCount.increment();
+
+            return selected;
+        }
+
+        counters.missCount.increment();
+
+        // The provider may have rotated its keys
+        Keys refetched = refetch(current);
+
+        return refetched == null ? Collections.emptyList() : refetched.select(header);
+    }
+
+    @Override
+    public JWSVerifier createJWSVerifier(JWSHeader header, Key key) throws JOSEException {
+        Keys current = keys;
+        JWSVerifier verifier = current == null ? null : current.verifiers.get(key);
+
+        if (verifier == null) {
+            verifier = verifierFactory.createJWSVerifier(header, key);
+
+            if (current != null) {
+                current.verifiers.put(key, verifier);
+            }
+        }
+
+        return verifier;
+    }
+
+    @Override
+    public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+        return verifierFactory.supportedJWSAlgorithms();
+    }
+
+    @Override
+    public JCAContext getJCAContext() {
+        return verifierFactory.getJCAContext();
+    }
+
+    boolean isLoaded() {
+        return keys != null;
+    }
+
+    /**
+     * Fetches the JWK set, unless another thread fetched it since the caller saw the given keys, or the last fetch
+     * happened less than the minimum refetch interval ago.
+     */
+    private synchronized Keys refetch(Keys seen) {
+        Keys current = keys;
+
+        if (current != seen) {
+            return current;
+        }
+
+        if (clock.instant().isBefore(lastFetch.plus(minRefetchInterval))) {
+            counters.rateLimitedCount.increment();
+
+            return current;
+        }
+
+        refresh();
+
+        return keys;
+    }
+
+    /**
+     * Fetches the JWK set. If this fails, the current keys are kept.
+     */
+    synchronized void refresh() {
+        lastFetch = clock.instant();
+
+        Observation observation = Observation.start(FETCH_OBSERVATION_NAME, observationRegistry);
+
+        try {
+            String body = restClient
+                .get()
+                .uri(jwkSetUri)
+                .accept(MediaType.APPLICATION_JSON, JWK_SET)
+                .retrieve()
+                .body(String.class);
+
+            keys = new Keys(JWKSet.parse(body), algorithms);
+        } catch (Exception e) {
+            counters.failureCount.increment();
+            observation.error(e);
+
+            LOG.warn("Could not fetch the JWK set from {}. Keeping the current keys.", jwkSetUri, e);
+        } finally {
+            // Counted when done, so the keys are there once the count is seen
+            counters.fetchCount.increment();
+            observation.stop();
+        }
+    }
+
+    /**
+     * The counters shared by all caches of a factory.
+     */
+    static final class Counters {
+
+        final LongAdder hitCount = new LongAdder();
+        final LongAdder missCount = new LongAdder();
+        final LongAdder fetchCount = new LongAdder();
+        final LongAdder failureCount = new LongAdder();
+        final LongAdder rateLimitedCount = new LongAdder();
+    }
+
+    private static final class Keys {
+
+        private final Map<String, List<CachedKey>> byKeyId = new HashMap<>();
+        private final List<CachedKey> all = new ArrayList<>();
+        private final Map<Key, JWSVerifier> verifiers = new ConcurrentHashMap<>();
+
+        Keys(JWKSet jwkSet, Set<JWSAlgorithm> algorithms) throws JOSEException {
+            for (JWK jwk : jwkSet.getKeys()) {
+                if (!(jwk instanceof AsymmetricJWK asymmetricJwk)) {
+                    continue;
+                }
+
+                if (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse())) {
+                    continue;
+                }
+
+                CachedKey key = new CachedKey(jwk, asymmetricJwk.toPublicKey());
+
+                all.add(key);
+
+                if (jwk.getKeyID() != null) {
+                    byKeyId.computeIfAbsent(jwk.getKeyID(), keyId -> new ArrayList<>()).add(key);
+                }
+            }
+        }
+
+        List<PublicKey> select(JWSHeader header) {
+            String keyId = header.getKeyID();
+            List<CachedKey> candidates = keyId == null ? all : byKeyId.getOrDefault(keyId, Collections.emptyList());
+            List<PublicKey> selected = new ArrayList<>(candidates.size());
+
+            for (CachedKey candidate : candidates) {
+                if (candidate.matches(header.getAlgorithm())) {
+                    selected.add(candidate.publicKey);
+                }
+            }
+
+            return selected;
+        }
+    }
+
+    private static final class CachedKey {
+
+        private final KeyType keyType;
+        private final Algorithm algorithm;
+        private final PublicKey publicKey;
+
+        CachedKey(JWK jwk, PublicKey publicKey) {
+            keyType = jwk.getKeyType();
+            algorithm = jwk.getAlgorithm();
+            this.publicKey = publicKey;
+        }
+
+        boolean matches(JWSAlgorithm jwsAlgorithm) {
+            if (algorithm != null && !algorithm.equals(jwsAlgorithm)) {
+                return false;
+            }
+
+            return keyType.equals(KeyType.forAlgorithm(jwsAlgorithm));
+        }
+    }
+}
@@ -5,7 +5,16 @@ package at.porscheinformatik.idp.openidconnect;
 
 import static java.util.Objects.*;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
@@ -14,19 +23,35 @@ import org.springframework.security.oauth2.client.registration.ClientRegistratio
 import org.springframework.security.oauth2.client.registration.ClientRegistrations;
 
 /**
+ * Loads the {@link ClientRegistration} from the discovery endpoint of the provider, when it is needed for the first
+ * time. Only one load runs at a time. Requests arriving in the meantime wait for its result.
+ * <p>
+ * After a failed load, requests get no registration without calling the provider again, until the backoff is over. The
+ * backoff starts with {@link #setInitialBackoff(Duration) one second} and doubles with each failure up to the
+ * {@link #setMaxBackoff(Duration) maximum} of one minute.
+ *
  * @author Daniel Furtlehner
  */
 public class LazyLoadingClientRegistrationRepository implements ClientRegistrationRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(LazyLoadingClientRegistrationRepository.class);
 
-    private final String issuerUrl;
+    private static final Executor WARM_UP_EXECUTOR = task -> {
+        Thread thread = new Thread(task, "pnet-oidc-registration-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final AtomicReference<CompletableFuture<ClientRegistration>> loading = new AtomicReference<>();
+    private final AtomicInteger failureCount = new AtomicInteger();
     private final String registrationId;
-    private final String clientId;
-    private final String clientSecret;
-    private final boolean requireProofKey;
+    private final Supplier<ClientRegistration> loader;
 
-    private ClientRegistration registration;
+    private volatile ClientRegistration registration;
+    private volatile Instant nextAttempt = Instant.MIN;
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    private Duration maxBackoff = Duration.ofMinutes(1);
+    private Clock clock = Clock.systemUTC();
 
     public LazyLoadingClientRegistrationRepository(
         String issuerUrl,
@@ -35,11 +60,41 @@ public class LazyLoadingClientRegistrationRepository implements ClientRegistrati
         String clientSecret,
         boolean requireProofKey
     ) {
-        this.issuerUrl = issuerUrl;
+        this(registrationId, () -> {
+            ClientSettings settings = ClientSettings.builder().requireProofKey(requireProofKey).build();
+
+            return ClientRegistrations.fromOidcIssuerLocation(issuerUrl)
+                .clientId(clientId)
+                .clientSecret(clientSecret)
+                .clientSettings(settings)
+                .registrationId(registrationId)
+                .build();
+        });
+
+        requireNonNull(clientId, "Client Id must not be null");
+    }
+
+    LazyLoadingClientRegistrationRepository(String registrationId, Supplier<ClientRegistration> loader) {
         this.registrationId = registrationId;
-        this.clientId = requireNonNull(clientId, "Client Id must not be null");
-        this.clientSecret = clientSecret;
-        this.requireProofKey = requireProofKey;
+        this.loader = requireNonNull(loader, "loader must not be null");
+    }
+
+    /**
+     * @param initialBackoff the time to wait after the first failed load. Defaults to 1 second.
+     */
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = requireNonNull(initialBackoff, "initialBackoff must not be null");
+    }
+
+    /**
+     * @param maxBackoff the maximum time to wait after repeatedly failed loads. Defaults to 1 minute.
+     */
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = requireNonNull(maxBackoff, "maxBackoff must not be null");
+    }
+
+    void setClock(Clock clock) {
+        this.clock = clock;
     }
 
     @Override
@@ -48,25 +103,86 @@ public class LazyLoadingClientRegistrationRepository implements ClientRegistrati
             return null;
         }
 
-        if (registration == null) {
-            tryToLoadRegistration();
+        ClientRegistration current = registration;
+
+        if (current != null) {
+            return current;
         }
 
-        return registration;
+        try {
+            // Requests arriving while the registration is loaded wait for the same result
+            return load(Runnable::run).join();
+        } catch (CompletionException e) {
+            // Already logged by the loading thread
+            return null;
+        }
     }
 
-    private void tryToLoadRegistration() {
-        ClientSettings settings = ClientSettings.builder().requireProofKey(requireProofKey).build();
+    /**
+     * Starts loading the registration in a background thread, unless it is loaded already or just being loaded.
+     *
+     * @return the registration, once it is loaded
+     */
+    public CompletableFuture<ClientRegistration> initializeAsync() {
+        return load(WARM_UP_EXECUTOR);
+    }
 
+    /**
+     * @return true, if the registration has been loaded successfully
+     */
+    public boolean isReady() {
+        return registration != null;
+    }
+
+    /**
+     * Replaces the loaded registration. Requests see either the old or the new one.
+     *
+     * @param registration the new registration
+     */
+    void update(ClientRegistration registration) {
+        this.registration = requireNonNull(registration, "registration must not be null");
+    }
+
+    private CompletableFuture<ClientRegistration> load(Executor executor) {
+        while (true) {
+            CompletableFuture<ClientRegistration> current = loading.get();
+
+            // A failed load is retried by the next caller, once the backoff is over
+            if (current != null && (!current.isCompletedExceptionally() || clock.instant().isBefore(nextAttempt))) {
+                return current;
+            }
+
+            CompletableFuture<ClientRegistration> next = new CompletableFuture<>();
+
+            if (loading.compareAndSet(current, next)) {
+                executor.execute(() -> load(next));
+
+                return next;
+            }
+        }
+    }
+
+    private void load(CompletableFuture<ClientRegistration> future) {
         try {
-            registration = ClientRegistrations.fromOidcIssuerLocation(issuerUrl)
-                .clientId(clientId)
-                .clientSecret(clientSecret)
-                .clientSettings(settings)
-                .registrationId(registrationId)
-                .build();
+            ClientRegistration loaded = requireNonNull(loader.get(), "No client registration loaded");
+
+            registration = loaded;
+            failureCount.set(0);
+
+            future.complete(loaded);
         } catch (Exception e) {
-            LOG.error("Could not fetch client registration for Open ID Connect. Trying again on next call.", e);
+            Duration backoff = backoff(failureCount.incrementAndGet());
+            nextAttempt = clock.instant().plus(backoff);
+
+            LOG.error("Could not fetch client registration for Open ID Connect. Trying again in {}.", backoff, e);
+
+            future.completeExceptionally(e);
         }
     }
+
+    private Duration backoff(int failures) {
+        Duration backoff = initialBackoff.multipliedBy(1L << Math.min(failures - 1, 20));
+
+        return backoff.compareTo(maxBackoff) < 0 ? backoff : maxBackoff;
+    }
 }
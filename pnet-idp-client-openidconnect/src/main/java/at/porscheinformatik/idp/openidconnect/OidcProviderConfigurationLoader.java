@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import com.nimbusds.jose.util.JSONObjectUtils;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Objects;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistration.ClientSettings;
+import org.springframework.security.oauth2.client.registration.ClientRegistrations;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Fetches the <code>.well-known/openid-configuration</code> of the provider and builds the {@link ClientRegistration}
+ * from it. Fetches after the first one are conditional requests. If the provider answers with 304, or sends the same
+ * configuration again, no registration is built.
+ *
+ * @author Daniel Furtlehner
+ */
+class OidcProviderConfigurationLoader {
+
+    static final String FETCH_OBSERVATION_NAME = "pnet.oidc.discovery.fetch";
+
+    private static final String OIDC_METADATA_PATH = "/.well-known/openid-configuration";
+
+    private final String issuerUrl;
+    private final String registrationId;
+    private final String clientId;
+    private final String clientSecret;
+    private final boolean requireProofKey;
+    private final RestClient restClient;
+
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+    private Map<String, Object> configuration;
+    private String etag;
+    private long lastModified = -1;
+
+    OidcProviderConfigurationLoader(
+        String issuerUrl,
+        String registrationId,
+        String clientId,
+        String clientSecret,
+        boolean requireProofKey,
+        ClientHttpRequestFactory requestFactory
+    ) {
+        this.issuerUrl = Objects.requireNonNull(issuerUrl, "issuerUrl must not be null");
+        this.registrationId = registrationId;
+        this.clientId = Objects.requireNonNull(clientId, "Client Id must not be null");
+        this.clientSecret = clientSecret;
+        this.requireProofKey = requireProofKey;
+        restClient = RestClient.builder().requestFactory(requestFactory).build();
+    }
+
+    void setObservationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+    }
+
+    /**
+     * @return the registration built from the configuration, or null if the configuration did not change since the
+     *         last call
+     */
+    synchronized ClientRegistration load() {
+        Observation observation = Observation.start(FETCH_OBSERVATION_NAME, observationRegistry);
+
+        try {
+            ClientRegistration registration = fetch();
+            observation.lowCardinalityKeyValue("outcome", registration == null ? "unchanged" : "changed");
+
+            return registration;
+        } catch (RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    private ClientRegistration fetch() {
+        ResponseEntity<String> response = restClient
+            .get()
+            .uri(metadataUri().toUri())
+            .headers(headers -> {
+                if (configuration == null) {
+                    return;
+                }
+
+                if (etag != null) {
+                    headers.setIfNoneMatch(etag);
+                }
+
+                if (lastModified >= 0) {
+                    headers.setIfModifiedSince(lastModified);
+                }
+            })
+            .retrieve()
+            .toEntity(String.class);
+
+        if (response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED) && configuration != null) {
+            return null;
+        }
+
+        Map<String, Object> body = parse(response.getBody());
+
+        if (body.equals(configuration)) {
+            return null;
+        }
+
+        ClientRegistration registration = buildRegistration(body);
+
+        configuration = body;
+        etag = response.getHeaders().getETag();
+        lastModified = response.getHeaders().getLastModified();
+
+        return registration;
+    }
+
+    private static Map<String, Object> parse(String body) {
+        if (body == null) {
+            throw new IllegalStateException("No provider configuration received");
+        }
+
+        try {
+            return JSONObjectUtils.parse(body);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Invalid provider configuration received", e);
+        }
+    }
+
+    private ClientRegistration buildRegistration(Map<String, Object> body) {
+        Object issuer = body.get("issuer");
+
+        if (!issuerUrl.equals(issuer)) {
+            throw new IllegalStateException(
+                String.format("The issuer %s of the provider configuration does not match %s", issuer, issuerUrl)
+            );
+        }
+
+        ClientSettings settings = ClientSettings.builder().requireProofKey(requireProofKey).build();
+
+        return ClientRegistrations.fromOidcConfiguration(body)
+            .clientId(clientId)
+            .clientSecret(clientSecret)
+            .clientSettings(settings)
+            .registrationId(registrationId)
+            .build();
+    }
+
+    private UriComponents metadataUri() {
+        UriComponents issuer = UriComponentsBuilder.fromUriString(issuerUrl).build();
+        String path = issuer.getPath() == null ? "" : issuer.getPath();
+
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        return UriComponentsBuilder.fromUriString(issuerUrl).replacePath(path + OIDC_METADATA_PATH).build();
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.oauth2.client.oidc.authentication.OidcIdTokenDecoderFactory;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtDecoderFactory;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Creates the decoders for the ID tokens of the Partner.Net. The tokens are validated with the
+ * {@link PartnerNetOidcValidatorFactory}, unless {@link #setJwtValidatorFactory(Function) configured} otherwise.
+ * <p>
+ * In contrast to the {@link OidcIdTokenDecoderFactory}, the keys of the provider are kept parsed in memory per key id,
+ * together with the verifiers built for them. They are fetched when the registration is
+ * {@link #prefetch(ClientRegistration) prefetched} and refreshed in a background thread every
+ * {@link #setRefreshInterval(Duration) 10 minutes}. So validating an ID token does not need any network I/O on the
+ * login path. Only a token signed with an unknown key fetches the keys again, at most once every
+ * {@link #setMinRefetchInterval(Duration) 30 seconds}.
+ * <p>
+ * Each fetch is observed as {@value JwkSetCache#FETCH_OBSERVATION_NAME}, if an {@link ObservationRegistry} is set.
+ *
+ * @author Daniel Furtlehner
+ */
+public class PartnerNetJwtDecoderFactory implements JwtDecoderFactory<ClientRegistration> {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final Clock CLOCK = Clock.systemUTC();
+
+    private final Map<String, CachedDecoder> decoders = new ConcurrentHashMap<>();
+    private final Map<String, JwkSetCache> caches = new ConcurrentHashMap<>();
+    private final JwkSetCache.Counters counters = new JwkSetCache.Counters();
+    private final RestClient restClient;
+
+    private Function<ClientRegistration, OAuth2TokenValidator<Jwt>> jwtValidatorFactory =
+        new PartnerNetOidcValidatorFactory();
+    private Set<JWSAlgorithm> jwsAlgorithms = Set.of(JWSAlgorithm.RS256);
+    private Duration refreshInterval = Duration.ofMinutes(10);
+    private Duration minRefetchInterval = Duration.ofSeconds(30);
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+    private ScheduledExecutorService scheduler;
+
+    public PartnerNetJwtDecoderFactory(ClientHttpRequestFactory requestFactory) {
+        Objects.requireNonNull(requestFactory, "requestFactory must not be null");
+
+        restClient = RestClient.builder().requestFactory(requestFactory).build();
+    }
+
+    /**
+     * @param jwtValidatorFactory creates the validator for the tokens of a registration. Defaults to the
+     *            {@link PartnerNetOidcValidatorFactory}.
+     */
+    public void setJwtValidatorFactory(Function<ClientRegistration, OAuth2TokenValidator<Jwt>> jwtValidatorFactory) {
+        this.jwtValidatorFactory = Objects.requireNonNull(jwtValidatorFactory, "jwtValidatorFactory must not be null");
+        decoders.clear();
+    }
+
+    /**
+     * @param jwsAlgorithms the algorithms the tokens may be signed with. Defaults to RS256.
+     */
+    public void setJwsAlgorithms(Set<JWSAlgorithm> jwsAlgorithms) {
+        this.jwsAlgorithms = Set.copyOf(Objects.requireNonNull(jwsAlgorithms, "jwsAlgorithms must not be null"));
+        clearCaches();
+    }
+
+    /**
+     * @param refreshInterval the time between two fetches of the keys in the background. Defaults to 10 minutes.
+     */
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = requirePositive(refreshInterval, "refreshInterval");
+    }
+
+    /**
+     * @param minRefetchInterval the minimum time between two fetches of the keys caused by tokens with an unknown key
+     *            id. Defaults to 30 seconds.
+     */
+    public void setMinRefetchInterval(Duration minRefetchInterval) {
+        this.minRefetchInterval = requirePositive(minRefetchInterval, "minRefetchInterval");
+        clearCaches();
+    }
+
+    /**
+     * @param observationRegistry the registry to use, defaults to {@link ObservationRegistry#NOOP}
+     */
+    public void setObservationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+        clearCaches();
+    }
+
+    @Override
+    public JwtDecoder createDecoder(ClientRegistration registration) {
+        CachedDecoder cached = decoders.get(registration.getRegistrationId());
+
+        // A reloaded registration gets a new decoder, the keys are kept
+        if (cached != null && cached.registration == registration) {
+            return cached.decoder;
+        }
+
+        JwtDecoder decoder = buildDecoder(registration);
+
+        if (decoders.size() >= MAX_ENTRIES) {
+            decoders.clear();
+        }
+
+        decoders.put(registration.getRegistrationId(), new CachedDecoder(registration, decoder));
+
+        return decoder;
+    }
+
+    /**
+     * Fetches the keys of the given registration in the background, if they are not loaded yet.
+     *
+     * @param registration the registration
+     */
+    public void prefetch(ClientRegistration registration) {
+        JwkSetCache cache = getCache(jwkSetUri(registration));
+
+        if (!cache.isLoaded()) {
+            getScheduler().execute(cache::refresh);
+        }
+    }
+
+    /**
+     * Stops refreshing the keys in the background. The keys in memory are kept.
+     */
+    public synchronized void stopRefreshing() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the number of tokens, whose keys were found in memory
+     */
+    public long getKeyHitCount() {
+        return counters.hitCount.sum();
+    }
+
+    /**
+     * @return the number of tokens, whose keys were not found in memory
+     */
+    public long getKeyMissCount() {
+        return counters.missCount.sum();
+    }
+
+    /**
+     * @return the number of fetches of the keys
+     */
+    public long getFetchCount() {
+        return counters.fetchCount.sum();
+    }
+
+    /**
+     * @return the number of failed fetches of the keys
+     */
+    public long getFetchFailureCount() {
+        return counters.failureCount.sum();
+    }
+
+    /**
+     * @return the number of fetches skipped, because the keys were fetched less than the minimum refetch interval ago
+     */
+    public long getRateLimitedCount() {
+        return counters.rateLimitedCount.sum();
+    }
+
+    private JwtDecoder buildDecoder(ClientRegistration registration) {
+        JwkSetCache cache = getCache(jwkSetUri(registration));
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+
+        processor.setJWSKeySelector(cache);
+        processor.setJWSVerifierFactory(cache);
+        // The claims are validated by the validator of the decoder
+        processor.setJWTClaimsSetVerifier((claims, context) -> {});
+
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(processor);
+
+        decoder.setJwtValidator(jwtValidatorFactory.apply(registration));
+        decoder.setClaimSetConverter(OidcIdTokenDecoderFactory.createDefaultClaimTypeConverter());
+
+        return decoder;
+    }
+
+    private JwkSetCache getCache(String jwkSetUri) {
+        JwkSetCache cache = caches.get(jwkSetUri);
+
+        if (cache != null) {
+            return cache;
+        }
+
+        if (caches.size() >= MAX_ENTRIES) {
+            clearCaches();
+        }
+
+        cache = caches.computeIfAbsent(jwkSetUri, uri ->
+            new JwkSetCache(uri, restClient, jwsAlgorithms, minRefetchInterval, counters, observationRegistry, CLOCK)
+        );
+
+        getScheduler();
+
+        return cache;
+    }
+
+    private void clearCaches() {
+        caches.clear();
+        decoders.clear();
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "pnet-oidc-jwks-refresh");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+
+            long interval = refreshInterval.toMillis();
+
+            scheduler.scheduleWithFixedDelay(this::refreshAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        return scheduler;
+    }
+
+    private void refreshAll() {
+        for (JwkSetCache cache : caches.values()) {
+            cache.refresh();
+        }
+    }
+
+    private static String jwkSetUri(ClientRegistration registration) {
+        String jwkSetUri = registration.getProviderDetails().getJwkSetUri();
+
+        if (!StringUtils.hasText(jwkSetUri)) {
+            OAuth2Error error = new OAuth2Error(
+                "missing_signature_verifier",
+                "Failed to find a Signature Verifier for Client Registration: '" +
+                registration.getRegistrationId() +
+                "'. Check to ensure you have configured the JwkSet URI.",
+                null
+            );
+
+            throw new OAuth2AuthenticationException(error, error.toString());
+        }
+
+        return jwkSetUri;
+    }
+
+    private static Duration requirePositive(Duration duration, String name) {
+        Objects.requireNonNull(duration, name + " must not be null");
+
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+
+        return duration;
+    }
+
+    private static final class CachedDecoder {
+
+        private final ClientRegistration registration;
+        private final JwtDecoder decoder;
+
+        CachedDecoder(ClientRegistration registration, JwtDecoder decoder) {
+            this.registration = registration;
+            this.decoder = decoder;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import io.micrometer.observation.ObservationRegistry;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.converter.FormHttpMessageConverter;
+import org.springframework.security.oauth2.client.http.OAuth2ErrorResponseErrorHandler;
+import org.springframework.security.oauth2.core.http.converter.OAuth2AccessTokenResponseHttpMessageConverter;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Builds the clients for the token and userinfo requests of Open ID Connect. Both are configured like the defaults of
+ * Spring Security, but send their requests with the given {@link ClientHttpRequestFactory}. Use one factory for all
+ * clients, so they share their connections and skip the TCP and TLS handshakes of later logins.
+ * <p>
+ * Requests are observed as <code>http.client.requests</code> with the given {@link ObservationRegistry}.
+ *
+ * @author Daniel Furtlehner
+ */
+public final class PartnerNetOidcRestClients {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+
+    private PartnerNetOidcRestClients() {
+        super();
+    }
+
+    /**
+     * The default request factory uses a JDK {@link HttpClient} with 5 seconds connection timeout and 10 seconds read
+     * timeout. The client keeps its connections alive and reuses the TLS sessions for new ones. It follows redirects,
+     * except from HTTPS to HTTP, like the discovery of the provider configuration did before.
+     * <p>
+     * The JDK client does not limit the connections per host. If you need this, or the usage of the pool as metrics,
+     * use a <code>HttpComponentsClientHttpRequestFactory</code> with a pooled Apache HttpClient instead. The client of
+     * the <code>PooledHttpClientFactory</code> of the SAML2 module can be used, to share one pool with SAML2.
+     *
+     * @return a new request factory
+     */
+    public static ClientHttpRequestFactory defaultRequestFactory() {
+        HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(DEFAULT_READ_TIMEOUT);
+
+        return requestFactory;
+    }
+
+    /**
+     * @param requestFactory the factory sending the requests
+     * @param observationRegistry the registry observing the requests
+     * @return a client for the token endpoint
+     */
+    public static RestClient tokenRestClient(
+        ClientHttpRequestFactory requestFactory,
+        ObservationRegistry observationRegistry
+    ) {
+        return RestClient.builder()
+            .requestFactory(requestFactory)
+            .observationRegistry(observationRegistry)
+            .configureMessageConverters(converters ->
+                converters
+                    .addCustomConverter(new FormHttpMessageConverter())
+                    .addCustomConverter(new OAuth2AccessTokenResponseHttpMessageConverter())
+            )
+            .defaultStatusHandler(new OAuth2ErrorResponseErrorHandler())
+            .build();
+    }
+
+    /**
+     * @param requestFactory the factory sending the requests
+     * @param observationRegistry the registry observing the requests
+     * @return a client for the {@link StreamingUserInfoService}, that reads the response itself
+     */
+    public static RestClient userInfoRestClient(
+        ClientHttpRequestFactory requestFactory,
+        ObservationRegistry observationRegistry
+    ) {
+        return RestClient.builder().requestFactory(requestFactory).observationRegistry(observationRegistry).build();
+    }
+
+    /**
+     * @param requestFactory the factory sending the requests
+     * @param observationRegistry the registry observing the requests
+     * @return a client for the userinfo endpoint
+     */
+    public static RestTemplate userInfoRestTemplate(
+        ClientHttpRequestFactory requestFactory,
+        ObservationRegistry observationRegistry
+    ) {
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.setErrorHandler(new OAuth2ErrorResponseErrorHandler());
+        restTemplate.setObservationRegistry(observationRegistry);
+
+        return restTemplate;
+    }
+}
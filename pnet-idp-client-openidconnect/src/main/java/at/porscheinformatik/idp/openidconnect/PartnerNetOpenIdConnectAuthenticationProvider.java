@@ -17,7 +17,9 @@ import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
 import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.oidc.endpoint.OidcParameterNames;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 
 /**
@@ -31,15 +33,53 @@ public class PartnerNetOpenIdConnectAuthenticationProvider extends OidcAuthoriza
 
     public static final Duration CLOCK_SKEW = Duration.ofMinutes(5);
 
+    private final OAuth2UserService<OidcUserRequest, OidcUser> userService;
+
     public PartnerNetOpenIdConnectAuthenticationProvider(
         OAuth2AccessTokenResponseClient<OAuth2AuthorizationCodeGrantRequest> accessTokenResponseClient,
         OAuth2UserService<OidcUserRequest, OidcUser> userService
     ) {
-        super(accessTokenResponseClient, userService);
+        super(prefetchUserInfo(accessTokenResponseClient, userService), userService);
+        this.userService = userService;
+    }
+
+    /**
+     * If the {@link PartnerNetOpenIdConnectUserService} has a
+     * {@link PartnerNetOpenIdConnectUserService#setUserInfoExecutor(java.util.concurrent.Executor) userinfo executor},
+     * the userinfo is fetched right after the access token, while the ID token is validated.
+     */
+    private static OAuth2AccessTokenResponseClient<OAuth2AuthorizationCodeGrantRequest> prefetchUserInfo(
+        OAuth2AccessTokenResponseClient<OAuth2AuthorizationCodeGrantRequest> accessTokenResponseClient,
+        OAuth2UserService<OidcUserRequest, OidcUser> userService
+    ) {
+        if (!(userService instanceof PartnerNetOpenIdConnectUserService partnerNetUserService)) {
+            return accessTokenResponseClient;
+        }
+
+        return grantRequest -> {
+            OAuth2AccessTokenResponse response = accessTokenResponseClient.getTokenResponse(grantRequest);
+
+            if (response.getAdditionalParameters().containsKey(OidcParameterNames.ID_TOKEN)) {
+                partnerNetUserService.prefetchUserInfo(grantRequest.getClientRegistration(), response);
+            }
+
+            return response;
+        };
     }
 
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        try {
+            return authenticateAndValidate(authentication);
+        } finally {
+            // Drop the prefetched userinfo, if the login failed before it was used
+            if (userService instanceof PartnerNetOpenIdConnectUserService partnerNetUserService) {
+                partnerNetUserService.discardPrefetchedUserInfo();
+            }
+        }
+    }
+
+    private Authentication authenticateAndValidate(Authentication authentication) {
         Collection<String> requestedAcrValues = getRequestedAcrValues(authentication);
         Integer requestedMaxAge = getRequestedMaxAge(authentication);
         Integer requestedMaxAgeMfa = getRequestedMaxAgeMfa(authentication);
@@ -3,7 +3,17 @@
  */
 package at.porscheinformatik.idp.openidconnect;
 
+import static java.lang.String.*;
+
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -12,11 +22,7 @@ import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResp
 import org.springframework.security.oauth2.client.endpoint.OAuth2AuthorizationCodeGrantRequest;
 import org.springframework.security.oauth2.client.endpoint.RestClientAuthorizationCodeTokenResponseClient;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserService;
-import org.springframework.security.oauth2.client.registration.ClientRegistration;
-import org.springframework.security.oauth2.client.registration.ClientRegistration.ClientSettings;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
-import org.springframework.security.oauth2.client.registration.ClientRegistrations;
-import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.OAuth2AuthorizationRequestRedirectFilter;
 
 /**
@@ -25,15 +31,26 @@ import org.springframework.security.oauth2.client.web.OAuth2AuthorizationRequest
 public class PartnerNetOpenIdConnectConfigurer
     extends AbstractHttpConfigurer<PartnerNetOpenIdConnectConfigurer, HttpSecurity> {
 
+    private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofHours(1);
+
     private final String issuerUrl;
 
     private boolean failOnStartup;
+    private boolean warmUp = true;
+    private Duration refreshInterval = DEFAULT_REFRESH_INTERVAL;
     private String clientId;
     private String clientSecret;
     private boolean requireProofKey = false;
     private Customizer<OAuth2LoginConfigurer<HttpSecurity>> customizer = Customizer.withDefaults();
 
-    private OidcUserService userService = new PartnerNetOpenIdConnectUserService();
+    private OidcUserService userService;
+    private Set<String> skipUserInfoClaims = Set.of();
+    private Duration userInfoCacheTimeToLive;
+    private int userInfoCacheMaxEntries;
+    private Executor userInfoExecutor;
+    private boolean streamingUserInfo;
+    private ClientHttpRequestFactory requestFactory;
+    private ObservationRegistry observationRegistry;
 
     public PartnerNetOpenIdConnectConfigurer(PartnerNetOpenIdConnectProvider provider) {
         this(provider.getIssuer());
@@ -55,6 +72,33 @@ public class PartnerNetOpenIdConnectConfigurer
         return this;
     }
 
+    /**
+     * Unless {@link #failOnStartup()} is set, the metadata of the provider is loaded in a background thread on startup,
+     * so the first login does not have to wait for it. Disable this to load the metadata with the first login.
+     *
+     * @param warmUp false to load the metadata with the first login. Defaults to true.
+     * @return the builder for a fluent api
+     */
+    public PartnerNetOpenIdConnectConfigurer warmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+
+        return this;
+    }
+
+    /**
+     * The configuration of the provider is reloaded periodically, to pick up changed endpoints without a restart.
+     *
+     * @param refreshInterval the average time between two reloads, {@link Duration#ZERO} to never reload. Defaults to
+     *            1 hour.
+     * @return the builder for a fluent api
+     * @see ReloadingClientRegistrationRepository
+     */
+    public PartnerNetOpenIdConnectConfigurer refreshInterval(Duration refreshInterval) {
+        this.refreshInterval = Objects.requireNonNull(refreshInterval, "refreshInterval must not be null");
+
+        return this;
+    }
+
     public PartnerNetOpenIdConnectConfigurer clientId(String clientId) {
         this.clientId = clientId;
 
@@ -79,6 +123,107 @@ public class PartnerNetOpenIdConnectConfigurer
         return this;
     }
 
+    /**
+     * Do not call the userinfo endpoint, if the ID token contains all of the given claims. Has no effect, if a custom
+     * {@link #userService(OidcUserService)} is set.
+     *
+     * @param idTokenClaims the claims the ID token must contain
+     * @return the builder for a fluent api
+     * @see PartnerNetOpenIdConnectUserService#setSkipUserInfoIfIdTokenContains(java.util.Collection)
+     */
+    public PartnerNetOpenIdConnectConfigurer skipUserInfoIfIdTokenContains(String... idTokenClaims) {
+        skipUserInfoClaims = Set.of(idTokenClaims);
+
+        return this;
+    }
+
+    /**
+     * Cache the userinfo per subject, so users logging in repeatedly do not call the userinfo endpoint each time. Has
+     * no effect, if a custom {@link #userService(OidcUserService)} is set.
+     *
+     * @param timeToLive the time the userinfo of a subject is cached
+     * @param maxEntries the maximum number of cached subjects
+     * @return the builder for a fluent api
+     * @see PartnerNetOpenIdConnectUserService#setUserInfoCache(Duration, int)
+     */
+    public PartnerNetOpenIdConnectConfigurer userInfoCache(Duration timeToLive, int maxEntries) {
+        userInfoCacheTimeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null");
+        userInfoCacheMaxEntries = maxEntries;
+
+        return this;
+    }
+
+    /**
+     * Fetch the userinfo in a background thread, while the ID token is validated. This saves the time of one request
+     * per login. The userinfo requests run on a bounded pool of daemon threads. Has no effect, if a custom
+     * {@link #userService(OidcUserService)} is set.
+     *
+     * @return the builder for a fluent api
+     * @see PartnerNetOpenIdConnectUserService#setUserInfoExecutor(Executor)
+     */
+    public PartnerNetOpenIdConnectConfigurer pipelineUserInfo() {
+        return pipelineUserInfo(UserInfoPrefetcher.defaultExecutor());
+    }
+
+    /**
+     * Fetch the userinfo on the given executor, while the ID token is validated. Has no effect, if a custom
+     * {@link #userService(OidcUserService)} is set.
+     *
+     * @param executor the executor to fetch the userinfo on
+     * @return the builder for a fluent api
+     * @see PartnerNetOpenIdConnectUserService#setUserInfoExecutor(Executor)
+     */
+    public PartnerNetOpenIdConnectConfigurer pipelineUserInfo(Executor executor) {
+        userInfoExecutor = Objects.requireNonNull(executor, "executor must not be null");
+
+        return this;
+    }
+
+    /**
+     * Parse the userinfo while it is read and decode the roles, companies and contracts into their DTOs at once. This
+     * saves time and memory for users with thousands of roles. Has no effect, if a custom
+     * {@link #userService(OidcUserService)} is set.
+     *
+     * @return the builder for a fluent api
+     * @see StreamingUserInfoService
+     */
+    public PartnerNetOpenIdConnectConfigurer streamingUserInfo() {
+        streamingUserInfo = true;
+
+        return this;
+    }
+
+    /**
+     * Override the request factory used for the discovery, token, userinfo and JWKS requests. The requests of all
+     * logins share it, so it should keep its connections alive. Defaults to
+     * {@link PartnerNetOidcRestClients#defaultRequestFactory()}. With a custom request factory, the configurer uses its
+     * own {@link PartnerNetJwtDecoderFactory} instead of the one of the application context.
+     * <p>
+     * When using SAML2, too, pass a <code>HttpComponentsClientHttpRequestFactory</code> with the client of the
+     * <code>PooledHttpClientFactory</code> to share one connection pool with the SAML2 metadata requests.
+     *
+     * @param requestFactory the request factory to use
+     * @return the builder for a fluent api
+     */
+    public PartnerNetOpenIdConnectConfigurer requestFactory(ClientHttpRequestFactory requestFactory) {
+        this.requestFactory = Objects.requireNonNull(requestFactory, "requestFactory must not be null");
+
+        return this;
+    }
+
+    /**
+     * Set the registry used to observe the discovery, token, userinfo and JWKS requests. If not set, the
+     * {@link ObservationRegistry} bean of the application context is used, if there is one.
+     *
+     * @param observationRegistry the registry to use
+     * @return the builder for a fluent api
+     */
+    public PartnerNetOpenIdConnectConfigurer observationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+
+        return this;
+    }
+
     /**
      * Add a customizer that allows you to further customize the Spring Securities {@link OAuth2LoginConfigurer}. This
      * is equivalent to calling {@link HttpSecurity#oauth2Login(Customizer)} with the advantage of having the default
@@ -96,13 +241,28 @@ public class PartnerNetOpenIdConnectConfigurer
 
     @Override
     public void init(HttpSecurity builder) {
-        final ClientRegistrationRepository clientRegistrationRepository = getClientRegistrationRepository();
+        final ClientHttpRequestFactory currentRequestFactory = getRequestFactory();
+        final ObservationRegistry currentObservationRegistry = getObservationRegistry(builder);
+        final PartnerNetJwtDecoderFactory jwtDecoderFactory = getJwtDecoderFactory(
+            builder,
+            currentRequestFactory,
+            currentObservationRegistry
+        );
+        final ClientRegistrationRepository clientRegistrationRepository = getClientRegistrationRepository(
+            builder,
+            currentRequestFactory,
+            currentObservationRegistry,
+            jwtDecoderFactory
+        );
         final OAuth2AccessTokenResponseClient<OAuth2AuthorizationCodeGrantRequest> accessTokenResponseClient =
-            new RestClientAuthorizationCodeTokenResponseClient();
+            buildAccessTokenResponseClient(currentRequestFactory, currentObservationRegistry);
+        final OidcUserService currentUserService = getUserService(currentRequestFactory, currentObservationRegistry);
 
-        builder.authenticationProvider(
-            new PartnerNetOpenIdConnectAuthenticationProvider(accessTokenResponseClient, userService)
-        );
+        final PartnerNetOpenIdConnectAuthenticationProvider authenticationProvider =
+            new PartnerNetOpenIdConnectAuthenticationProvider(accessTokenResponseClient, currentUserService);
+        authenticationProvider.setJwtDecoderFactory(jwtDecoderFactory);
+
+        builder.authenticationProvider(authenticationProvider);
 
         builder.oauth2Login(oauth2Login -> {
             oauth2Login.clientRegistrationRepository(clientRegistrationRepository);
@@ -119,7 +279,7 @@ public class PartnerNetOpenIdConnectConfigurer
             oauth2Login.tokenEndpoint(tokenEnpoint -> tokenEnpoint.accessTokenResponseClient(accessTokenResponseClient)
             );
 
-            oauth2Login.userInfoEndpoint(userInfoEndpoint -> userInfoEndpoint.oidcUserService(userService));
+            oauth2Login.userInfoEndpoint(userInfoEndpoint -> userInfoEndpoint.oidcUserService(currentUserService));
 
             // Let users add custom configurations if they want to
             customizer.customize(oauth2Login);
@@ -131,21 +291,145 @@ public class PartnerNetOpenIdConnectConfigurer
         // Nothing to do here
     }
 
-    private ClientRegistrationRepository getClientRegistrationRepository() {
-        if (failOnStartup) {
-            ClientSettings settings = ClientSettings.builder().requireProofKey(requireProofKey).build();
+    private ClientHttpRequestFactory getRequestFactory() {
+        if (requestFactory != null) {
+            return requestFactory;
+        }
+
+        return PartnerNetOidcRestClients.defaultRequestFactory();
+    }
+
+    private ObservationRegistry getObservationRegistry(HttpSecurity builder) {
+        if (observationRegistry != null) {
+            return observationRegistry;
+        }
+
+        ApplicationContext context = builder.getSharedObject(ApplicationContext.class);
+
+        if (context == null) {
+            return ObservationRegistry.NOOP;
+        }
+
+        return context.getBeanProvider(ObservationRegistry.class).getIfUnique(() -> ObservationRegistry.NOOP);
+    }
+
+    private OAuth2AccessTokenResponseClient<OAuth2AuthorizationCodeGrantRequest> buildAccessTokenResponseClient(
+        ClientHttpRequestFactory currentRequestFactory,
+        ObservationRegistry currentObservationRegistry
+    ) {
+        RestClientAuthorizationCodeTokenResponseClient client = new RestClientAuthorizationCodeTokenResponseClient();
+        client.setRestClient(
+            PartnerNetOidcRestClients.tokenRestClient(currentRequestFactory, currentObservationRegistry)
+        );
+
+        return client;
+    }
+
+    private OidcUserService getUserService(
+        ClientHttpRequestFactory currentRequestFactory,
+        ObservationRegistry currentObservationRegistry
+    ) {
+        // A custom user service keeps its own client
+        if (userService != null) {
+            return userService;
+        }
+
+        PartnerNetOpenIdConnectUserService service = streamingUserInfo
+            ? new PartnerNetOpenIdConnectUserService(
+                new StreamingUserInfoService(
+                    PartnerNetOidcRestClients.userInfoRestClient(currentRequestFactory, currentObservationRegistry)
+                )
+            )
+            : new PartnerNetOpenIdConnectUserService(
+                PartnerNetOidcRestClients.userInfoRestTemplate(currentRequestFactory, currentObservationRegistry)
+            );
+        service.setSkipUserInfoIfIdTokenContains(skipUserInfoClaims);
+
+        if (userInfoCacheTimeToLive != null) {
+            service.setUserInfoCache(userInfoCacheTimeToLive, userInfoCacheMaxEntries);
+        }
+
+        if (userInfoExecutor != null) {
+            service.setUserInfoExecutor(userInfoExecutor);
+        }
+
+        return service;
+    }
+
+    private PartnerNetJwtDecoderFactory getJwtDecoderFactory(
+        HttpSecurity builder,
+        ClientHttpRequestFactory currentRequestFactory,
+        ObservationRegistry currentObservationRegistry
+    ) {
+        ApplicationContext context = builder.getSharedObject(ApplicationContext.class);
+
+        // Share the keys with the decoder factory of the application context, if there is one. It sends its requests
+        // with the default request factory, so it is skipped, if the requests should use another one.
+        if (context != null && requestFactory == null && observationRegistry == null) {
+            PartnerNetJwtDecoderFactory factory = context
+                .getBeanProvider(PartnerNetJwtDecoderFactory.class)
+                .getIfUnique();
+
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        PartnerNetJwtDecoderFactory factory = new PartnerNetJwtDecoderFactory(currentRequestFactory);
+        factory.setObservationRegistry(currentObservationRegistry);
+        stopOnClose(builder, factory::stopRefreshing);
+
+        return factory;
+    }
 
-            ClientRegistration clientRegistration = ClientRegistrations.fromOidcIssuerLocation(issuerUrl)
-                .registrationId("pnet")
-                .clientId(clientId)
-                .clientSecret(clientSecret)
-                .clientName(issuerUrl)
-                .clientSettings(settings)
-                .build();
+    private ClientRegistrationRepository getClientRegistrationRepository(
+        HttpSecurity builder,
+        ClientHttpRequestFactory currentRequestFactory,
+        ObservationRegistry currentObservationRegistry,
+        PartnerNetJwtDecoderFactory jwtDecoderFactory
+    ) {
+        ReloadingClientRegistrationRepository repository = new ReloadingClientRegistrationRepository(
+            issuerUrl,
+            "pnet",
+            clientId,
+            clientSecret,
+            requireProofKey,
+            currentRequestFactory
+        );
+        repository.setObservationRegistry(currentObservationRegistry);
 
-            return new InMemoryClientRegistrationRepository(clientRegistration);
+        // The keys for the ID tokens are fetched as soon as the registration is there
+        if (failOnStartup) {
+            jwtDecoderFactory.prefetch(
+                Objects.requireNonNull(
+                    repository.findByRegistrationId("pnet"),
+                    format("No client registration for issuer %s found", issuerUrl)
+                )
+            );
+        } else if (warmUp) {
+            repository.initializeAsync().thenAccept(jwtDecoderFactory::prefetch);
         }
 
-        return new LazyLoadingClientRegistrationRepository(issuerUrl, "pnet", clientId, clientSecret, requireProofKey);
+        if (!refreshInterval.isZero()) {
+            repository.setRefreshInterval(refreshInterval);
+            repository.startRefreshing();
+            stopOnClose(builder, repository::stopRefreshing);
+        }
+
+        return repository;
+    }
+
+    /**
+     * The repository and the decoder factory are no beans, so their refresh threads are stopped, when the application
+     * context is closed.
+     */
+    private static void stopOnClose(HttpSecurity builder, Runnable stop) {
+        if (builder.getSharedObject(ApplicationContext.class) instanceof ConfigurableApplicationContext context) {
+            context.addApplicationListener(event -> {
+                if (event instanceof ContextClosedEvent closed && closed.getApplicationContext() == context) {
+                    stop.run();
+                }
+            });
+        }
     }
 }
@@ -5,6 +5,8 @@ package at.porscheinformatik.idp.openidconnect;
 
 import at.porscheinformatik.idp.Gender;
 import at.porscheinformatik.idp.PartnerNetAuthenticationProvider;
+import at.porscheinformatik.idp.PartnerNetAuthorizationIndex;
+import at.porscheinformatik.idp.PartnerNetAuthorizationIndexProvider;
 import at.porscheinformatik.idp.PartnerNetCompanyAddressDTO;
 import at.porscheinformatik.idp.PartnerNetCompanyDTO;
 import at.porscheinformatik.idp.PartnerNetCompanyTypeDTO;
@@ -25,7 +27,7 @@ import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
 /**
  * @author Daniel Furtlehner
  */
-public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
+public class PartnerNetOpenIdConnectUser extends DefaultOidcUser implements PartnerNetAuthorizationIndexProvider {
 
     @Serial
     private static final long serialVersionUID = 1L;
@@ -71,6 +73,10 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     public static final String USER_INFO_SUPPORT_CONTACT_COMPANIES = "pnet_support_contact_companies";
     public static final String USER_INFO_SUPPORT_COMPANY_TYPES = "pnet_support_company_types";
 
+    // Not serialized, it is built again from the claims after the session was restored
+    private transient volatile TypedClaims typedClaims;
+    private transient volatile PartnerNetAuthorizationIndex authorizationIndex;
+
     public PartnerNetOpenIdConnectUser(
         Collection<? extends GrantedAuthority> authorities,
         OidcIdToken idToken,
@@ -93,15 +99,11 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public boolean isResponsibleUserAvailable() {
-        Boolean value = idTokenClaim(ID_TOKEN_RESPONSIBLE_USER_AVAILABLE);
-
-        return value != null && value;
+        return typedClaims().responsibleUserAvailable;
     }
 
     public boolean isSupportDataAvailable() {
-        Boolean value = idTokenClaim(ID_TOKEN_SUPPORT_AVAILABLE);
-
-        return value != null && value;
+        return typedClaims().supportDataAvailable;
     }
 
     public String getLoginHint() {
@@ -109,7 +111,7 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public PartnerNetAuthenticationProvider getAuthenticationProvider() {
-        return PartnerNetAuthenticationProvider.valueOfOrUnknown(idTokenClaim(ID_TOKEN_AUTH_PROVIDER));
+        return typedClaims().authenticationProvider;
     }
 
     public Instant getAuthTimeMfa() {
@@ -117,11 +119,14 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public int getNistAuthenticationLevel() {
-        return Integer.parseInt(getAuthenticationContextClass());
+        Integer level = typedClaims().nistAuthenticationLevel;
+
+        // Fails like before, if the level is missing or not a number
+        return level == null ? Integer.parseInt(getAuthenticationContextClass()) : level;
     }
 
     public PartnerNetUserType getUserType() {
-        return PartnerNetUserType.valueOfOrUnknown(userInfoClaims(USER_INFO_USER_TYPE));
+        return typedClaims().userType;
     }
 
     @Override
@@ -177,43 +182,43 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public List<Locale> getAdditionalLocales() {
-        return userInfoClaims(USER_INFO_ADDITIONAL_LOCALES);
+        return typedClaims().additionalLocales;
     }
 
     public Collection<PartnerNetFunctionalNumberDTO> getFunctionalNumbers() {
-        return userInfoClaims(USER_INFO_FUNCTIONAL_NUMBERS);
+        return typedClaims().functionalNumbers;
     }
 
     public Collection<PartnerNetCompanyDTO> getCompanies() {
-        return userInfoClaims(USER_INFO_COMPANIES);
+        return typedClaims().companies;
     }
 
     public Collection<PartnerNetCompanyAddressDTO> getCompaniesAddress() {
-        return userInfoClaims(USER_INFO_COMPANIES_ADDRESS);
+        return typedClaims().companiesAddress;
     }
 
     public Collection<PartnerNetRoleDTO> getRoles() {
-        return userInfoClaims(USER_INFO_ROLES);
+        return typedClaims().roles;
     }
 
     public Collection<PartnerNetContractDTO> getContracts() {
-        return userInfoClaims(USER_INFO_CONTRACTS);
+        return typedClaims().contracts;
     }
 
     public Collection<PartnerNetCompanyDTO> getSupportCompanies() {
-        return userInfoClaims(USER_INFO_SUPPORT_COMPANIES);
+        return typedClaims().supportCompanies;
     }
 
     public Collection<PartnerNetCompanyAddressDTO> getSupportCompaniesAddress() {
-        return userInfoClaims(USER_INFO_SUPPORT_COMPANIES_ADDRESS);
+        return typedClaims().supportCompaniesAddress;
     }
 
     public Collection<PartnerNetRoleDTO> getSupportRoles() {
-        return userInfoClaims(USER_INFO_SUPPORT_ROLES);
+        return typedClaims().supportRoles;
     }
 
     public Collection<PartnerNetContractDTO> getSupportContract() {
-        return userInfoClaims(USER_INFO_SUPPORT_CONTRACTS);
+        return typedClaims().supportContracts;
     }
 
     /**
@@ -241,7 +246,7 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public Integer getFavoriteCompanyId() {
-        return userInfoClaims(USER_INFO_FAVORITE_COMPANY_ID);
+        return typedClaims().favoriteCompanyId;
     }
 
     public String getFavoriteBrand() {
@@ -249,7 +254,7 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public Collection<Integer> getContactCompanyIds() {
-        return userInfoClaims(USER_INFO_CONTACT_COMPANIES);
+        return typedClaims().contactCompanyIds;
     }
 
     public String getResponsibleUserExternalId() {
@@ -269,15 +274,49 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     }
 
     public Collection<Integer> getSupportContactCompanyIds() {
-        return userInfoClaims(USER_INFO_SUPPORT_CONTACT_COMPANIES);
+        return typedClaims().supportContactCompanyIds;
     }
 
     public Collection<PartnerNetCompanyTypeDTO> getCompanyTypes() {
-        return userInfoClaims(USER_INFO_COMPANY_TYPES);
+        return typedClaims().companyTypes;
     }
 
     public Collection<PartnerNetCompanyTypeDTO> getSupportCompanyTypes() {
-        return userInfoClaims(USER_INFO_SUPPORT_COMPANY_TYPES);
+        return typedClaims().supportCompanyTypes;
+    }
+
+    /**
+     * @return the roles, contracts, functional numbers and company types indexed by company, built on first use
+     */
+    @Override
+    public PartnerNetAuthorizationIndex getAuthorizationIndex() {
+        PartnerNetAuthorizationIndex index = authorizationIndex;
+
+        if (index == null) {
+            TypedClaims claims = typedClaims();
+
+            index = PartnerNetAuthorizationIndex.of(
+                claims.roles,
+                claims.contracts,
+                claims.functionalNumbers,
+                claims.companyTypes
+            );
+            authorizationIndex = index;
+        }
+
+        return index;
+    }
+
+    private TypedClaims typedClaims() {
+        TypedClaims claims = typedClaims;
+
+        // Racing threads build equal views, any of them may win
+        if (claims == null) {
+            claims = new TypedClaims(this);
+            typedClaims = claims;
+        }
+
+        return claims;
     }
 
     private <T> T idTokenClaim(String claimName) {
@@ -287,4 +326,74 @@ public class PartnerNetOpenIdConnectUser extends DefaultOidcUser {
     private <T> T userInfoClaims(String claimName) {
         return getUserInfo().getClaim(claimName);
     }
+
+    /**
+     * The claims, that are read most often, converted once. The claims of the ID token and the userinfo do not change,
+     * so neither does this view.
+     */
+    private static final class TypedClaims {
+
+        private final boolean responsibleUserAvailable;
+        private final boolean supportDataAvailable;
+        private final PartnerNetAuthenticationProvider authenticationProvider;
+        private final Integer nistAuthenticationLevel;
+        private final PartnerNetUserType userType;
+        private final List<Locale> additionalLocales;
+        private final Collection<PartnerNetFunctionalNumberDTO> functionalNumbers;
+        private final Collection<PartnerNetCompanyDTO> companies;
+        private final Collection<PartnerNetCompanyAddressDTO> companiesAddress;
+        private final Collection<PartnerNetRoleDTO> roles;
+        private final Collection<PartnerNetContractDTO> contracts;
+        private final Collection<PartnerNetCompanyDTO> supportCompanies;
+        private final Collection<PartnerNetCompanyAddressDTO> supportCompaniesAddress;
+        private final Collection<PartnerNetRoleDTO> supportRoles;
+        private final Collection<PartnerNetContractDTO> supportContracts;
+        private final Integer favoriteCompanyId;
+        private final Collection<Integer> contactCompanyIds;
+        private final Collection<Integer> supportContactCompanyIds;
+        private final Collection<PartnerNetCompanyTypeDTO> companyTypes;
+        private final Collection<PartnerNetCompanyTypeDTO> supportCompanyTypes;
+
+        TypedClaims(PartnerNetOpenIdConnectUser user) {
+            super();
+            responsibleUserAvailable = Boolean.TRUE.equals(user.idTokenClaim(ID_TOKEN_RESPONSIBLE_USER_AVAILABLE));
+            supportDataAvailable = Boolean.TRUE.equals(user.idTokenClaim(ID_TOKEN_SUPPORT_AVAILABLE));
+            authenticationProvider = PartnerNetAuthenticationProvider.valueOfOrUnknown(
+                user.idTokenClaim(ID_TOKEN_AUTH_PROVIDER)
+            );
+            nistAuthenticationLevel = parseLevel(user.getAuthenticationContextClass());
+
+            OidcUserInfo userInfo = user.getUserInfo();
+
+            // The userinfo is missing, if the request was skipped
+            userType = PartnerNetUserType.valueOfOrUnknown(claim(userInfo, USER_INFO_USER_TYPE));
+            additionalLocales = claim(userInfo, USER_INFO_ADDITIONAL_LOCALES);
+            functionalNumbers = claim(userInfo, USER_INFO_FUNCTIONAL_NUMBERS);
+            companies = claim(userInfo, USER_INFO_COMPANIES);
+            companiesAddress = claim(userInfo, USER_INFO_COMPANIES_ADDRESS);
+            roles = claim(userInfo, USER_INFO_ROLES);
+            contracts = claim(userInfo, USER_INFO_CONTRACTS);
+            supportCompanies = claim(userInfo, USER_INFO_SUPPORT_COMPANIES);
+            supportCompaniesAddress = claim(userInfo, USER_INFO_SUPPORT_COMPANIES_ADDRESS);
+            supportRoles = claim(userInfo, USER_INFO_SUPPORT_ROLES);
+            supportContracts = claim(userInfo, USER_INFO_SUPPORT_CONTRACTS);
+            favoriteCompanyId = claim(userInfo, USER_INFO_FAVORITE_COMPANY_ID);
+            contactCompanyIds = claim(userInfo, USER_INFO_CONTACT_COMPANIES);
+            supportContactCompanyIds = claim(userInfo, USER_INFO_SUPPORT_CONTACT_COMPANIES);
+            companyTypes = claim(userInfo, USER_INFO_COMPANY_TYPES);
+            supportCompanyTypes = claim(userInfo, USER_INFO_SUPPORT_COMPANY_TYPES);
+        }
+
+        private static <T> T claim(OidcUserInfo userInfo, String claimName) {
+            return userInfo == null ? null : userInfo.getClaim(claimName);
+        }
+
+        private static Integer parseLevel(String authenticationContextClass) {
+            try {
+                return authenticationContextClass == null ? null : Integer.valueOf(authenticationContextClass);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
 }
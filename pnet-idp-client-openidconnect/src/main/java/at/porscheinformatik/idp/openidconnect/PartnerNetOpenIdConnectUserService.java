@@ -4,22 +4,145 @@
 package at.porscheinformatik.idp.openidconnect;
 
 import at.porscheinformatik.idp.openidconnect.convert.PartnerNetClaimTypeConverterFactory;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.DefaultOAuth2UserService;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestOperations;
 
 /**
  * @author Daniel Furtlehner
  */
 public class PartnerNetOpenIdConnectUserService extends OidcUserService {
 
+    private final OAuth2UserService<OAuth2UserRequest, OAuth2User> userInfoService;
+
+    private Set<String> idTokenClaims = Set.of();
+    private UserInfoPrefetcher userInfoPrefetcher;
+    private Duration userInfoCacheTimeToLive;
+    private int userInfoCacheMaxEntries;
+    private CachingUserInfoService userInfoCache;
+
     public PartnerNetOpenIdConnectUserService() {
+        this(new DefaultOAuth2UserService());
+    }
+
+    /**
+     * @param restOperations the client used to call the userinfo endpoint
+     * @see PartnerNetOidcRestClients#userInfoRestTemplate(org.springframework.http.client.ClientHttpRequestFactory,
+     *      io.micrometer.observation.ObservationRegistry)
+     */
+    public PartnerNetOpenIdConnectUserService(RestOperations restOperations) {
+        this(createUserInfoService(restOperations));
+    }
+
+    /**
+     * @param userInfoService loads the userinfo, e.g. a {@link StreamingUserInfoService}
+     */
+    public PartnerNetOpenIdConnectUserService(OAuth2UserService<OAuth2UserRequest, OAuth2User> userInfoService) {
         super();
         // Note: setAccessibleScopes was removed in Spring Security 7.x
         // Accessible scopes are now managed through the OAuth2 client configuration
         // The "openid" scope is typically included by default
         setClaimTypeConverterFactory(new PartnerNetClaimTypeConverterFactory());
+        setRetrieveUserInfo(this::shouldRetrieveUserInfo);
+        setOauth2UserService(userInfoService);
+
+        this.userInfoService = userInfoService;
+    }
+
+    private static OAuth2UserService<OAuth2UserRequest, OAuth2User> createUserInfoService(
+        RestOperations restOperations
+    ) {
+        DefaultOAuth2UserService oauth2UserService = new DefaultOAuth2UserService();
+        oauth2UserService.setRestOperations(restOperations);
+
+        return oauth2UserService;
+    }
+
+    /**
+     * The userinfo endpoint is not called, if the ID token contains all of the given claims. Use this, if the claims
+     * the application needs are part of the ID token anyway. By default, the userinfo endpoint is always called.
+     *
+     * @param idTokenClaims the claims the ID token must contain to skip the userinfo endpoint, empty to never skip it
+     */
+    public void setSkipUserInfoIfIdTokenContains(Collection<String> idTokenClaims) {
+        this.idTokenClaims = Set.copyOf(Objects.requireNonNull(idTokenClaims, "idTokenClaims must not be null"));
+    }
+
+    /**
+     * Caches the userinfo per subject, so users logging in repeatedly do not call the userinfo endpoint each time. If
+     * the ID token contains the <code>updated_at</code> claim, changed user data is fetched again at once. Otherwise
+     * changes are seen after the time to live at the latest.
+     * <p>
+     * The cache wraps the client the userinfo is loaded with. It is bypassed, if
+     * {@link #setOauth2UserService(OAuth2UserService)} is called afterwards.
+     *
+     * @param timeToLive the time the userinfo of a subject is cached
+     * @param maxEntries the maximum number of cached subjects. The least recently used one is evicted, when exceeded.
+     */
+    public void setUserInfoCache(Duration timeToLive, int maxEntries) {
+        userInfoCacheTimeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null");
+        userInfoCacheMaxEntries = maxEntries;
+
+        updateUserInfoService();
+    }
+
+    /**
+     * Fetches the userinfo on the given executor, while the {@link PartnerNetOpenIdConnectAuthenticationProvider}
+     * validates the ID token. This saves the time of one request per login. If the validation fails, the userinfo is
+     * discarded.
+     * <p>
+     * The userinfo is fetched before the ID token is known. So it is fetched in vain, if it is found in the
+     * {@link #setUserInfoCache(Duration, int) cache} or
+     * {@link #setSkipUserInfoIfIdTokenContains(Collection) skipped} later on.
+     *
+     * @param executor the executor to fetch the userinfo on. It should be bounded and run tasks in the calling thread,
+     *            when it is exhausted.
+     */
+    public void setUserInfoExecutor(Executor executor) {
+        userInfoPrefetcher = new UserInfoPrefetcher(userInfoService, executor);
+
+        updateUserInfoService();
+    }
+
+    /**
+     * @return the number of logins, whose userinfo was found in the cache
+     */
+    public long getUserInfoCacheHitCount() {
+        return userInfoCache == null ? 0 : userInfoCache.getHitCount();
+    }
+
+    /**
+     * @return the number of logins, whose userinfo was not found in the cache
+     */
+    public long getUserInfoCacheMissCount() {
+        return userInfoCache == null ? 0 : userInfoCache.getMissCount();
+    }
+
+    void prefetchUserInfo(ClientRegistration registration, OAuth2AccessTokenResponse response) {
+        if (userInfoPrefetcher != null) {
+            userInfoPrefetcher.prefetch(registration, response);
+        }
+    }
+
+    void discardPrefetchedUserInfo() {
+        if (userInfoPrefetcher != null) {
+            userInfoPrefetcher.discard();
+        }
     }
 
     @Override
@@ -28,4 +151,35 @@ public class PartnerNetOpenIdConnectUserService extends OidcUserService {
 
         return new PartnerNetOpenIdConnectUser(user.getAuthorities(), user.getIdToken(), user.getUserInfo());
     }
+
+    private void updateUserInfoService() {
+        OAuth2UserService<OAuth2UserRequest, OAuth2User> service =
+            userInfoPrefetcher == null ? userInfoService : userInfoPrefetcher;
+
+        if (userInfoCacheTimeToLive != null) {
+            // The cache is asked first, a prefetched userinfo is used on a miss
+            userInfoCache = new CachingUserInfoService(service, userInfoCacheTimeToLive, userInfoCacheMaxEntries);
+            service = userInfoCache;
+        }
+
+        setOauth2UserService(service);
+    }
+
+    private boolean shouldRetrieveUserInfo(OidcUserRequest userRequest) {
+        ClientRegistration registration = userRequest.getClientRegistration();
+
+        // Same as the default of the OidcUserService
+        if (
+            !StringUtils.hasLength(registration.getProviderDetails().getUserInfoEndpoint().getUri()) ||
+            !AuthorizationGrantType.AUTHORIZATION_CODE.equals(registration.getAuthorizationGrantType())
+        ) {
+            return false;
+        }
+
+        if (idTokenClaims.isEmpty()) {
+            return true;
+        }
+
+        return !userRequest.getIdToken().getClaims().keySet().containsAll(idTokenClaims);
+    }
 }
@@ -3,11 +3,10 @@
  */
 package at.porscheinformatik.idp.openidconnect;
 
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.oauth2.client.oidc.authentication.OidcIdTokenDecoderFactory;
-import org.springframework.security.oauth2.client.registration.ClientRegistration;
-import org.springframework.security.oauth2.jwt.JwtDecoderFactory;
 
 /**
  * @author Daniel Furtlehner
@@ -15,10 +14,20 @@ import org.springframework.security.oauth2.jwt.JwtDecoderFactory;
 @Configuration
 public class PartnerNetOpenidConnectConfiguration {
 
-    @Bean
-    public JwtDecoderFactory<ClientRegistration> jwtDecoderFactory() {
-        OidcIdTokenDecoderFactory factory = new OidcIdTokenDecoderFactory();
-        factory.setJwtValidatorFactory(new PartnerNetOidcValidatorFactory());
+    /**
+     * The decoder factory fetches the keys with the {@link PartnerNetOidcRestClients#defaultRequestFactory()}. The
+     * {@link PartnerNetOpenIdConnectConfigurer} only uses it, if no other request factory or observation registry is
+     * configured.
+     *
+     * @param observationRegistry the registry observing the key requests
+     * @return the shared decoder factory
+     */
+    @Bean(destroyMethod = "stopRefreshing")
+    public PartnerNetJwtDecoderFactory jwtDecoderFactory(ObjectProvider<ObservationRegistry> observationRegistry) {
+        PartnerNetJwtDecoderFactory factory = new PartnerNetJwtDecoderFactory(
+            PartnerNetOidcRestClients.defaultRequestFactory()
+        );
+        factory.setObservationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP));
         return factory;
     }
 }
@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+
+/**
+ * A {@link LazyLoadingClientRegistrationRepository} that reloads the <code>.well-known/openid-configuration</code> of
+ * the provider periodically, once it is loaded. So changes of the endpoints or the issuer are picked up without a
+ * restart.
+ * <p>
+ * The configuration is reloaded with conditional requests in a background thread. Each interval is varied by up to 10
+ * percent, so not all instances of an application hit the provider at the same time. A changed configuration replaces
+ * the registration at once. Requests never wait for a reload. If a reload fails, the current registration is kept.
+ * <p>
+ * Each fetch is observed as {@value OidcProviderConfigurationLoader#FETCH_OBSERVATION_NAME}, if an
+ * {@link ObservationRegistry} is set.
+ *
+ * @author Daniel Furtlehner
+ */
+public class ReloadingClientRegistrationRepository extends LazyLoadingClientRegistrationRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadingClientRegistrationRepository.class);
+
+    private static final double JITTER = 0.1;
+
+    private final OidcProviderConfigurationLoader loader;
+    private final String registrationId;
+
+    private Duration refreshInterval = Duration.ofHours(1);
+    private ScheduledExecutorService scheduler;
+
+    public ReloadingClientRegistrationRepository(
+        String issuerUrl,
+        String registrationId,
+        String clientId,
+        String clientSecret,
+        boolean requireProofKey,
+        ClientHttpRequestFactory requestFactory
+    ) {
+        this(
+            registrationId,
+            new OidcProviderConfigurationLoader(
+                issuerUrl,
+                registrationId,
+                clientId,
+                clientSecret,
+                requireProofKey,
+                requestFactory
+            )
+        );
+    }
+
+    private ReloadingClientRegistrationRepository(String registrationId, OidcProviderConfigurationLoader loader) {
+        super(registrationId, loader::load);
+        this.registrationId = registrationId;
+        this.loader = loader;
+    }
+
+    /**
+     * @param refreshInterval the average time between two reloads of the configuration. Defaults to 1 hour.
+     */
+    public void setRefreshInterval(Duration refreshInterval) {
+        Objects.requireNonNull(refreshInterval, "refreshInterval must not be null");
+
+        if (refreshInterval.isNegative() || refreshInterval.isZero()) {
+            throw new IllegalArgumentException("refreshInterval must be positive");
+        }
+
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @param observationRegistry the registry to use, defaults to {@link ObservationRegistry#NOOP}
+     */
+    public void setObservationRegistry(ObservationRegistry observationRegistry) {
+        loader.setObservationRegistry(observationRegistry);
+    }
+
+    /**
+     * Starts reloading the configuration periodically in a daemon thread. Does nothing, if already started.
+     */
+    public synchronized void startRefreshing() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "pnet-oidc-registration-refresh");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        scheduleRefresh();
+    }
+
+    /**
+     * Stops reloading the configuration. The current registration is kept.
+     */
+    public synchronized void stopRefreshing() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (scheduler == null) {
+            return;
+        }
+
+        long interval = refreshInterval.toMillis();
+        long jitter = (long) (interval * JITTER);
+        long delay = interval + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+
+        scheduler.schedule(this::refreshAndReschedule, Math.max(delay, 1), TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshAndReschedule() {
+        try {
+            refresh();
+        } finally {
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * Reloads the configuration, if the registration is loaded already. Otherwise the registration is loaded, unless a
+     * former load failed and the backoff is not over yet.
+     */
+    void refresh() {
+        if (!isReady()) {
+            findByRegistrationId(registrationId);
+
+            return;
+        }
+
+        try {
+            ClientRegistration registration = loader.load();
+
+            if (registration != null) {
+                update(registration);
+
+                LOG.info("Open ID Connect configuration of the provider changed. Using the new one.");
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not reload the Open ID Connect configuration. Keeping the current one.", e);
+        }
+    }
+}
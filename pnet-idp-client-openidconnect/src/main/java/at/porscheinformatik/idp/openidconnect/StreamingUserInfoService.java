@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.client.http.OAuth2ErrorResponseErrorHandler;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.DefaultOAuth2UserService;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2UserAuthority;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Loads the userinfo like the {@link DefaultOAuth2UserService}, but parses the response while it is read. The roles,
+ * companies and contracts are decoded into their DTOs at once, instead of building a map for each of them and
+ * converting it afterwards. Use this for users with thousands of roles.
+ * <p>
+ * Only JSON responses are supported.
+ *
+ * @author Daniel Furtlehner
+ * @see PartnerNetOidcRestClients#userInfoRestClient(org.springframework.http.client.ClientHttpRequestFactory,
+ *      io.micrometer.observation.ObservationRegistry)
+ */
+public class StreamingUserInfoService implements OAuth2UserService<OAuth2UserRequest, OAuth2User> {
+
+    private static final String MISSING_USER_INFO_URI_ERROR_CODE = "missing_user_info_uri";
+    private static final String MISSING_USER_NAME_ATTRIBUTE_ERROR_CODE = "missing_user_name_attribute";
+    private static final String INVALID_USER_INFO_RESPONSE_ERROR_CODE = "invalid_user_info_response";
+
+    private final OAuth2ErrorResponseErrorHandler errorHandler = new OAuth2ErrorResponseErrorHandler();
+    private final RestClient restClient;
+
+    /**
+     * @param restClient the client used to call the userinfo endpoint
+     */
+    public StreamingUserInfoService(RestClient restClient) {
+        this.restClient = Objects.requireNonNull(restClient, "restClient must not be null");
+    }
+
+    @Override
+    public OAuth2User loadUser(OAuth2UserRequest userRequest) throws OAuth2AuthenticationException {
+        ClientRegistration registration = userRequest.getClientRegistration();
+        ClientRegistration.ProviderDetails.UserInfoEndpoint endpoint = registration
+            .getProviderDetails()
+            .getUserInfoEndpoint();
+
+        if (!StringUtils.hasText(endpoint.getUri())) {
+            throw error(
+                MISSING_USER_INFO_URI_ERROR_CODE,
+                "Missing required UserInfo Uri in UserInfoEndpoint for Client Registration: " +
+                registration.getRegistrationId()
+            );
+        }
+
+        if (!StringUtils.hasText(endpoint.getUserNameAttributeName())) {
+            throw error(
+                MISSING_USER_NAME_ATTRIBUTE_ERROR_CODE,
+                "Missing required \"user name\" attribute name in UserInfoEndpoint for Client Registration: " +
+                registration.getRegistrationId()
+            );
+        }
+
+        Map<String, Object> claims = fetchClaims(endpoint.getUri(), userRequest.getAccessToken().getTokenValue());
+
+        return new DefaultOAuth2User(
+            getAuthorities(userRequest, claims, endpoint.getUserNameAttributeName()),
+            claims,
+            endpoint.getUserNameAttributeName()
+        );
+    }
+
+    private Map<String, Object> fetchClaims(String uri, String accessToken) {
+        try {
+            return restClient
+                .get()
+                .uri(uri)
+                .headers(headers -> {
+                    headers.setBearerAuth(accessToken);
+                    headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+                })
+                .exchange((request, response) -> {
+                    if (errorHandler.hasError(response)) {
+                        errorHandler.handleError(URI.create(uri), HttpMethod.GET, response);
+                    }
+
+                    return UserInfoClaimsReader.read(response.getBody());
+                });
+        } catch (OAuth2AuthorizationException e) {
+            OAuth2Error oauth2Error = e.getError();
+            StringBuilder details = new StringBuilder("Error details: [");
+            details.append("UserInfo Uri: ").append(uri);
+            details.append(", Error Code: ").append(oauth2Error.getErrorCode());
+
+            if (oauth2Error.getDescription() != null) {
+                details.append(", Error Description: ").append(oauth2Error.getDescription());
+            }
+
+            details.append("]");
+
+            throw error(
+                INVALID_USER_INFO_RESPONSE_ERROR_CODE,
+                "An error occurred while attempting to retrieve the UserInfo Resource: " + details,
+                e
+            );
+        } catch (RestClientException e) {
+            throw error(
+                INVALID_USER_INFO_RESPONSE_ERROR_CODE,
+                "An error occurred while attempting to retrieve the UserInfo Resource: " + e.getMessage(),
+                e
+            );
+        }
+    }
+
+    private static Collection<GrantedAuthority> getAuthorities(
+        OAuth2UserRequest userRequest,
+        Map<String, Object> claims,
+        String userNameAttributeName
+    ) {
+        Collection<GrantedAuthority> authorities = new LinkedHashSet<>();
+        authorities.add(new OAuth2UserAuthority(claims, userNameAttributeName));
+
+        for (String scope : userRequest.getAccessToken().getScopes()) {
+            authorities.add(new SimpleGrantedAuthority("SCOPE_" + scope));
+        }
+
+        return authorities;
+    }
+
+    private static OAuth2AuthenticationException error(String errorCode, String description) {
+        return error(errorCode, description, null);
+    }
+
+    private static OAuth2AuthenticationException error(String errorCode, String description, Throwable cause) {
+        OAuth2Error oauth2Error = new OAuth2Error(errorCode, description, null);
+
+        return new OAuth2AuthenticationException(oauth2Error, oauth2Error.toString(), cause);
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static at.porscheinformatik.idp.openidconnect.PartnerNetOpenIdConnectUser.*;
+import static at.porscheinformatik.idp.openidconnect.convert.ConverterUtils.*;
+
+import at.porscheinformatik.idp.PartnerNetCompanyAddressDTO;
+import at.porscheinformatik.idp.PartnerNetCompanyDTO;
+import at.porscheinformatik.idp.PartnerNetCompanyTypeDTO;
+import at.porscheinformatik.idp.PartnerNetContractDTO;
+import at.porscheinformatik.idp.PartnerNetFunctionalNumberDTO;
+import at.porscheinformatik.idp.PartnerNetRoleDTO;
+import at.porscheinformatik.idp.openidconnect.convert.ConverterUtils;
+import com.nimbusds.jose.shaded.gson.Strictness;
+import com.nimbusds.jose.shaded.gson.stream.JsonReader;
+import com.nimbusds.jose.shaded.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads the claims of the userinfo response token by token with the streaming {@link JsonReader} of Gson, that ships
+ * with Nimbus JOSE + JWT. The roles, companies, contracts and the other lists of the Partner.Net are decoded into their
+ * DTOs right away, without building a map for each entry. These lists are
+ * {@link ConverterUtils#decoded(Class, List) marked as decoded}, so the claim converters keep them. All other claims
+ * are read as maps, lists and plain values. Numbers are read as integers, longs, big integers or doubles, like Jackson
+ * does by default.
+ *
+ * @author Daniel Furtlehner
+ */
+final class UserInfoClaimsReader {
+
+    private static final int MAX_DEPTH = 64;
+
+    private static final EntityDecoder<PartnerNetRoleDTO> ROLES = new EntityDecoder<>(
+        PartnerNetRoleDTO.class,
+        values -> new PartnerNetRoleDTO(asInteger(values[0]), asString(values[1]), asString(values[2])),
+        "company_id",
+        "brand_id",
+        "role_matchcode"
+    );
+
+    private static final EntityDecoder<PartnerNetCompanyDTO> COMPANIES = new EntityDecoder<>(
+        PartnerNetCompanyDTO.class,
+        values -> new PartnerNetCompanyDTO(asInteger(values[0]), asString(values[1]), asString(values[2])),
+        "company_id",
+        "company_number",
+        "name"
+    );
+
+    private static final EntityDecoder<PartnerNetCompanyAddressDTO> COMPANY_ADDRESSES = new EntityDecoder<>(
+        PartnerNetCompanyAddressDTO.class,
+        values ->
+            new PartnerNetCompanyAddressDTO(
+                asInteger(values[0]),
+                asString(values[1]),
+                asString(values[2]),
+                asString(values[3]),
+                asString(values[4])
+            ),
+        "company_id",
+        "street_address",
+        "postal_code",
+        "locality",
+        "country_code"
+    );
+
+    private static final EntityDecoder<PartnerNetContractDTO> CONTRACTS = new EntityDecoder<>(
+        PartnerNetContractDTO.class,
+        values -> new PartnerNetContractDTO(asInteger(values[0]), asString(values[1]), asString(values[2])),
+        "company_id",
+        "brand_id",
+        "contract_matchcode"
+    );
+
+    private static final EntityDecoder<PartnerNetFunctionalNumberDTO> FUNCTIONAL_NUMBERS = new EntityDecoder<>(
+        PartnerNetFunctionalNumberDTO.class,
+        values -> new PartnerNetFunctionalNumberDTO(asInteger(values[0]), asString(values[1]), asInteger(values[2])),
+        "company_id",
+        "matchcode",
+        "number"
+    );
+
+    private static final EntityDecoder<PartnerNetCompanyTypeDTO> COMPANY_TYPES = new EntityDecoder<>(
+        PartnerNetCompanyTypeDTO.class,
+        values -> new PartnerNetCompanyTypeDTO(asInteger(values[0]), asString(values[1])),
+        "company_id",
+        "company_type_matchcode"
+    );
+
+    private static final Map<String, EntityDecoder<?>> DECODERS = createDecoders();
+
+    private UserInfoClaimsReader() {
+        super();
+    }
+
+    private static Map<String, EntityDecoder<?>> createDecoders() {
+        Map<String, EntityDecoder<?>> decoders = new HashMap<>();
+
+        decoders.put(USER_INFO_FUNCTIONAL_NUMBERS, FUNCTIONAL_NUMBERS);
+        decoders.put(USER_INFO_COMPANIES, COMPANIES);
+        decoders.put(USER_INFO_COMPANIES_ADDRESS, COMPANY_ADDRESSES);
+        decoders.put(USER_INFO_COMPANY_TYPES, COMPANY_TYPES);
+        decoders.put(USER_INFO_ROLES, ROLES);
+        decoders.put(USER_INFO_CONTRACTS, CONTRACTS);
+
+        decoders.put(USER_INFO_SUPPORT_COMPANIES, COMPANIES);
+        decoders.put(USER_INFO_SUPPORT_COMPANIES_ADDRESS, COMPANY_ADDRESSES);
+        decoders.put(USER_INFO_SUPPORT_ROLES, ROLES);
+        decoders.put(USER_INFO_SUPPORT_CONTRACTS, CONTRACTS);
+        decoders.put(USER_INFO_SUPPORT_COMPANY_TYPES, COMPANY_TYPES);
+
+        return Map.copyOf(decoders);
+    }
+
+    /**
+     * @param in the UTF-8 encoded JSON object of the userinfo response. It is not closed.
+     * @return the claims
+     * @throws IOException on read errors and malformed JSON
+     */
+    static Map<String, Object> read(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.setStrictness(Strictness.STRICT);
+        reader.setNestingLimit(MAX_DEPTH);
+
+        try {
+            Map<String, Object> claims = new LinkedHashMap<>();
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                EntityDecoder<?> decoder = DECODERS.get(name);
+
+                claims.put(name, decoder == null ? nextValue(reader) : decoder.read(name, reader));
+            }
+
+            reader.endObject();
+
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Expected the end of the userinfo response");
+            }
+
+            return claims;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // The reader reports unexpected tokens as illegal state
+            throw new IOException("Malformed userinfo response: " + e.getMessage(), e);
+        }
+    }
+
+    private static Object nextValue(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case BEGIN_OBJECT -> nextObject(reader);
+            case BEGIN_ARRAY -> nextArray(reader);
+            case STRING -> reader.nextString();
+            case NUMBER -> nextNumber(reader.nextString());
+            case BOOLEAN -> reader.nextBoolean();
+            case NULL -> {
+                reader.nextNull();
+
+                yield null;
+            }
+            default -> throw new IOException("Expected a value at " + reader.getPath() + ", but got " + reader.peek());
+        };
+    }
+
+    private static Map<String, Object> nextObject(JsonReader reader) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            map.put(reader.nextName(), nextValue(reader));
+        }
+
+        reader.endObject();
+
+        return map;
+    }
+
+    private static List<Object> nextArray(JsonReader reader) throws IOException {
+        List<Object> list = new ArrayList<>();
+
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            list.add(nextValue(reader));
+        }
+
+        reader.endArray();
+
+        return list;
+    }
+
+    private static Number nextNumber(String text) {
+        if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+            return Double.valueOf(text);
+        }
+
+        if (text.length() > 18) {
+            BigInteger value = new BigInteger(text);
+
+            return value.bitLength() < Long.SIZE ? (Number) value.longValue() : value;
+        }
+
+        long value = Long.parseLong(text);
+
+        return value == (int) value ? (Number) (int) value : (Number) value;
+    }
+
+    private static final class EntityDecoder<T> {
+
+        private final Class<T> type;
+        private final Function<Object[], T> factory;
+        private final List<String> fields;
+
+        EntityDecoder(Class<T> type, Function<Object[], T> factory, String... fields) {
+            super();
+            this.type = type;
+            this.factory = factory;
+            this.fields = List.of(fields);
+        }
+
+        Object read(String claim, JsonReader reader) throws IOException {
+            // Leave anything else to the claim converters, they know how to complain
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                return nextValue(reader);
+            }
+
+            List<T> result = new ArrayList<>();
+
+            reader.beginArray();
+
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    throw new IOException(String.format("Expected a list of objects in claim %s", claim));
+                }
+
+                result.add(readEntry(reader));
+            }
+
+            reader.endArray();
+
+            return ConverterUtils.decoded(type, result);
+        }
+
+        private T readEntry(JsonReader reader) throws IOException {
+            Object[] values = new Object[fields.size()];
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                int index = fields.indexOf(reader.nextName());
+
+                if (index < 0) {
+                    reader.skipValue();
+                } else {
+                    values[index] = nextValue(reader);
+                }
+            }
+
+            reader.endObject();
+
+            return factory.apply(values);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.util.StringUtils;
+
+/**
+ * Starts the userinfo request as soon as the access token is there, so it runs while the ID token is validated. The
+ * result is handed out to the thread, that started the request, if it asks for the userinfo with the same access
+ * token. Otherwise the userinfo is loaded as usual.
+ *
+ * @author Daniel Furtlehner
+ */
+class UserInfoPrefetcher implements OAuth2UserService<OAuth2UserRequest, OAuth2User> {
+
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private final ThreadLocal<Prefetch> current = new ThreadLocal<>();
+    private final OAuth2UserService<OAuth2UserRequest, OAuth2User> delegate;
+    private final Executor executor;
+
+    UserInfoPrefetcher(OAuth2UserService<OAuth2UserRequest, OAuth2User> delegate, Executor executor) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+    }
+
+    /**
+     * @return a bounded pool of daemon threads. If all threads are busy and the queue is full, the userinfo is loaded
+     *         by the calling thread.
+     */
+    static Executor defaultExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DEFAULT_THREADS,
+            DEFAULT_THREADS,
+            1,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(DEFAULT_QUEUE_SIZE),
+            task -> {
+                Thread thread = new Thread(task, "pnet-oidc-userinfo-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    void prefetch(ClientRegistration registration, OAuth2AccessTokenResponse response) {
+        discard();
+
+        if (!StringUtils.hasLength(registration.getProviderDetails().getUserInfoEndpoint().getUri())) {
+            return;
+        }
+
+        OAuth2UserRequest request = new OAuth2UserRequest(
+            registration,
+            response.getAccessToken(),
+            response.getAdditionalParameters()
+        );
+
+        current.set(
+            new Prefetch(
+                response.getAccessToken().getTokenValue(),
+                CompletableFuture.supplyAsync(() -> delegate.loadUser(request), executor)
+            )
+        );
+    }
+
+    /**
+     * Drops the userinfo prefetched by the current thread, if it was not used.
+     */
+    void discard() {
+        Prefetch prefetch = current.get();
+
+        if (prefetch != null) {
+            current.remove();
+            prefetch.future.cancel(false);
+        }
+    }
+
+    @Override
+    public OAuth2User loadUser(OAuth2UserRequest userRequest) throws OAuth2AuthenticationException {
+        Prefetch prefetch = current.get();
+
+        if (prefetch == null || !prefetch.accessToken.equals(userRequest.getAccessToken().getTokenValue())) {
+            return delegate.loadUser(userRequest);
+        }
+
+        current.remove();
+
+        try {
+            return prefetch.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private static final class Prefetch {
+
+        private final String accessToken;
+        private final CompletableFuture<OAuth2User> future;
+
+        Prefetch(String accessToken, CompletableFuture<OAuth2User> future) {
+            this.accessToken = accessToken;
+            this.future = future;
+        }
+    }
+}
@@ -5,6 +5,7 @@ package at.porscheinformatik.idp.openidconnect.convert;
 
 import java.util.Collection;
 import java.util.Map;
+import org.springframework.core.GenericTypeResolver;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.convert.converter.Converter;
 
@@ -14,18 +15,29 @@ import org.springframework.core.convert.converter.Converter;
  */
 public abstract class AbstractCollectionConverter<T> implements Converter<Object, Collection<T>> {
 
+    /**
+     * @deprecated will be removed in a future release. The entries are converted with
+     *             {@link ConverterUtils#convertEach(Object, Class, java.util.function.Function)}
+     */
+    @Deprecated(since = "2.0.5")
     protected static final ParameterizedTypeReference<Map<String, Object>> MAP = new ParameterizedTypeReference<>() {
         // Nothing to do here.
     };
 
+    private final Class<?> entryType = GenericTypeResolver.resolveTypeArgument(
+        getClass(),
+        AbstractCollectionConverter.class
+    );
+
     @Override
+    @SuppressWarnings("unchecked")
     public Collection<T> convert(Object source) {
-        Collection<Map<String, Object>> sourceCollection = ConverterUtils.cast(source, MAP);
+        // Lists decoded while reading the userinfo are kept, if they hold the entries of this converter
+        if (source instanceof DecodedClaimList<?> decoded && entryType != null && decoded.getType() == entryType) {
+            return (Collection<T>) decoded;
+        }
 
-        return sourceCollection //
-            .stream()
-            .map(this::doConvertEntry)
-            .toList();
+        return ConverterUtils.convertEach(source, Map.class, entry -> doConvertEntry((Map<String, Object>) entry));
     }
 
     protected abstract T doConvertEntry(Map<String, Object> entry);
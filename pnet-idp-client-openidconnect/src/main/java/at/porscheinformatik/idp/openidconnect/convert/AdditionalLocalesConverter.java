@@ -1,6 +1,5 @@
 package at.porscheinformatik.idp.openidconnect.convert;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import org.springframework.core.convert.converter.Converter;
@@ -9,11 +8,6 @@ public class AdditionalLocalesConverter implements Converter<Object, List<Locale
 
     @Override
     public List<Locale> convert(Object source) {
-        Collection<String> languageTags = ConverterUtils.cast(source, String.class);
-
-        return languageTags //
-            .stream()
-            .map(Locale::forLanguageTag)
-            .toList();
+        return ConverterUtils.convertEach(source, String.class, Locale::forLanguageTag);
     }
 }
@@ -1,7 +1,12 @@
 package at.porscheinformatik.idp.openidconnect.convert;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
 import org.springframework.core.ParameterizedTypeReference;
 
 public final class ConverterUtils {
@@ -10,30 +15,136 @@ public final class ConverterUtils {
         super();
     }
 
-    @SuppressWarnings("unchecked")
-    public static <ValueT> Collection<ValueT> cast(Object source, ParameterizedTypeReference<ValueT> valueType) {
-        ParameterizedType type = (ParameterizedType) valueType.getType();
-        Class<ValueT> valueClass = (Class<ValueT>) type.getRawType();
+    /**
+     * Converts the value of a claim to an integer, like the {@link ObjectToIntegerConverter} does, without looking up
+     * a converter.
+     *
+     * @param source the value, may be null
+     * @return the integer
+     */
+    public static Integer asInteger(Object source) {
+        if (source == null) {
+            return null;
+        }
+
+        if (source instanceof Integer sourceInteger) {
+            return sourceInteger;
+        }
+
+        if (source instanceof Number sourceNumber) {
+            return sourceNumber.intValue();
+        }
 
-        return cast(source, valueClass);
+        return Integer.valueOf(source.toString());
     }
 
-    @SuppressWarnings("unchecked")
-    public static <ValueT> Collection<ValueT> cast(Object source, Class<ValueT> valueClass) {
-        if (!Collection.class.isAssignableFrom(source.getClass())) {
-            throw new IllegalArgumentException(String.format("Expected a list of maps to convert, but got %s", source));
+    /**
+     * Converts the value of a claim to a string, like the <code>ClaimConversionService</code> does, without looking up
+     * a converter.
+     *
+     * @param source the value, may be null
+     * @return the string
+     */
+    public static String asString(Object source) {
+        if (source == null) {
+            return null;
+        }
+
+        return source instanceof String sourceString ? sourceString : source.toString();
+    }
+
+    /**
+     * Converts the value of a claim to a boolean, like the <code>ClaimConversionService</code> does, without looking
+     * up a converter.
+     *
+     * @param source the value, may be null
+     * @return the boolean
+     */
+    public static Boolean asBoolean(Object source) {
+        if (source == null) {
+            return null;
+        }
+
+        return source instanceof Boolean sourceBoolean ? sourceBoolean : Boolean.valueOf(source.toString());
+    }
+
+    /**
+     * Converts each entry of the collection in a single pass, checking its type on the way.
+     *
+     * @param <ValueT> the type of the entries
+     * @param <ResultT> the type of the converted entries
+     * @param source the collection
+     * @param valueClass the type of the entries
+     * @param converter converts one entry
+     * @return the unmodifiable list of converted entries
+     */
+    public static <ValueT, ResultT> List<ResultT> convertEach(
+        Object source,
+        Class<ValueT> valueClass,
+        Function<ValueT, ResultT> converter
+    ) {
+        if (!(source instanceof Collection<?> sourceCollection)) {
+            throw new IllegalArgumentException(
+                String.format("Expected a list of %s to convert, but got %s", valueClass.getName(), source)
+            );
         }
 
-        Collection<Object> sourceCollection = (Collection<Object>) source;
+        List<ResultT> result = new ArrayList<>(sourceCollection.size());
 
         for (Object object : sourceCollection) {
-            if (!valueClass.isAssignableFrom(object.getClass())) {
+            if (!valueClass.isInstance(object)) {
                 throw new IllegalArgumentException(
-                    String.format("Expected a list of maps to convert, but got %s", source)
+                    String.format("Expected a list of %s to convert, but got %s", valueClass.getName(), source)
                 );
             }
+
+            result.add(converter.apply(valueClass.cast(object)));
         }
 
-        return (Collection<ValueT>) source;
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Marks the values as decoded already. The converters of the {@link PartnerNetClaimTypeConverterFactory} keep such
+     * lists as they are, instead of converting each entry again.
+     *
+     * @param <ValueT> the type of the values
+     * @param type the type of the values, only converters to this type keep the list
+     * @param values the decoded values, must not be modified afterwards
+     * @return the unmodifiable list of decoded values
+     */
+    public static <ValueT> List<ValueT> decoded(Class<ValueT> type, List<ValueT> values) {
+        return new DecodedClaimList<>(
+            Objects.requireNonNull(type, "type must not be null"),
+            Objects.requireNonNull(values, "values must not be null")
+        );
+    }
+
+    /**
+     * @param <ValueT> the type of the entries
+     * @param source the collection
+     * @param valueType the type of the entries
+     * @return the unmodifiable list of entries
+     * @deprecated will be removed in a future release. Migrate to {@link #convertEach(Object, Class, Function)}
+     */
+    @Deprecated(since = "2.0.5")
+    @SuppressWarnings("unchecked")
+    public static <ValueT> Collection<ValueT> cast(Object source, ParameterizedTypeReference<ValueT> valueType) {
+        ParameterizedType type = (ParameterizedType) valueType.getType();
+        Class<ValueT> valueClass = (Class<ValueT>) type.getRawType();
+
+        return convertEach(source, valueClass, Function.identity());
+    }
+
+    /**
+     * @param <ValueT> the type of the entries
+     * @param source the collection
+     * @param valueClass the type of the entries
+     * @return the unmodifiable list of entries
+     * @deprecated will be removed in a future release. Migrate to {@link #convertEach(Object, Class, Function)}
+     */
+    @Deprecated(since = "2.0.5")
+    public static <ValueT> Collection<ValueT> cast(Object source, Class<ValueT> valueClass) {
+        return convertEach(source, valueClass, Function.identity());
     }
 }
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect.convert;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of claim values, that were decoded while parsing the userinfo. The {@link AbstractCollectionConverter} passes
+ * it through as it is, if it converts to the same type. It is serialized as plain unmodifiable list.
+ *
+ * @author Daniel Furtlehner
+ * @param <T> type of the values
+ */
+final class DecodedClaimList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<T> type;
+    private final List<T> values;
+
+    DecodedClaimList(Class<T> type, List<T> values) {
+        super();
+        this.type = type;
+        this.values = values;
+    }
+
+    /**
+     * @return the type of the values
+     */
+    Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public T get(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    private Object writeReplace() {
+        return Collections.unmodifiableList(values);
+    }
+}
@@ -8,7 +8,6 @@ import static at.porscheinformatik.idp.openidconnect.PartnerNetOpenIdConnectUser
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
-import org.springframework.core.convert.TypeDescriptor;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserService;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
@@ -26,27 +25,18 @@ public class PartnerNetClaimTypeConverterFactory
     );
 
     private static Map<String, Converter<Object, ?>> createPnetClaimTypeConverters() {
+        // Kept for applications, that convert integer claims with the shared conversion service
         ClaimConversionService.getSharedInstance().addConverter(new ObjectToIntegerConverter());
 
-        Converter<Object, ?> booleanConverter = getConverter(TypeDescriptor.valueOf(Boolean.class));
-        Converter<Object, ?> intConverter = getConverter(TypeDescriptor.valueOf(Integer.class));
-        Converter<Object, ?> stringConverter = getConverter(TypeDescriptor.valueOf(String.class));
-        PartnerNetFunctionalNumberConverter functionalNumberConverter = new PartnerNetFunctionalNumberConverter(
-            intConverter,
-            stringConverter
-        );
-        PartnerNetCompanyConverter companyConverter = new PartnerNetCompanyConverter(intConverter, stringConverter);
-        PartnerNetCompanyAddressConverter companyAddressConverter = new PartnerNetCompanyAddressConverter(
-            intConverter,
-            stringConverter
-        );
-        PartnerNetRoleConverter roleConverter = new PartnerNetRoleConverter(intConverter, stringConverter);
-        PartnerNetContractConverter contractConverter = new PartnerNetContractConverter(intConverter, stringConverter);
+        // The values are decoded directly, looking up a converter for each value is too slow for thousands of roles
+        Converter<Object, ?> booleanConverter = ConverterUtils::asBoolean;
+        PartnerNetFunctionalNumberConverter functionalNumberConverter = new PartnerNetFunctionalNumberConverter();
+        PartnerNetCompanyConverter companyConverter = new PartnerNetCompanyConverter();
+        PartnerNetCompanyAddressConverter companyAddressConverter = new PartnerNetCompanyAddressConverter();
+        PartnerNetRoleConverter roleConverter = new PartnerNetRoleConverter();
+        PartnerNetContractConverter contractConverter = new PartnerNetContractConverter();
         PartnerNetContactCompaniesConverter contactCompaniesConverter = new PartnerNetContactCompaniesConverter();
-        PartnerNetCompanyTypesConverter companyTypesConverter = new PartnerNetCompanyTypesConverter(
-            intConverter,
-            stringConverter
-        );
+        PartnerNetCompanyTypesConverter companyTypesConverter = new PartnerNetCompanyTypesConverter();
 
         Map<String, Converter<Object, ?>> converters = OidcUserService.createDefaultClaimTypeConverters();
 
@@ -70,12 +60,6 @@ public class PartnerNetClaimTypeConverterFactory
         return converters;
     }
 
-    private static Converter<Object, ?> getConverter(TypeDescriptor targetDescriptor) {
-        final TypeDescriptor sourceDescriptor = TypeDescriptor.valueOf(Object.class);
-
-        return source -> ClaimConversionService.getSharedInstance().convert(source, sourceDescriptor, targetDescriptor);
-    }
-
     @Override
     public Converter<Map<String, Object>, Map<String, Object>> apply(ClientRegistration t) {
         String registrationId = t.getRegistrationId();
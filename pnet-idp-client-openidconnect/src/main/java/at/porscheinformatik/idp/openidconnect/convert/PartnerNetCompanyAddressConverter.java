@@ -15,6 +15,13 @@ public class PartnerNetCompanyAddressConverter extends AbstractCollectionConvert
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetCompanyAddressConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetCompanyAddressConverter(Converter<Object, ?> intConverter, Converter<Object, ?> stringConverter) {
         super();
         this.intConverter = intConverter;
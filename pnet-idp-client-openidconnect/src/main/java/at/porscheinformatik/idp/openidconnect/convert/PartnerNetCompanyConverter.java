@@ -15,6 +15,13 @@ public class PartnerNetCompanyConverter extends AbstractCollectionConverter<Part
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetCompanyConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetCompanyConverter(Converter<Object, ?> intConverter, Converter<Object, ?> stringConverter) {
         super();
         this.intConverter = intConverter;
@@ -15,6 +15,13 @@ public class PartnerNetCompanyTypesConverter extends AbstractCollectionConverter
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetCompanyTypesConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetCompanyTypesConverter(Converter<Object, ?> intConverter, Converter<Object, ?> stringConverter) {
         super();
         this.intConverter = intConverter;
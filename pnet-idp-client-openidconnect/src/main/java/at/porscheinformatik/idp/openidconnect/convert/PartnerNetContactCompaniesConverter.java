@@ -4,7 +4,7 @@
 package at.porscheinformatik.idp.openidconnect.convert;
 
 import java.util.Collection;
-import java.util.stream.Collectors;
+import java.util.HashSet;
 import org.springframework.core.convert.converter.Converter;
 
 /**
@@ -18,12 +18,7 @@ public class PartnerNetContactCompaniesConverter implements Converter<Object, Co
 
     @Override
     public Collection<Integer> convert(Object source) {
-        Collection<Number> collection = ConverterUtils.cast(source, Number.class);
-
         // We map the collection to a set here to ensure, it always has the same type, regardless of the type parsed by the claims parser.
-        return collection //
-            .stream()
-            .map(Number::intValue)
-            .collect(Collectors.toSet());
+        return new HashSet<>(ConverterUtils.convertEach(source, Number.class, Number::intValue));
     }
 }
@@ -15,6 +15,13 @@ public class PartnerNetContractConverter extends AbstractCollectionConverter<Par
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetContractConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetContractConverter(Converter<Object, ?> intConverter, Converter<Object, ?> stringConverter) {
         super();
         this.intConverter = intConverter;
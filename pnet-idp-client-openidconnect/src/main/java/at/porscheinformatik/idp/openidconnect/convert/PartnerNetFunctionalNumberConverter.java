@@ -15,6 +15,13 @@ public class PartnerNetFunctionalNumberConverter extends AbstractCollectionConve
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetFunctionalNumberConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetFunctionalNumberConverter(
         Converter<Object, ?> intConverter,
         Converter<Object, ?> stringConverter
@@ -15,6 +15,13 @@ public class PartnerNetRoleConverter extends AbstractCollectionConverter<Partner
     private final Converter<Object, ?> intConverter;
     private final Converter<Object, ?> stringConverter;
 
+    /**
+     * Decodes the values directly, without looking up converters.
+     */
+    public PartnerNetRoleConverter() {
+        this(ConverterUtils::asInteger, ConverterUtils::asString);
+    }
+
     public PartnerNetRoleConverter(Converter<Object, ?> intConverter, Converter<Object, ?> stringConverter) {
         super();
         this.intConverter = intConverter;
@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class CachingUserInfoServiceTest {
+
+    private final List<String> loadedSubjects = new ArrayList<>();
+
+    private CachingUserInfoService service;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        now = Instant.parse("2026-01-01T10:00:00Z");
+        service = new CachingUserInfoService(
+            request -> {
+                String subject = ((OidcUserRequest) request).getIdToken().getSubject();
+                loadedSubjects.add(subject);
+
+                return new DefaultOAuth2User(List.of(), Map.of("sub", subject), "sub");
+            },
+            Duration.ofMinutes(5),
+            2
+        );
+        service.setClock(Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    @Test
+    void cachesUserInfoPerSubject() {
+        OAuth2User user = service.loadUser(request("a", null));
+
+        assertThat(service.loadUser(request("a", null)), sameInstance(user));
+        assertThat(service.loadUser(request("b", null)), not(sameInstance(user)));
+        assertThat(loadedSubjects, contains("a", "b"));
+        assertThat(service.getHitCount(), equalTo(1L));
+        assertThat(service.getMissCount(), equalTo(2L));
+    }
+
+    @Test
+    void reloadsChangedUserInfo() {
+        service.loadUser(request("a", 1000L));
+        service.loadUser(request("a", 2000L));
+
+        assertThat(loadedSubjects, contains("a", "a"));
+    }
+
+    @Test
+    void reloadsExpiredUserInfo() {
+        service.loadUser(request("a", null));
+        service.setClock(Clock.fixed(now.plus(Duration.ofMinutes(5)), ZoneOffset.UTC));
+        service.loadUser(request("a", null));
+
+        assertThat(loadedSubjects, contains("a", "a"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedSubject() {
+        service.loadUser(request("a", null));
+        service.loadUser(request("b", null));
+        service.loadUser(request("a", null));
+        service.loadUser(request("c", null));
+        service.loadUser(request("a", null));
+        service.loadUser(request("b", null));
+
+        assertThat(loadedSubjects, contains("a", "b", "c", "b"));
+    }
+
+    private static OidcUserRequest request(String subject, Long updatedAt) {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://idp.example.com/authorize")
+            .tokenUri("https://idp.example.com/token")
+            .userInfoUri("https://idp.example.com/userinfo")
+            .build();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(
+            OAuth2AccessToken.TokenType.BEARER,
+            "token",
+            Instant.now(),
+            Instant.now().plusSeconds(60)
+        );
+        OidcIdToken.Builder idToken = OidcIdToken.withTokenValue("id-token").subject(subject);
+
+        if (updatedAt != null) {
+            idToken.claim("updated_at", updatedAt);
+        }
+
+        return new OidcUserRequest(registration, accessToken, idToken.build());
+    }
+}
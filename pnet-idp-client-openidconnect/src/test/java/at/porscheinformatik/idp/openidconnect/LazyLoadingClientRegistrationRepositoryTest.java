@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class LazyLoadingClientRegistrationRepositoryTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T10:00:00Z");
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    private volatile boolean available;
+
+    @Test
+    void loadsOnceForConcurrentRequests() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LazyLoadingClientRegistrationRepository repository = new LazyLoadingClientRegistrationRepository(
+            "pnet",
+            () -> {
+                loadCount.incrementAndGet();
+                await(release);
+
+                return registration();
+            }
+        );
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<ClientRegistration>> results = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> repository.findByRegistrationId("pnet")));
+            }
+
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<ClientRegistration> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS), notNullValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(loadCount.get(), equalTo(1));
+        assertThat(repository.isReady(), equalTo(true));
+    }
+
+    @Test
+    void backsOffAfterFailures() {
+        LazyLoadingClientRegistrationRepository repository = failingRepository();
+
+        repository.setClock(clock(NOW));
+
+        assertThat(repository.findByRegistrationId("pnet"), nullValue());
+        assertThat(repository.findByRegistrationId("pnet"), nullValue());
+        assertThat(loadCount.get(), equalTo(1));
+
+        repository.setClock(clock(NOW.plusSeconds(1)));
+
+        assertThat(repository.findByRegistrationId("pnet"), nullValue());
+        assertThat(loadCount.get(), equalTo(2));
+
+        // The second failure doubles the backoff
+        repository.setClock(clock(NOW.plusSeconds(2)));
+        available = true;
+
+        assertThat(repository.findByRegistrationId("pnet"), nullValue());
+        assertThat(loadCount.get(), equalTo(2));
+
+        repository.setClock(clock(NOW.plusSeconds(3)));
+
+        assertThat(repository.findByRegistrationId("pnet"), notNullValue());
+        assertThat(repository.findByRegistrationId("pnet"), notNullValue());
+        assertThat(loadCount.get(), equalTo(3));
+    }
+
+    @Test
+    void limitsBackoff() {
+        LazyLoadingClientRegistrationRepository repository = failingRepository();
+
+        repository.setMaxBackoff(Duration.ofSeconds(2));
+
+        for (int i = 0; i < 5; i++) {
+            repository.setClock(clock(NOW.plusSeconds(i * 2L)));
+            repository.findByRegistrationId("pnet");
+        }
+
+        assertThat(loadCount.get(), equalTo(5));
+    }
+
+    @Test
+    void warmsUpInBackground() throws Exception {
+        available = true;
+        LazyLoadingClientRegistrationRepository repository = failingRepository();
+
+        assertThat(repository.initializeAsync().get(5, TimeUnit.SECONDS), notNullValue());
+        assertThat(repository.isReady(), equalTo(true));
+        assertThat(repository.findByRegistrationId("other"), nullValue());
+        assertThat(loadCount.get(), equalTo(1));
+    }
+
+    private LazyLoadingClientRegistrationRepository failingRepository() {
+        return new LazyLoadingClientRegistrationRepository("pnet", () -> {
+            loadCount.incrementAndGet();
+
+            if (!available) {
+                throw new IllegalStateException("Provider not available");
+            }
+
+            return registration();
+        });
+    }
+
+    private static Clock clock(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("pnet")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .clientId("client")
+            .redirectUri("https://localhost:8443/redirect/uri")
+            .authorizationUri("https://idp.com/oauth2/authorize")
+            .tokenUri("https://idp.com/oauth2/token")
+            .build();
+    }
+}
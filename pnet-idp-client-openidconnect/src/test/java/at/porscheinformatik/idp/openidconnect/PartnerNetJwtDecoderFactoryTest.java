@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetJwtDecoderFactoryTest {
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private HttpServer server;
+    private ClientRegistration registration;
+    private PartnerNetJwtDecoderFactory factory;
+    private volatile RSAKey key;
+
+    @BeforeEach
+    void setUp() throws IOException, JOSEException {
+        key = generateKey("key-1");
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks", this::handle);
+        server.start();
+
+        String issuer = "http://localhost:" + server.getAddress().getPort();
+
+        registration = ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri(issuer + "/authorize")
+            .tokenUri(issuer + "/token")
+            .jwkSetUri(issuer + "/jwks")
+            .issuerUri(issuer)
+            .build();
+
+        factory = new PartnerNetJwtDecoderFactory(PartnerNetOidcRestClients.defaultRequestFactory());
+        factory.setJwtValidatorFactory(clientRegistration -> token -> OAuth2TokenValidatorResult.success());
+    }
+
+    @AfterEach
+    void tearDown() {
+        factory.stopRefreshing();
+        server.stop(0);
+    }
+
+    @Test
+    void decodesWithCachedKeys() throws JOSEException {
+        JwtDecoder decoder = factory.createDecoder(registration);
+
+        assertThat(decoder.decode(sign(key)).getSubject(), equalTo("user"));
+        assertThat(decoder.decode(sign(key)).getSubject(), equalTo("user"));
+
+        assertThat(requestCount.get(), equalTo(1));
+        assertThat(factory.getKeyMissCount(), equalTo(1L));
+        assertThat(factory.getKeyHitCount(), equalTo(1L));
+        assertThat(factory.createDecoder(registration), sameInstance(decoder));
+    }
+
+    @Test
+    void refetchesRotatedKeys() throws Exception {
+        factory.setMinRefetchInterval(Duration.ofMillis(1));
+
+        JwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(sign(key));
+
+        key = generateKey("key-2");
+        Thread.sleep(10);
+
+        assertThat(decoder.decode(sign(key)).getSubject(), equalTo("user"));
+        assertThat(requestCount.get(), equalTo(2));
+    }
+
+    @Test
+    void rateLimitsRefetchesForUnknownKeys() throws JOSEException {
+        JwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(sign(key));
+
+        String token = sign(generateKey("unknown"));
+
+        assertThrows(JwtException.class, () -> decoder.decode(token));
+        assertThrows(JwtException.class, () -> decoder.decode(token));
+
+        assertThat(requestCount.get(), equalTo(1));
+        assertThat(factory.getRateLimitedCount(), equalTo(2L));
+    }
+
+    @Test
+    void prefetchesKeys() throws Exception {
+        factory.prefetch(registration);
+
+        for (int i = 0; i < 100 && factory.getFetchCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+
+        factory.createDecoder(registration).decode(sign(key));
+
+        assertThat(requestCount.get(), equalTo(1));
+        assertThat(factory.getKeyMissCount(), equalTo(0L));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+
+        byte[] body = new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static RSAKey generateKey(String keyId) throws JOSEException {
+        return new RSAKeyGenerator(2048).keyID(keyId).generate();
+    }
+
+    private static String sign(RSAKey signingKey) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .subject("user")
+            .issueTime(new Date())
+            .expirationTime(new Date(System.currentTimeMillis() + 60_000))
+            .build();
+        SignedJWT jwt = new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(),
+            claims
+        );
+
+        jwt.sign(new RSASSASigner(signingKey));
+
+        return jwt.serialize();
+    }
+}
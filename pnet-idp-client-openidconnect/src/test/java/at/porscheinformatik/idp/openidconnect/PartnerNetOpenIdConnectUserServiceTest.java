@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetOpenIdConnectUserServiceTest {
+
+    private final AtomicInteger userInfoRequests = new AtomicInteger();
+
+    private PartnerNetOpenIdConnectUserService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new PartnerNetOpenIdConnectUserService(
+            new RestTemplate((uri, method) -> {
+                userInfoRequests.incrementAndGet();
+
+                throw new IOException("Userinfo endpoint not available");
+            })
+        );
+    }
+
+    @Test
+    void callsUserInfoByDefault() {
+        assertThrows(OAuth2AuthenticationException.class, () -> service.loadUser(request()));
+        assertThat(userInfoRequests.get(), equalTo(1));
+    }
+
+    @Test
+    void skipsUserInfoIfIdTokenContainsClaims() {
+        service.setSkipUserInfoIfIdTokenContains(List.of("email", "pnet_guid"));
+
+        OidcUser user = service.loadUser(request());
+
+        assertThat(user, instanceOf(PartnerNetOpenIdConnectUser.class));
+        assertThat(user.getEmail(), equalTo("user@example.com"));
+        assertThat(userInfoRequests.get(), equalTo(0));
+    }
+
+    @Test
+    void callsUserInfoIfIdTokenLacksClaims() {
+        service.setSkipUserInfoIfIdTokenContains(List.of("email", "pnet_roles"));
+
+        assertThrows(OAuth2AuthenticationException.class, () -> service.loadUser(request()));
+        assertThat(userInfoRequests.get(), equalTo(1));
+    }
+
+    private static OidcUserRequest request() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://idp.example.com/authorize")
+            .tokenUri("https://idp.example.com/token")
+            .userInfoUri("https://idp.example.com/userinfo")
+            .userNameAttributeName("sub")
+            .build();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(
+            OAuth2AccessToken.TokenType.BEARER,
+            "token",
+            Instant.now(),
+            Instant.now().plusSeconds(60)
+        );
+        OidcIdToken idToken = OidcIdToken.withTokenValue("id-token")
+            .subject("user")
+            .claim("email", "user@example.com")
+            .claim("pnet_guid", "guid")
+            .build();
+
+        return new OidcUserRequest(registration, accessToken, idToken);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static at.porscheinformatik.idp.openidconnect.PartnerNetOpenIdConnectUser.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import at.porscheinformatik.idp.PartnerNetAuthenticationProvider;
+import at.porscheinformatik.idp.PartnerNetAuthorizationIndex;
+import at.porscheinformatik.idp.PartnerNetCompanyTypeDTO;
+import at.porscheinformatik.idp.PartnerNetContractDTO;
+import at.porscheinformatik.idp.PartnerNetRoleDTO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.OidcUserInfo;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetOpenIdConnectUserTest {
+
+    private static final List<PartnerNetRoleDTO> ROLES = List.of(new PartnerNetRoleDTO(7, "V", "SALES"));
+
+    @Test
+    void readsTypedClaimsOnce() {
+        PartnerNetOpenIdConnectUser user = user("3");
+
+        assertThat(user.getNistAuthenticationLevel(), equalTo(3));
+        assertThat(user.isSupportDataAvailable(), equalTo(true));
+        assertThat(user.isResponsibleUserAvailable(), equalTo(false));
+        assertThat(user.getRoles(), sameInstance(user.getRoles()));
+        assertThat(user.getRoles(), equalTo(ROLES));
+        assertThat(user.getContracts(), nullValue());
+    }
+
+    @Test
+    void failsOnInvalidAuthenticationLevel() {
+        PartnerNetOpenIdConnectUser user = user("high");
+
+        assertThrows(NumberFormatException.class, user::getNistAuthenticationLevel);
+        assertThat(user.getRoles(), equalTo(ROLES));
+    }
+
+    @Test
+    void readsTypedClaimsWithoutUserInfo() {
+        PartnerNetOpenIdConnectUser user = new PartnerNetOpenIdConnectUser(List.of(), idToken("1"), null);
+
+        assertThat(user.getRoles(), nullValue());
+        assertThat(user.getNistAuthenticationLevel(), equalTo(1));
+    }
+
+    @Test
+    void readsTypedClaimsAfterDeserialization() throws IOException, ClassNotFoundException {
+        PartnerNetOpenIdConnectUser user = user("2");
+        user.getRoles();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(user);
+        }
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            PartnerNetOpenIdConnectUser copy = (PartnerNetOpenIdConnectUser) objectIn.readObject();
+
+            assertThat(copy.getRoles(), hasSize(1));
+            assertThat(copy.getRoles().iterator().next().getRoleMatchcode(), equalTo("SALES"));
+            assertThat(copy.getNistAuthenticationLevel(), equalTo(2));
+            assertThat(copy.getAuthenticationProvider(), equalTo(user.getAuthenticationProvider()));
+        }
+    }
+
+    @Test
+    void indexesClaimsByCompany() {
+        OidcUserInfo userInfo = OidcUserInfo.builder()
+            .subject("user")
+            .claim(
+                USER_INFO_ROLES,
+                List.of(
+                    new PartnerNetRoleDTO(7, "V", "SALES"),
+                    new PartnerNetRoleDTO(7, "A", "SERVICE"),
+                    new PartnerNetRoleDTO(3, "V", "SALES"),
+                    new PartnerNetRoleDTO(null, "V", "ADMIN")
+                )
+            )
+            .claim(USER_INFO_CONTRACTS, List.of(new PartnerNetContractDTO(7, "V", "DEALER")))
+            .claim(USER_INFO_COMPANY_TYPES, List.of(new PartnerNetCompanyTypeDTO(3, "IMPORTER")))
+            .build();
+        PartnerNetOpenIdConnectUser user = new PartnerNetOpenIdConnectUser(List.of(), idToken("1"), userInfo);
+        PartnerNetAuthorizationIndex index = user.getAuthorizationIndex();
+
+        assertThat(index, sameInstance(user.getAuthorizationIndex()));
+        assertThat(index.hasRole(7, "V", "SALES"), equalTo(true));
+        assertThat(index.hasContract(7, "V", "DEALER"), equalTo(true));
+        assertThat(index.hasCompanyType(3, "IMPORTER"), equalTo(true));
+        assertThat(index.getCompanyIds(), contains(3, 7));
+    }
+
+    private static PartnerNetOpenIdConnectUser user(String authenticationLevel) {
+        OidcUserInfo userInfo = OidcUserInfo.builder().subject("user").claim(USER_INFO_ROLES, ROLES).build();
+
+        return new PartnerNetOpenIdConnectUser(List.of(), idToken(authenticationLevel), userInfo);
+    }
+
+    private static OidcIdToken idToken(String authenticationLevel) {
+        return OidcIdToken.withTokenValue("id-token")
+            .subject("user")
+            .claim(IdTokenClaimNames.ACR, authenticationLevel)
+            .claim(ID_TOKEN_SUPPORT_AVAILABLE, true)
+            .claim(ID_TOKEN_AUTH_PROVIDER, PartnerNetAuthenticationProvider.values()[0].name())
+            .build();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class ReloadingClientRegistrationRepositoryTest {
+
+    private final List<String> ifNoneMatchHeaders = new ArrayList<>();
+
+    private HttpServer server;
+    private String issuer;
+    private volatile String tokenPath = "/token";
+    private volatile String configuredIssuer;
+    private volatile int status = 200;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/.well-known/openid-configuration", this::handle);
+        server.start();
+
+        issuer = "http://localhost:" + server.getAddress().getPort();
+        configuredIssuer = issuer;
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void loadsRegistration() {
+        ReloadingClientRegistrationRepository repository = buildRepository();
+
+        ClientRegistration registration = repository.findByRegistrationId("pnet");
+
+        assertThat(registration.getClientId(), equalTo("client"));
+        assertThat(registration.getProviderDetails().getIssuerUri(), equalTo(issuer));
+        assertThat(registration.getProviderDetails().getTokenUri(), equalTo(issuer + "/token"));
+        assertThat(ifNoneMatchHeaders, contains("none"));
+    }
+
+    @Test
+    void keepsRegistrationWhenNotModified() {
+        ReloadingClientRegistrationRepository repository = buildRepository();
+        ClientRegistration registration = repository.findByRegistrationId("pnet");
+
+        repository.refresh();
+
+        assertThat(repository.findByRegistrationId("pnet"), sameInstance(registration));
+        assertThat(ifNoneMatchHeaders, contains("none", etag()));
+    }
+
+    @Test
+    void swapsChangedRegistration() {
+        ReloadingClientRegistrationRepository repository = buildRepository();
+        repository.findByRegistrationId("pnet");
+
+        tokenPath = "/token/v2";
+        repository.refresh();
+
+        assertThat(
+            repository.findByRegistrationId("pnet").getProviderDetails().getTokenUri(),
+            equalTo(issuer + "/token/v2")
+        );
+    }
+
+    @Test
+    void keepsRegistrationWhenRefreshFails() {
+        ReloadingClientRegistrationRepository repository = buildRepository();
+        ClientRegistration registration = repository.findByRegistrationId("pnet");
+
+        status = 500;
+        repository.refresh();
+
+        assertThat(repository.findByRegistrationId("pnet"), sameInstance(registration));
+    }
+
+    @Test
+    void rejectsForeignIssuer() {
+        configuredIssuer = "https://other.com";
+
+        assertThat(buildRepository().findByRegistrationId("pnet"), nullValue());
+    }
+
+    private ReloadingClientRegistrationRepository buildRepository() {
+        return new ReloadingClientRegistrationRepository(
+            issuer,
+            "pnet",
+            "client",
+            "secret",
+            false,
+            PartnerNetOidcRestClients.defaultRequestFactory()
+        );
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        synchronized (ifNoneMatchHeaders) {
+            ifNoneMatchHeaders.add(ifNoneMatch == null ? "none" : ifNoneMatch);
+        }
+
+        if (status != 200) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+
+            return;
+        }
+
+        if (etag().equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+
+            return;
+        }
+
+        byte[] body = configuration().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("ETag", etag());
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private String etag() {
+        return "\"" + Integer.toHexString(configuration().hashCode()) + "\"";
+    }
+
+    private String configuration() {
+        return (
+            "{" +
+            "\"issuer\":\"" +
+            configuredIssuer +
+            "\"," +
+            "\"authorization_endpoint\":\"" +
+            issuer +
+            "/authorize\"," +
+            "\"token_endpoint\":\"" +
+            issuer +
+            tokenPath +
+            "\"," +
+            "\"userinfo_endpoint\":\"" +
+            issuer +
+            "/userinfo\"," +
+            "\"jwks_uri\":\"" +
+            issuer +
+            "/jwks\"," +
+            "\"response_types_supported\":[\"code\"]," +
+            "\"subject_types_supported\":[\"public\"]," +
+            "\"id_token_signing_alg_values_supported\":[\"RS256\"]" +
+            "}"
+        );
+    }
+}
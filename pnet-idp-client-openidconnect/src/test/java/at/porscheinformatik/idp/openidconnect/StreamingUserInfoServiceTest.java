@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static at.porscheinformatik.idp.openidconnect.PartnerNetOpenIdConnectUser.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import at.porscheinformatik.idp.PartnerNetCompanyDTO;
+import at.porscheinformatik.idp.PartnerNetRoleDTO;
+import at.porscheinformatik.idp.openidconnect.convert.PartnerNetClaimTypeConverterFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class StreamingUserInfoServiceTest {
+
+    private static final String USER_INFO =
+        "{\"sub\": \"user\", \"name\": \"J\\u00f6rg \\\"JJ\\\" M\\u00fcller\", \"email_verified\": true," +
+        " \"pnet_favorite_company\": 7, \"pnet_additional_locales\": [\"de-AT\"], \"address\": {\"country\": \"AT\"}," +
+        " \"pnet_roles\": [{\"company_id\": 7, \"brand_id\": \"V\", \"role_matchcode\": \"SALES\", \"extra\": [{}]}," +
+        " {\"company_id\": \"8\", \"brand_id\": null, \"role_matchcode\": \"SERVICE\"}]," +
+        " \"pnet_companies\": [{\"company_id\": 7, \"company_number\": 1234, \"name\": \"Autohaus\"}]," +
+        " \"pnet_contracts\": []}";
+
+    private HttpServer server;
+    private ClientRegistration registration;
+    private StreamingUserInfoService service;
+    private volatile int status = 200;
+    private volatile String body = USER_INFO;
+    private volatile String authorization;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/userinfo", this::handle);
+        server.start();
+
+        registration = ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://idp.example.com/authorize")
+            .tokenUri("https://idp.example.com/token")
+            .userInfoUri("http://localhost:" + server.getAddress().getPort() + "/userinfo")
+            .userNameAttributeName("sub")
+            .build();
+
+        service = new StreamingUserInfoService(
+            PartnerNetOidcRestClients.userInfoRestClient(
+                PartnerNetOidcRestClients.defaultRequestFactory(),
+                ObservationRegistry.NOOP
+            )
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void decodesClaimsWhileReading() {
+        OAuth2User user = service.loadUser(request());
+        Map<String, Object> claims = user.getAttributes();
+        List<PartnerNetRoleDTO> roles = (List<PartnerNetRoleDTO>) claims.get(USER_INFO_ROLES);
+        PartnerNetCompanyDTO company = ((List<PartnerNetCompanyDTO>) claims.get(USER_INFO_COMPANIES)).get(0);
+
+        assertThat(authorization, equalTo("Bearer token"));
+        assertThat(user.getName(), equalTo("user"));
+        assertThat(claims.get("name"), equalTo("Jörg \"JJ\" Müller"));
+        assertThat(claims.get("email_verified"), equalTo(Boolean.TRUE));
+        assertThat(claims.get(USER_INFO_FAVORITE_COMPANY_ID), equalTo(7));
+        assertThat(claims.get("address"), equalTo(Map.of("country", "AT")));
+        assertThat(roles, hasSize(2));
+        assertThat(roles.get(0).getCompanyId(), equalTo(7));
+        assertThat(roles.get(0).getRoleMatchcode(), equalTo("SALES"));
+        assertThat(roles.get(1).getCompanyId(), equalTo(8));
+        assertThat(roles.get(1).getBrandId(), nullValue());
+        assertThat(company.getCompanyNumber(), equalTo("1234"));
+        assertThat((List<Object>) claims.get(USER_INFO_CONTRACTS), empty());
+
+        Map<String, Object> converted = new PartnerNetClaimTypeConverterFactory().apply(registration).convert(claims);
+
+        assertThat(converted.get(USER_INFO_ROLES), sameInstance(roles));
+        assertThat(((Collection<Object>) converted.get(USER_INFO_ADDITIONAL_LOCALES)), hasSize(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void serializesDecodedClaimsAsPlainLists() throws IOException, ClassNotFoundException {
+        Object roles = service.loadUser(request()).getAttributes().get(USER_INFO_ROLES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(roles);
+        }
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            List<PartnerNetRoleDTO> copy = (List<PartnerNetRoleDTO>) objectIn.readObject();
+
+            assertThat(copy.getClass().getPackageName(), equalTo("java.util"));
+            assertThat(copy, hasSize(2));
+        }
+    }
+
+    @Test
+    void failsOnErrorResponse() {
+        status = 401;
+        body = "{\"error\": \"invalid_token\"}";
+
+        OAuth2AuthenticationException e = assertThrows(
+            OAuth2AuthenticationException.class,
+            () -> service.loadUser(request())
+        );
+
+        assertThat(e.getError().getErrorCode(), equalTo("invalid_user_info_response"));
+    }
+
+    @Test
+    void failsOnMalformedResponse() {
+        body = "{\"sub\": \"user\", \"pnet_roles\": [{\"company_id\": 7},]}";
+
+        OAuth2AuthenticationException e = assertThrows(
+            OAuth2AuthenticationException.class,
+            () -> service.loadUser(request())
+        );
+
+        assertThat(e.getError().getErrorCode(), equalTo("invalid_user_info_response"));
+    }
+
+    private OAuth2UserRequest request() {
+        Instant now = Instant.now();
+
+        return new OAuth2UserRequest(
+            registration,
+            new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token", now, now.plusSeconds(60))
+        );
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class UserInfoPrefetcherTest {
+
+    private final List<String> loadingThreads = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ClientRegistration registration = ClientRegistration.withRegistrationId("pnet")
+        .clientId("client")
+        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+        .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+        .authorizationUri("https://idp.example.com/authorize")
+        .tokenUri("https://idp.example.com/token")
+        .userInfoUri("https://idp.example.com/userinfo")
+        .userNameAttributeName("sub")
+        .build();
+
+    private volatile boolean failing;
+    private UserInfoPrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() {
+        prefetcher = new UserInfoPrefetcher(
+            request -> {
+                loadingThreads.add(Thread.currentThread().getName());
+
+                if (failing) {
+                    throw new OAuth2AuthenticationException(new OAuth2Error("invalid_user_info_response"));
+                }
+
+                return new DefaultOAuth2User(List.of(), Map.of("sub", "user"), "sub");
+            },
+            executor
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void usesPrefetchedUserInfo() {
+        prefetcher.prefetch(registration, response("token"));
+
+        assertThat(prefetcher.loadUser(request("token")).getName(), equalTo("user"));
+        assertThat(loadingThreads, hasSize(1));
+        assertThat(loadingThreads.get(0), not(equalTo(Thread.currentThread().getName())));
+    }
+
+    @Test
+    void loadsUserInfoForOtherAccessToken() {
+        prefetcher.prefetch(registration, response("token"));
+        prefetcher.loadUser(request("other"));
+        prefetcher.loadUser(request("token"));
+
+        assertThat(loadingThreads, hasSize(2));
+        assertThat(loadingThreads, hasItem(Thread.currentThread().getName()));
+    }
+
+    @Test
+    void discardsUnusedUserInfo() {
+        prefetcher.prefetch(registration, response("token"));
+        prefetcher.discard();
+        prefetcher.loadUser(request("token"));
+
+        assertThat(loadingThreads, hasItem(Thread.currentThread().getName()));
+    }
+
+    @Test
+    void rethrowsFailures() {
+        failing = true;
+        prefetcher.prefetch(registration, response("token"));
+
+        assertThrows(OAuth2AuthenticationException.class, () -> prefetcher.loadUser(request("token")));
+    }
+
+    private static OAuth2AccessTokenResponse response(String token) {
+        return OAuth2AccessTokenResponse.withToken(token)
+            .tokenType(OAuth2AccessToken.TokenType.BEARER)
+            .expiresIn(60)
+            .build();
+    }
+
+    private OAuth2UserRequest request(String token) {
+        Instant now = Instant.now();
+
+        return new OAuth2UserRequest(
+            registration,
+            new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token, now, now.plusSeconds(60))
+        );
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.openidconnect.convert;
+
+import static at.porscheinformatik.idp.openidconnect.PartnerNetOpenIdConnectUser.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import at.porscheinformatik.idp.PartnerNetCompanyDTO;
+import at.porscheinformatik.idp.PartnerNetRoleDTO;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class PartnerNetClaimTypeConverterFactoryTest {
+
+    private final Converter<Map<String, Object>, Map<String, Object>> converter =
+        new PartnerNetClaimTypeConverterFactory().apply(registration());
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void decodesClaims() {
+        Map<String, Object> claims = converter.convert(
+            Map.of(
+                "sub",
+                "user",
+                USER_INFO_ROLES,
+                List.of(Map.of("company_id", 42L, "brand_id", "V", "role_matchcode", "SALES")),
+                USER_INFO_COMPANIES,
+                List.of(Map.of("company_id", "7", "company_number", 1234L, "name", "Autohaus")),
+                USER_INFO_CONTACT_COMPANIES,
+                List.of(1L, 2.0d, 2),
+                USER_INFO_ADDITIONAL_LOCALES,
+                List.of("de-AT"),
+                ID_TOKEN_SUPPORT_AVAILABLE,
+                "true"
+            )
+        );
+
+        PartnerNetRoleDTO role = ((Collection<PartnerNetRoleDTO>) claims.get(USER_INFO_ROLES)).iterator().next();
+        PartnerNetCompanyDTO company = ((Collection<PartnerNetCompanyDTO>) claims.get(USER_INFO_COMPANIES))
+            .iterator()
+            .next();
+
+        assertThat(role.getCompanyId(), equalTo(42));
+        assertThat(role.getBrandId(), equalTo("V"));
+        assertThat(role.getRoleMatchcode(), equalTo("SALES"));
+        assertThat(company.getCompanyId(), equalTo(7));
+        assertThat(company.getCompanyNumber(), equalTo("1234"));
+        assertThat((Collection<Integer>) claims.get(USER_INFO_CONTACT_COMPANIES), containsInAnyOrder(1, 2));
+        assertThat((List<Locale>) claims.get(USER_INFO_ADDITIONAL_LOCALES), contains(Locale.forLanguageTag("de-AT")));
+        assertThat(claims.get(ID_TOKEN_SUPPORT_AVAILABLE), equalTo(Boolean.TRUE));
+    }
+
+    @Test
+    void keepsDecodedListsOfTheSameType() {
+        List<PartnerNetRoleDTO> roles = ConverterUtils.decoded(
+            PartnerNetRoleDTO.class,
+            List.of(new PartnerNetRoleDTO(7, "V", "SALES"))
+        );
+        List<PartnerNetCompanyDTO> companies = ConverterUtils.decoded(
+            PartnerNetCompanyDTO.class,
+            List.of(new PartnerNetCompanyDTO(7, "1234", "Autohaus"))
+        );
+
+        assertThat(new PartnerNetRoleConverter().convert(roles), sameInstance(roles));
+        assertThrows(IllegalArgumentException.class, () -> new PartnerNetRoleConverter().convert(companies));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void castsWithConvertEach() {
+        assertThat(ConverterUtils.cast(List.of("de-AT"), String.class), contains("de-AT"));
+        assertThat(
+            ConverterUtils.cast(List.of(Map.of("company_id", 1)), AbstractCollectionConverter.MAP),
+            contains(Map.of("company_id", 1))
+        );
+        assertThrows(IllegalArgumentException.class, () -> ConverterUtils.cast(List.of(1), String.class));
+    }
+
+    @Test
+    void rejectsInvalidEntries() {
+        IllegalArgumentException e = assertThrows(
+            IllegalArgumentException.class,
+            () -> new PartnerNetRoleConverter().convert(List.of(Map.of("company_id", 1), "role"))
+        );
+
+        assertThat(e.getMessage(), startsWith("Expected a list of java.util.Map"));
+        assertThrows(IllegalArgumentException.class, () -> new PartnerNetRoleConverter().convert("role"));
+        assertThrows(IllegalArgumentException.class, () -> new AdditionalLocalesConverter().convert(List.of(1)));
+    }
+
+    private static ClientRegistration registration() {
+        return ClientRegistration.withRegistrationId("pnet")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://idp.example.com/authorize")
+            .tokenUri("https://idp.example.com/token")
+            .build();
+    }
+}
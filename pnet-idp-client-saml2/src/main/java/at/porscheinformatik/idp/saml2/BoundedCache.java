@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Caches values derived from the relying party registration, like trust engines, decrypters, resolved registrations
+ * and the serialized metadata. Normally there are only a few entries. But some keys contain the base url of the
+ * request, so requests with arbitrary host names would let the cache grow forever. The cache is therefore cleared,
+ * when it holds {@value #MAX_ENTRIES} entries. The values are cheap to rebuild compared to tracking their usage.
+ * <p>
+ * Used by the caches of this module only. It is public, because they live in different packages.
+ *
+ * @author Daniel Furtlehner
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public final class BoundedCache<K, V> {
+
+    static final int MAX_ENTRIES = 64;
+
+    private final Map<K, V> entries = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * @param key the key of the value
+     * @param valid tests, if the cached value may still be used
+     * @param factory builds the value, if there is no valid one. The value is not cached, if it is null.
+     * @return the cached or the newly built value, may be null, if the factory returned null
+     */
+    public V get(K key, Predicate<? super V> valid, Function<? super K, ? extends V> factory) {
+        V value = entries.get(key);
+
+        if (value != null && valid.test(value)) {
+            hitCount.increment();
+
+            return value;
+        }
+
+        missCount.increment();
+        value = factory.apply(key);
+
+        if (value != null) {
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+
+            entries.put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
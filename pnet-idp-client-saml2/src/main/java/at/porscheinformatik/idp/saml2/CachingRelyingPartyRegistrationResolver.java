@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Objects;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
+import org.springframework.security.saml2.provider.service.web.DefaultRelyingPartyRegistrationResolver;
+import org.springframework.security.saml2.provider.service.web.RelyingPartyRegistrationResolver;
+
+/**
+ * A {@link RelyingPartyRegistrationResolver} that remembers the resolved registration per registration id and base url.
+ * The registration of the repository contains <code>{baseUrl}</code> placeholders. Resolving them copies the whole
+ * registration including all credentials, which is done only once per host name this way.
+ * <p>
+ * A cached registration is only used as long as the repository returns the same registration it was resolved from. The
+ * cache is cleared, when the registration changes, too. Register the resolver with
+ * {@link ReloadingRelyingPartyRegistrationRepository#onUpdate(UpdateListener)} for this.
+ * <p>
+ * Requests without registration id are passed to the {@link DefaultRelyingPartyRegistrationResolver} uncached.
+ *
+ * @author Daniel Furtlehner
+ */
+public class CachingRelyingPartyRegistrationResolver implements RelyingPartyRegistrationResolver, UpdateListener {
+
+    private final BoundedCache<String, ResolvedRegistration> entries = new BoundedCache<>();
+    private final RelyingPartyRegistrationRepository repository;
+    private final RelyingPartyRegistrationResolver delegate;
+
+    public CachingRelyingPartyRegistrationResolver(RelyingPartyRegistrationRepository repository) {
+        super();
+        this.repository = Objects.requireNonNull(repository, "repository must not be null");
+        delegate = new DefaultRelyingPartyRegistrationResolver(repository);
+    }
+
+    @Override
+    public RelyingPartyRegistration resolve(HttpServletRequest request, String relyingPartyRegistrationId) {
+        if (relyingPartyRegistrationId == null) {
+            return delegate.resolve(request, null);
+        }
+
+        RelyingPartyRegistration source = repository.findByRegistrationId(relyingPartyRegistrationId);
+
+        if (source == null) {
+            return null;
+        }
+
+        ResolvedRegistration entry = entries.get(
+            relyingPartyRegistrationId + " " + baseUrl(request),
+            cached -> cached.source == source,
+            key -> {
+                RelyingPartyRegistration resolved = delegate.resolve(request, relyingPartyRegistrationId);
+
+                return resolved == null ? null : new ResolvedRegistration(source, resolved);
+            }
+        );
+
+        return entry == null ? null : entry.resolved;
+    }
+
+    private static String baseUrl(HttpServletRequest request) {
+        return request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() +
+            request.getContextPath();
+    }
+
+    @Override
+    public void onUpdate() {
+        invalidate();
+    }
+
+    /**
+     * Removes all cached registrations.
+     */
+    public void invalidate() {
+        entries.invalidate();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    private static final class ResolvedRegistration {
+
+        private final RelyingPartyRegistration source;
+        private final RelyingPartyRegistration resolved;
+
+        ResolvedRegistration(RelyingPartyRegistration source, RelyingPartyRegistration resolved) {
+            this.source = source;
+            this.resolved = resolved;
+        }
+    }
+}
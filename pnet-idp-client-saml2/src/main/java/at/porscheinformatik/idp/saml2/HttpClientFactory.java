@@ -1,30 +1,19 @@
 package at.porscheinformatik.idp.saml2;
 
-import java.time.Duration;
-import net.shibboleth.shared.httpclient.HttpClientBuilder;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.springframework.security.saml2.Saml2Exception;
 
 @FunctionalInterface
 public interface HttpClientFactory {
     /**
-     * The default client factory builds a client with 5 seconds connection timeout and 10 seconds socket timeout.
+     * The default client factory builds a client with 5 seconds connection timeout and 10 seconds socket timeout. The
+     * client is built once and keeps its connections alive for reuse.
      *
      * @return the default http client
+     * @see PooledHttpClientFactory
      */
     static HttpClientFactory defaultClient() {
-        return () -> {
-            try {
-                HttpClientBuilder clientBuilder = new HttpClientBuilder();
-
-                clientBuilder.setConnectionTimeout(Duration.ofSeconds(5));
-                clientBuilder.setSocketTimeout(Duration.ofSeconds(10));
-
-                return clientBuilder.buildClient();
-            } catch (Exception e) {
-                throw new Saml2Exception("Error building HttpClient", e);
-            }
-        };
+        return new PooledHttpClientFactory();
     }
 
     /**
@@ -2,6 +2,8 @@ package at.porscheinformatik.idp.saml2;
 
 import at.porscheinformatik.idp.Gender;
 import at.porscheinformatik.idp.PartnerNetAuthenticationProvider;
+import at.porscheinformatik.idp.PartnerNetAuthorizationIndex;
+import at.porscheinformatik.idp.PartnerNetAuthorizationIndexProvider;
 import at.porscheinformatik.idp.PartnerNetCompanyAddressDTO;
 import at.porscheinformatik.idp.PartnerNetCompanyDTO;
 import at.porscheinformatik.idp.PartnerNetCompanyTypeDTO;
@@ -16,7 +18,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 
-public class PartnerNetSaml2AuthenticationPrincipal implements Serializable {
+public class PartnerNetSaml2AuthenticationPrincipal implements Serializable, PartnerNetAuthorizationIndexProvider {
 
     @Serial
     private static final long serialVersionUID = 8462523068524794768L;
@@ -80,6 +82,9 @@ public class PartnerNetSaml2AuthenticationPrincipal implements Serializable {
     private final Collection<Integer> supportContactCompanyIds;
     private final Collection<PartnerNetCompanyTypeDTO> supportCompanyTypes;
 
+    // Not serialized, it is built again after the session was restored
+    private transient volatile PartnerNetAuthorizationIndex authorizationIndex;
+
     public PartnerNetSaml2AuthenticationPrincipal(
             String subjectIdentifier,
             String relayState,
@@ -291,6 +296,21 @@ public class PartnerNetSaml2AuthenticationPrincipal implements Serializable {
         return companyTypes;
     }
 
+    /**
+     * @return the roles, contracts, functional numbers and company types indexed by company, built on first use
+     */
+    @Override
+    public PartnerNetAuthorizationIndex getAuthorizationIndex() {
+        PartnerNetAuthorizationIndex index = authorizationIndex;
+
+        if (index == null) {
+            index = PartnerNetAuthorizationIndex.of(roles, contracts, functionalNumbers, companyTypes);
+            authorizationIndex = index;
+        }
+
+        return index;
+    }
+
     public boolean isResponsibleUserAvailable() {
         return responsibleUser;
     }
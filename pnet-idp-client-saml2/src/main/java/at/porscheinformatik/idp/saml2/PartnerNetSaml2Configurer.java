@@ -7,10 +7,16 @@ import static at.porscheinformatik.idp.saml2.Saml2Utils.*;
 import static java.lang.String.*;
 import static java.util.Objects.*;
 
-import jakarta.servlet.Filter;
+import io.micrometer.observation.ObservationRegistry;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import net.shibboleth.shared.xml.ParserPool;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
@@ -19,8 +25,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configurers.saml2.Saml2LoginConfigurer;
 import org.springframework.security.saml2.provider.service.metadata.Saml2MetadataResolver;
-import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
-import org.springframework.security.saml2.provider.service.web.DefaultRelyingPartyRegistrationResolver;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.web.RelyingPartyRegistrationResolver;
 import org.springframework.security.saml2.provider.service.web.authentication.OpenSaml5AuthenticationRequestResolver;
 import org.springframework.security.saml2.provider.service.web.authentication.OpenSaml5AuthenticationRequestResolver.AuthnRequestContext;
@@ -73,12 +78,15 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
     private static final String DEFAULT_REGISTRATION_ID = "pnet";
     private static final String DEFAULT_LOGIN_PROCESSING_URL = "/saml2/sso/post/{registrationId}";
     private static final String DEFAULT_ENTITY_ID_PATH = "/saml2/{registrationId}";
+    private static final Duration DEFAULT_METADATA_READINESS_TIMEOUT = Duration.ofSeconds(30);
 
     private final String entityId;
     private final String metadataUrl;
 
     private boolean failOnStartup;
-    private HttpClientFactory clientFactory = HttpClientFactory.defaultClient();
+    private Duration metadataReadinessTimeout = DEFAULT_METADATA_READINESS_TIMEOUT;
+    private Path metadataBackupFile;
+    private HttpClientFactory clientFactory;
     private Saml2CredentialsManager credentialsManager;
     private Saml2ResponseProcessor responseProcessor;
     private Saml2ResponseParser responseParser;
@@ -87,8 +95,12 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
     private AuthenticationFailureHandler failureHandler;
     private String failureUrl;
     private AuthenticationSuccessHandler successHandler;
+    private ObservationRegistry observationRegistry;
+    private Saml2ResponsePreValidator responsePreValidator;
+    private ParserPool parserPool;
 
     private RelyingPartyRegistrationResolver relyingPartyResolver;
+    private Saml2ServiceProviderMetadataFilter metadataFilter;
     private Customizer<Saml2LoginConfigurer<HttpSecurity>> customizer = saml2Login -> {
         // Noop customizer. Users can override this to add custom configurations
     };
@@ -110,6 +122,37 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
         return this;
     }
 
+    /**
+     * Unless {@link #failOnStartup()} is set, the metadata of the provider is loaded in the background while the
+     * application starts. The application does not report to be ready to accept traffic, until the metadata has been
+     * loaded, or the given timeout elapsed. Defaults to 30 seconds.
+     *
+     * @param metadataReadinessTimeout the maximum time to hold back the readiness, {@link Duration#ZERO} to not wait
+     * @return the builder for a fluent api
+     */
+    public PartnerNetSaml2Configurer metadataReadinessTimeout(Duration metadataReadinessTimeout) {
+        this.metadataReadinessTimeout = requireNonNull(
+            metadataReadinessTimeout,
+            "metadataReadinessTimeout must not be null"
+        );
+
+        return this;
+    }
+
+    /**
+     * Store the metadata of the provider in the given file each time it has been loaded. On startup, the metadata is
+     * read from the file as long as it is valid, and refreshed in the background. If the provider is not available,
+     * logins keep working with the stored metadata.
+     *
+     * @param metadataBackupFile the file to use. The directory has to be writable.
+     * @return the builder for a fluent api
+     */
+    public PartnerNetSaml2Configurer metadataBackupFile(Path metadataBackupFile) {
+        this.metadataBackupFile = metadataBackupFile;
+
+        return this;
+    }
+
     /**
      * Set the credentials manager to use for loading the credentials.
      *
@@ -123,7 +166,8 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
     }
 
     /**
-     * Override the default client factory to be used for loading SAML metadata
+     * Override the default client factory to be used for loading SAML metadata. Defaults to a
+     * {@link PooledHttpClientFactory}, observed with the configured {@link ObservationRegistry}.
      *
      * @param clientFactory the client factory to use
      * @return the builder for a fluent api
@@ -214,6 +258,46 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
         return this;
     }
 
+    /**
+     * Set the registry used to observe the processing of SAML responses. If not set, the {@link ObservationRegistry}
+     * of the application context is used, if there is exactly one.
+     *
+     * @param observationRegistry the registry to use
+     * @return the builder for a fluent api
+     * @see Saml2ResponseProcessor#setObservationRegistry(ObservationRegistry)
+     */
+    public PartnerNetSaml2Configurer observationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
+
+        return this;
+    }
+
+    /**
+     * Check the responses with a {@link Saml2ResponsePreValidator} before they are parsed. It rejects oversized,
+     * malformed, stale and foreign responses. Disabled by default, as it adds limits the other checks do not have.
+     *
+     * @param responsePreValidator the validator to use, or null to disable the check
+     * @return the builder for a fluent api
+     */
+    public PartnerNetSaml2Configurer responsePreValidator(Saml2ResponsePreValidator responsePreValidator) {
+        this.responsePreValidator = responsePreValidator;
+
+        return this;
+    }
+
+    /**
+     * Override the {@link ParserPool} used to parse SAML responses and the metadata of the identity provider. Defaults
+     * to a {@link Saml2ParserPool} with the default size, observed with the configured {@link ObservationRegistry}.
+     *
+     * @param parserPool the pool to use
+     * @return the builder for a fluent api
+     */
+    public PartnerNetSaml2Configurer parserPool(ParserPool parserPool) {
+        this.parserPool = parserPool;
+
+        return this;
+    }
+
     public PartnerNetSaml2Configurer failureHandler(AuthenticationFailureHandler failureHandler) {
         this.failureHandler = failureHandler;
 
@@ -229,12 +313,35 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
     @Override
     public void init(HttpSecurity builder) {
         Saml2CredentialsManager credManager = getCredentialsManager();
-        RelyingPartyRegistrationRepository relyingPartyRegistrationRepository = getRelyingPartyRegistrationRepository(
-            credManager
+        Saml2ResponseProcessor currentResponseProcessor = getResponseProcessor();
+        ObservationRegistry currentObservationRegistry = getObservationRegistry(builder);
+        ParserPool currentParserPool = getParserPool(currentObservationRegistry);
+        ReloadingRelyingPartyRegistrationRepository relyingPartyRegistrationRepository =
+            getRelyingPartyRegistrationRepository(
+                credManager,
+                getClientFactory(currentObservationRegistry),
+                currentParserPool
+            );
+        CachingRelyingPartyRegistrationResolver cachingResolver = new CachingRelyingPartyRegistrationResolver(
+            relyingPartyRegistrationRepository
         );
-        relyingPartyResolver = new DefaultRelyingPartyRegistrationResolver(relyingPartyRegistrationRepository);
+        relyingPartyResolver = cachingResolver;
+        metadataFilter = buildMetadataFilter();
 
-        builder.authenticationProvider(buildAuthenticationProvider());
+        // Handlers, the resolver and the metadata filter cache data derived from the registration.
+        // Let them know, when it changes.
+        relyingPartyRegistrationRepository.onUpdate(currentResponseProcessor::onRegistrationUpdate);
+        relyingPartyRegistrationRepository.onUpdate(cachingResolver);
+        relyingPartyRegistrationRepository.onUpdate(metadataFilter);
+
+        bootstrapMetadata(builder, relyingPartyRegistrationRepository);
+
+        // A custom response processor keeps its own registry, unless one was configured explicitly
+        if (observationRegistry != null || responseProcessor == null) {
+            currentResponseProcessor.setObservationRegistry(currentObservationRegistry);
+        }
+
+        builder.authenticationProvider(buildAuthenticationProvider(currentResponseProcessor, currentParserPool));
 
         builder.saml2Login(saml2Login -> {
             saml2Login.relyingPartyRegistrationRepository(relyingPartyRegistrationRepository);
@@ -267,21 +374,30 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
 
     @Override
     public void configure(HttpSecurity builder) {
-        builder.addFilterBefore(buildMetadataFilter(), Saml2WebSsoAuthenticationFilter.class);
+        builder.addFilterBefore(metadataFilter, Saml2WebSsoAuthenticationFilter.class);
 
         builder.saml2Login(c -> c.authenticationManager(builder.getSharedObject(AuthenticationManager.class)));
     }
 
-    private Filter buildMetadataFilter() {
+    private Saml2ServiceProviderMetadataFilter buildMetadataFilter() {
         Saml2MetadataResolver metadataResolver = new PartnerNetSaml2MetadataResolver();
         return new Saml2ServiceProviderMetadataFilter(DEFAULT_ENTITY_ID_PATH, relyingPartyResolver, metadataResolver);
     }
 
-    private AuthenticationProvider buildAuthenticationProvider() {
-        Saml2ResponseProcessor currentResponseProcessor = getResponseProcessor();
+    private AuthenticationProvider buildAuthenticationProvider(
+        Saml2ResponseProcessor currentResponseProcessor,
+        ParserPool currentParserPool
+    ) {
         Saml2ResponseParser parser = getResponseParser();
 
-        return postProcess(new PartnerNetSamlAuthenticationProvider(currentResponseProcessor, parser));
+        PartnerNetSamlAuthenticationProvider provider = new PartnerNetSamlAuthenticationProvider(
+            currentResponseProcessor,
+            parser,
+            currentParserPool
+        );
+        provider.setPreValidator(responsePreValidator);
+
+        return postProcess(provider);
     }
 
     private Saml2ResponseParser getResponseParser() {
@@ -300,22 +416,62 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
         return requireNonNullElseGet(responseProcessor, Saml2ResponseProcessor::withDefaultHandlers);
     }
 
+    private ObservationRegistry getObservationRegistry(HttpSecurity builder) {
+        if (observationRegistry != null) {
+            return observationRegistry;
+        }
+
+        ApplicationContext context = builder.getSharedObject(ApplicationContext.class);
+
+        if (context == null) {
+            return ObservationRegistry.NOOP;
+        }
+
+        return context.getBeanProvider(ObservationRegistry.class).getIfUnique(() -> ObservationRegistry.NOOP);
+    }
+
+    private ParserPool getParserPool(ObservationRegistry currentObservationRegistry) {
+        if (parserPool != null) {
+            return parserPool;
+        }
+
+        Saml2ParserPool pool = new Saml2ParserPool();
+        pool.setObservationRegistry(currentObservationRegistry);
+
+        return pool;
+    }
+
+    private HttpClientFactory getClientFactory(ObservationRegistry currentObservationRegistry) {
+        if (clientFactory != null) {
+            return clientFactory;
+        }
+
+        PooledHttpClientFactory factory = new PooledHttpClientFactory();
+        factory.setObservationRegistry(currentObservationRegistry);
+
+        return factory;
+    }
+
     private Saml2CredentialsManager getCredentialsManager() {
         return requireNonNull(credentialsManager, "No credentials configured");
     }
 
-    private RelyingPartyRegistrationRepository getRelyingPartyRegistrationRepository(
-        Saml2CredentialsManager credManager
+    private ReloadingRelyingPartyRegistrationRepository getRelyingPartyRegistrationRepository(
+        Saml2CredentialsManager credManager,
+        HttpClientFactory currentClientFactory,
+        ParserPool currentParserPool
     ) {
         ReloadingRelyingPartyRegistrationRepository repository = new ReloadingRelyingPartyRegistrationRepository(
             DEFAULT_REGISTRATION_ID,
             entityId,
             metadataUrl,
             credManager,
-            clientFactory,
+            currentClientFactory,
             DEFAULT_LOGIN_PROCESSING_URL,
             DEFAULT_ENTITY_ID_PATH
         );
+        repository.setParserPool(currentParserPool);
+        repository.setBackupFile(metadataBackupFile);
 
         if (failOnStartup) {
             requireNonNull(
@@ -327,6 +483,20 @@ public class PartnerNetSaml2Configurer extends AbstractHttpConfigurer<PartnerNet
         return repository;
     }
 
+    private void bootstrapMetadata(HttpSecurity builder, ReloadingRelyingPartyRegistrationRepository repository) {
+        if (failOnStartup) {
+            // Already loaded synchronously
+            return;
+        }
+
+        CompletableFuture<RelyingPartyRegistration> bootstrap = repository.initializeAsync();
+        ApplicationContext context = builder.getSharedObject(ApplicationContext.class);
+
+        if (!metadataReadinessTimeout.isZero() && context instanceof ConfigurableApplicationContext configurable) {
+            Saml2MetadataReadinessListener.register(configurable, bootstrap, metadataReadinessTimeout);
+        }
+    }
+
     private Saml2AuthenticationRequestResolver buildRequestResolver(
         RelyingPartyRegistrationResolver relyingPartyRegistrationResolver
     ) {
@@ -40,7 +40,7 @@ import org.springframework.security.saml2.provider.service.registration.RelyingP
 public class PartnerNetSaml2MetadataResolver implements Saml2MetadataResolver {
 
     public static final String SUBJECT_ID_REQUIREMENT_NAME = "urn:oasis:names:tc:SAML:profiles:subject-id:req";
-    private static final Duration METADATA_MAX_VALIDITY = Duration.ofDays(7);
+    public static final Duration METADATA_MAX_VALIDITY = Duration.ofDays(7);
 
     @Override
     public String resolve(@Nonnull RelyingPartyRegistration relyingPartyRegistration) {
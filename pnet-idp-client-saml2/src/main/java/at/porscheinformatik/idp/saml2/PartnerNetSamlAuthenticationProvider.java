@@ -2,6 +2,7 @@ package at.porscheinformatik.idp.saml2;
 
 import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
 import java.io.StringReader;
+import java.util.Objects;
 import java.util.Optional;
 import net.shibboleth.shared.xml.ParserPool;
 import net.shibboleth.shared.xml.XMLParserException;
@@ -23,19 +24,47 @@ public class PartnerNetSamlAuthenticationProvider implements AuthenticationProvi
     private final ParserPool parserPool;
     private final Saml2ResponseParser parser;
 
+    private Saml2ResponsePreValidator preValidator;
+
     public PartnerNetSamlAuthenticationProvider(Saml2ResponseProcessor processor, Saml2ResponseParser parser) {
+        this(processor, parser, XMLObjectProviderRegistrySupport.getParserPool());
+    }
+
+    /**
+     * @param processor the processor validating the response
+     * @param parser the parser creating the authentication from the response
+     * @param parserPool the pool used to parse the response, e.g. a {@link Saml2ParserPool}
+     */
+    public PartnerNetSamlAuthenticationProvider(
+        Saml2ResponseProcessor processor,
+        Saml2ResponseParser parser,
+        ParserPool parserPool
+    ) {
         super();
         this.processor = processor;
         this.parser = parser;
-        parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+        this.parserPool = Objects.requireNonNull(parserPool, "parserPool must not be null");
+    }
+
+    /**
+     * Set the validator that checks the response before it is parsed and processed.
+     *
+     * @param preValidator the validator to use, or null to skip the check, the default
+     */
+    public void setPreValidator(Saml2ResponsePreValidator preValidator) {
+        this.preValidator = preValidator;
     }
 
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         try {
             Saml2AuthenticationToken token = (Saml2AuthenticationToken) authentication;
-            String serializedResponse = token.getSaml2Response();
-            Response response = parse(serializedResponse);
+
+            if (preValidator != null) {
+                preValidator.validate(token);
+            }
+
+            Response response = parse(parserPool, token.getSaml2Response());
             processor.process(token, response);
 
             HttpRequestContext details = HttpRequestContext.fromToken(token);
@@ -57,8 +86,27 @@ public class PartnerNetSamlAuthenticationProvider implements AuthenticationProvi
         }
     }
 
-    private Response parse(String serializedResponse) throws XMLParserException, UnmarshallingException {
-        return (Response) XMLObjectSupport.unmarshallFromReader(parserPool, new StringReader(serializedResponse));
+    /**
+     * Feeds the response of the token to the parser as UTF-8 bytes, encoded in small chunks while the parser reads
+     * them, so the parser uses its own UTF-8 decoding instead of a {@link StringReader}. Documents declaring another
+     * encoding are read as chars, because the parser would decode the bytes with that encoding. Also used by the
+     * benchmarks.
+     *
+     * @param parserPool the pool to parse with
+     * @param serializedResponse the decoded response of the token
+     * @return the unmarshalled response
+     * @throws XMLParserException if the response is no valid XML
+     * @throws UnmarshallingException if the response cannot be unmarshalled
+     */
+    static Response parse(ParserPool parserPool, String serializedResponse)
+        throws XMLParserException, UnmarshallingException {
+        if (!Utf8InputStream.declaresUtf8(serializedResponse)) {
+            return (Response) XMLObjectSupport.unmarshallFromReader(parserPool, new StringReader(serializedResponse));
+        }
+
+        try (Utf8InputStream in = new Utf8InputStream(serializedResponse)) {
+            return (Response) XMLObjectSupport.unmarshallFromInputStream(parserPool, in);
+        }
     }
 
     @Override
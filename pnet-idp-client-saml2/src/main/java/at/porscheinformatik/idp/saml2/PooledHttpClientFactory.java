@@ -0,0 +1,246 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.security.saml2.Saml2Exception;
+
+/**
+ * A {@link HttpClientFactory} that hands out one shared client with a pool of keep-alive connections. All users of the
+ * factory share the connections, so requests to the same host skip the TCP and TLS handshakes. All connections are
+ * created with the same TLS context, so even new connections resume the TLS sessions of former ones.
+ * <p>
+ * The client is built with the first call to {@link #newClient()}. Configure the factory before. Requests are observed
+ * as {@value #REQUEST_OBSERVATION_NAME}, if an {@link ObservationRegistry} is set. The usage of the pool is available
+ * with {@link #getLeasedConnectionCount()}, {@link #getAvailableConnectionCount()} and
+ * {@link #getPendingRequestCount()}.
+ * <p>
+ * The client honors the system properties of the JVM, like <code>https.proxyHost</code>,
+ * <code>http.nonProxyHosts</code> and the <code>javax.net.ssl.*</code> trust store, and follows redirects.
+ * <p>
+ * The client is a plain Apache HttpClient. Pass it to a <code>HttpComponentsClientHttpRequestFactory</code>, to use the
+ * same connections for the token and userinfo requests of Open ID Connect.
+ *
+ * @author Daniel Furtlehner
+ */
+public class PooledHttpClientFactory implements HttpClientFactory, Closeable {
+
+    public static final String REQUEST_OBSERVATION_NAME = "pnet.saml2.http.request";
+
+    private static final String OBSERVATION_HANDLER_NAME = "pnet-observation";
+
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration socketTimeout = Duration.ofSeconds(10);
+    private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+    private Duration keepAlive = Duration.ofMinutes(1);
+    private Duration timeToLive = Duration.ofMinutes(15);
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient client;
+
+    /**
+     * Creates a factory with at most 20 connections and 10 connections per host.
+     */
+    public PooledHttpClientFactory() {
+        this(20, 10);
+    }
+
+    /**
+     * @param maxConnections the maximum number of connections in the pool
+     * @param maxConnectionsPerRoute the maximum number of connections to a single host
+     */
+    public PooledHttpClientFactory(int maxConnections, int maxConnectionsPerRoute) {
+        super();
+
+        if (maxConnections < 1 || maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("maxConnections and maxConnectionsPerRoute must be at least 1");
+        }
+
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = Math.min(maxConnections, maxConnectionsPerRoute);
+    }
+
+    /**
+     * @param connectTimeout the timeout for establishing a connection. Defaults to 5 seconds.
+     */
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = Objects.requireNonNull(connectTimeout, "connectTimeout must not be null");
+    }
+
+    /**
+     * @param socketTimeout the timeout waiting for data of the server. Defaults to 10 seconds.
+     */
+    public void setSocketTimeout(Duration socketTimeout) {
+        this.socketTimeout = Objects.requireNonNull(socketTimeout, "socketTimeout must not be null");
+    }
+
+    /**
+     * @param connectionRequestTimeout the timeout waiting for a free connection of the pool. Defaults to 5 seconds.
+     */
+    public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+        this.connectionRequestTimeout = Objects.requireNonNull(
+            connectionRequestTimeout,
+            "connectionRequestTimeout must not be null"
+        );
+    }
+
+    /**
+     * @param keepAlive the time an idle connection is kept open, if the server does not say otherwise. Defaults to 1
+     *            minute.
+     */
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = Objects.requireNonNull(keepAlive, "keepAlive must not be null");
+    }
+
+    /**
+     * @param timeToLive the time after which a connection is not reused anymore. Defaults to 15 minutes.
+     */
+    public void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = Objects.requireNonNull(timeToLive, "timeToLive must not be null");
+    }
+
+    /**
+     * @param observationRegistry the registry to use, defaults to {@link ObservationRegistry#NOOP}
+     */
+    public void setObservationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+    }
+
+    @Override
+    public synchronized HttpClient newClient() throws Saml2Exception {
+        if (client == null) {
+            try {
+                client = buildClient();
+            } catch (Exception e) {
+                throw new Saml2Exception("Error building HttpClient", e);
+            }
+        }
+
+        return client;
+    }
+
+    private CloseableHttpClient buildClient() {
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.of(connectTimeout))
+            .setSocketTimeout(Timeout.of(socketTimeout))
+            .setTimeToLive(TimeValue.of(timeToLive))
+            .build();
+
+        connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnectionsPerRoute)
+            .setDefaultConnectionConfig(connectionConfig)
+            .useSystemProperties()
+            .build();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+            .setResponseTimeout(Timeout.of(socketTimeout))
+            .setConnectionKeepAlive(TimeValue.of(keepAlive))
+            .build();
+
+        return HttpClients.custom()
+            .useSystemProperties()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.of(keepAlive))
+            .addExecInterceptorFirst(OBSERVATION_HANDLER_NAME, this::observe)
+            .build();
+    }
+
+    private ClassicHttpResponse observe(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+        throws IOException, HttpException {
+        if (observationRegistry.isNoop()) {
+            return chain.proceed(request, scope);
+        }
+
+        Observation observation = Observation.createNotStarted(REQUEST_OBSERVATION_NAME, observationRegistry)
+            .lowCardinalityKeyValue("method", request.getMethod())
+            .lowCardinalityKeyValue("host", scope.route.getTargetHost().getHostName())
+            .start();
+
+        try {
+            ClassicHttpResponse response = chain.proceed(request, scope);
+            observation.lowCardinalityKeyValue("status", String.valueOf(response.getCode()));
+
+            return response;
+        } catch (IOException | HttpException | RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * @return the number of connections currently in use
+     */
+    public int getLeasedConnectionCount() {
+        return getTotalStats().getLeased();
+    }
+
+    /**
+     * @return the number of idle connections, that are kept alive for reuse
+     */
+    public int getAvailableConnectionCount() {
+        return getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return the number of requests waiting for a free connection
+     */
+    public int getPendingRequestCount() {
+        return getTotalStats().getPending();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    private synchronized PoolStats getTotalStats() {
+        if (connectionManager == null) {
+            return new PoolStats(0, 0, 0, maxConnections);
+        }
+
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (client != null) {
+            client.close();
+            client = null;
+            connectionManager = null;
+        }
+    }
+}
@@ -2,16 +2,31 @@ package at.porscheinformatik.idp.saml2;
 
 import static org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration.*;
 
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.ResolverException;
+import net.shibboleth.shared.xml.ParserPool;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.metadata.resolver.impl.HTTPMetadataResolver;
@@ -22,15 +37,29 @@ import org.opensaml.saml.saml2.metadata.KeyDescriptor;
 import org.opensaml.security.credential.UsageType;
 import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
 import org.opensaml.xmlsec.signature.KeyInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.saml2.Saml2Exception;
 import org.springframework.security.saml2.core.Saml2X509Credential;
 import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
 import org.springframework.security.saml2.provider.service.registration.Saml2MessageBinding;
+import org.w3c.dom.Document;
 
 public class ReloadingRelyingPartyRegistrationRepository implements RelyingPartyRegistrationRepository {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadingRelyingPartyRegistrationRepository.class);
+
+    private static final Executor BOOTSTRAP_EXECUTOR = task -> {
+        Thread thread = new Thread(task, "pnet-saml2-metadata-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final List<UpdateListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<CompletableFuture<RelyingPartyRegistration>> initialization =
+        new AtomicReference<>();
     private final String registrationId;
     private final Saml2CredentialsManager credentialsManager;
     private final RelyingPartyRegistrationMetadataResolver resolver;
@@ -62,18 +91,130 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
             return null;
         }
 
-        if (!resolver.isInitialized()) {
+        if (!isReady()) {
             try {
-                resolver.initialize();
-                resolver.prepareRegistration();
-            } catch (ComponentInitializationException | ResolverException e) {
-                throw new Saml2Exception("Error initializing Metadata. Trying again in a few minutes", e);
+                // Requests arriving while the metadata is loaded wait for the same result
+                initialize(Runnable::run).join();
+            } catch (CompletionException e) {
+                throw new Saml2Exception("Error initializing Metadata. Trying again in a few minutes", e.getCause());
             }
         }
 
         return resolver.getRegistration();
     }
 
+    /**
+     * Starts loading the metadata in a background thread, unless it is loaded already or just being loaded. Only one
+     * load runs at a time. Requests calling {@link #findByRegistrationId(String)} in the meantime wait for it.
+     * <p>
+     * If there is a backup file, it is loaded right away in the calling thread. The metadata is refreshed from the
+     * identity provider in the background afterwards.
+     *
+     * @return the registration, once the metadata is loaded
+     */
+    public CompletableFuture<RelyingPartyRegistration> initializeAsync() {
+        return initialize(resolver.hasBackupFile() ? Runnable::run : BOOTSTRAP_EXECUTOR);
+    }
+
+    /**
+     * @return true, if the metadata of the identity provider has been loaded successfully
+     */
+    public boolean isReady() {
+        CompletableFuture<RelyingPartyRegistration> current = initialization.get();
+
+        return current != null && current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    private CompletableFuture<RelyingPartyRegistration> initialize(Executor executor) {
+        while (true) {
+            CompletableFuture<RelyingPartyRegistration> current = initialization.get();
+
+            // A failed load is retried by the next caller
+            if (current != null && !current.isCompletedExceptionally()) {
+                return current;
+            }
+
+            CompletableFuture<RelyingPartyRegistration> next = new CompletableFuture<>();
+
+            if (initialization.compareAndSet(current, next)) {
+                executor.execute(() -> load(next));
+
+                return next;
+            }
+        }
+    }
+
+    private void load(CompletableFuture<RelyingPartyRegistration> future) {
+        try {
+            if (!resolver.isInitialized()) {
+                resolver.initialize();
+            }
+
+            if (!resolver.hasMetadata()) {
+                // The backup file was outdated, try the identity provider
+                resolver.refresh();
+            }
+
+            resolver.prepareRegistrationIfChanged();
+
+            future.complete(resolver.getRegistration());
+        } catch (ComponentInitializationException | ResolverException | RuntimeException e) {
+            LOG.warn("Error loading the metadata of the identity provider", e);
+
+            future.completeExceptionally(e);
+
+            return;
+        }
+
+        if (resolver.isLoadedFromBackupFile()) {
+            BOOTSTRAP_EXECUTOR.execute(this::refreshFromBackup);
+        }
+    }
+
+    void refresh() throws ResolverException {
+        resolver.refresh();
+    }
+
+    private void refreshFromBackup() {
+        try {
+            resolver.refresh();
+        } catch (ResolverException e) {
+            LOG.warn("Error refreshing the metadata loaded from the backup file. Trying again later.", e);
+        }
+    }
+
+    /**
+     * Set a file, the metadata of the identity provider is stored to each time it has been loaded and validated. When
+     * the application starts, the metadata is read from this file, as long as it is still valid. It is also used, if
+     * the identity provider is not available on startup. Has to be called before the metadata is loaded for the first
+     * time.
+     *
+     * @param backupFile the file to use, null to not use a backup file
+     */
+    public void setBackupFile(Path backupFile) {
+        resolver.setBackupFile(backupFile);
+    }
+
+    /**
+     * Set the pool used to parse the metadata of the identity provider. Has to be called before the metadata is loaded
+     * for the first time. Defaults to the global pool of OpenSAML.
+     *
+     * @param parserPool the pool to use
+     */
+    public void setParserPool(ParserPool parserPool) {
+        resolver.setParserPool(Objects.requireNonNull(parserPool, "parserPool must not be null"));
+    }
+
+    /**
+     * Registers a listener that is called each time a new {@link RelyingPartyRegistration} is published. This happens
+     * when the metadata of the identity provider or the credentials of the relying party change.
+     *
+     * @param action the action to perform on update
+     */
+    public void onUpdate(UpdateListener action) {
+        listeners.add(action);
+    }
+
     private RelyingPartyRegistrationMetadataResolver buildResolver(String entityId, String metadataUrl) {
         try {
             return new RelyingPartyRegistrationMetadataResolver(
@@ -83,7 +224,8 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
                 registrationId,
                 loginProcessingUrl,
                 entityIdPath,
-                credentialsManager
+                credentialsManager,
+                listeners
             );
         } catch (ResolverException e) {
             throw new Saml2Exception("Error initializing metadata resolver", e);
@@ -97,8 +239,14 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
         private final Saml2CredentialsManager credentialsManager;
         private final String loginProcessingUrl;
         private final String entityIdPath;
+        private final List<UpdateListener> listeners;
 
         private RelyingPartyRegistration registration;
+        private Path backupFile;
+        private volatile boolean loadedFromBackupFile;
+        private byte[] fetchedDigest;
+        private byte[] processedDigest;
+        private byte[] registrationDigest;
 
         public RelyingPartyRegistrationMetadataResolver(
             HttpClient client,
@@ -107,7 +255,8 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
             String registrationId,
             String loginProcessingUrl,
             String entityIdPath,
-            Saml2CredentialsManager credentialsManager
+            Saml2CredentialsManager credentialsManager,
+            List<UpdateListener> listeners
         ) throws ResolverException {
             super(client, idpMetadataUrl);
             this.idpEntityId = idpEntityId;
@@ -115,6 +264,7 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
             this.loginProcessingUrl = loginProcessingUrl;
             this.entityIdPath = entityIdPath;
             this.credentialsManager = credentialsManager;
+            this.listeners = listeners;
 
             this.credentialsManager.onUpdate(() -> {
                     if (!isInitialized()) {
@@ -142,14 +292,173 @@ public class ReloadingRelyingPartyRegistrationRepository implements RelyingParty
             super.refresh();
 
             if (isInitialized()) {
-                prepareRegistration();
+                prepareRegistrationIfChanged();
             }
         }
 
-        void prepareRegistration() throws ResolverException {
+        void setBackupFile(Path backupFile) {
+            checkSetterPreconditions();
+
+            this.backupFile = backupFile;
+        }
+
+        boolean hasBackupFile() {
+            return backupFile != null && Files.isReadable(backupFile);
+        }
+
+        boolean isLoadedFromBackupFile() {
+            return loadedFromBackupFile;
+        }
+
+        boolean hasMetadata() throws ResolverException {
+            return resolveSingle(new CriteriaSet(new EntityIdCriterion(idpEntityId))) != null;
+        }
+
+        @Override
+        protected byte[] fetchMetadata() throws ResolverException {
+            byte[] metadata = fetchMetadataOrBackup();
+
+            if (metadata == null) {
+                // Not modified, the identity provider answered the conditional GET with 304
+                return null;
+            }
+
+            fetchedDigest = digest(metadata);
+
+            if (processedDigest != null && Arrays.equals(fetchedDigest, processedDigest)) {
+                // The identity provider does not support conditional requests, but sent the same document again
+                LOG.debug("Metadata of {} did not change, skipping it", idpEntityId);
+
+                return null;
+            }
+
+            return metadata;
+        }
+
+        private byte[] fetchMetadataOrBackup() throws ResolverException {
+            // The first load reads the backup file. It is refreshed from the identity provider right after.
+            if (!isInitialized() && hasBackupFile()) {
+                byte[] backup = readBackupFile();
+
+                if (backup != null) {
+                    loadedFromBackupFile = true;
+
+                    return backup;
+                }
+            }
+
+            try {
+                byte[] metadata = super.fetchMetadata();
+                loadedFromBackupFile = false;
+
+                return metadata;
+            } catch (ResolverException e) {
+                byte[] backup = registration == null && hasBackupFile() ? readBackupFile() : null;
+
+                if (backup == null) {
+                    throw e;
+                }
+
+                LOG.warn("Error fetching metadata from the identity provider. Using backup file {}", backupFile, e);
+                loadedFromBackupFile = true;
+
+                return backup;
+            }
+        }
+
+        @Override
+        protected void postProcessMetadata(
+            byte[] metadataBytes,
+            Document metadataDom,
+            XMLObject originalMetadata,
+            XMLObject filteredMetadata
+        ) throws ResolverException {
+            super.postProcessMetadata(metadataBytes, metadataDom, originalMetadata, filteredMetadata);
+
+            processedDigest = fetchedDigest;
+
+            // Only valid metadata gets here
+            if (backupFile != null && !loadedFromBackupFile) {
+                writeBackupFile(metadataBytes);
+            }
+        }
+
+        private static byte[] digest(byte[] metadata) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(metadata);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not supported", e);
+            }
+        }
+
+        private byte[] readBackupFile() {
+            try {
+                return Files.readAllBytes(backupFile);
+            } catch (IOException e) {
+                LOG.warn("Error reading metadata backup file {}", backupFile, e);
+
+                return null;
+            }
+        }
+
+        private void writeBackupFile(byte[] metadataBytes) {
+            Path directory = backupFile.toAbsolutePath().getParent();
+
+            try {
+                Files.createDirectories(directory);
+
+                Path tempFile = Files.createTempFile(directory, backupFile.getFileName().toString(), ".tmp");
+
+                try {
+                    Files.write(tempFile, metadataBytes);
+                    moveAtomically(tempFile, backupFile);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            } catch (IOException e) {
+                LOG.warn("Error writing metadata backup file {}", backupFile, e);
+            }
+        }
+
+        private static void moveAtomically(Path source, Path target) throws IOException {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        /**
+         * Builds the registration, unless it has been built from the same metadata document already. The credentials of
+         * the relying party are not taken into account. Use {@link #prepareRegistration()}, when they change.
+         */
+        synchronized void prepareRegistrationIfChanged() throws ResolverException {
+            if (registration != null && Arrays.equals(registrationDigest, processedDigest)) {
+                LOG.debug("Metadata of {} did not change, keeping the registration", idpEntityId);
+
+                return;
+            }
+
+            prepareRegistration();
+        }
+
+        synchronized void prepareRegistration() throws ResolverException {
             EntityDescriptor descriptor = resolveSingle(new CriteriaSet(new EntityIdCriterion(idpEntityId)));
 
             registration = parseDescriptor(descriptor);
+            registrationDigest = processedDigest;
+
+            callListeners();
+        }
+
+        private void callListeners() {
+            for (UpdateListener listener : listeners) {
+                try {
+                    listener.onUpdate();
+                } catch (Exception e) {
+                    LOG.error("Error calling update listener", e);
+                }
+            }
         }
 
         private RelyingPartyRegistration parseDescriptor(EntityDescriptor descriptor) {
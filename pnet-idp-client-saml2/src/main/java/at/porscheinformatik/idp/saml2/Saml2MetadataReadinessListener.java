@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Holds back the {@link ReadinessState#ACCEPTING_TRAFFIC} of the application, until the metadata of the identity
+ * provider is loaded. When Spring Boot reports the application as ready, and the metadata is still loading, this
+ * listener reports {@link ReadinessState#REFUSING_TRAFFIC} again. As soon as the metadata is loaded, it reports
+ * {@link ReadinessState#ACCEPTING_TRAFFIC}. No thread waits for the metadata meanwhile.
+ * <p>
+ * The {@link ApplicationAvailability} keeps the last state it received. So the listener has to receive the
+ * {@link ReadinessState#ACCEPTING_TRAFFIC} of Spring Boot after the {@link ApplicationAvailability}, otherwise the
+ * state it publishes gets overwritten. Add it to the context with {@link #register}.
+ * <p>
+ * The metadata is loaded in the background while the application starts, so usually there is nothing left to wait
+ * for. If it is not loaded within the timeout, the application gets ready anyway and the metadata is loaded with the
+ * first login.
+ *
+ * @author Daniel Furtlehner
+ */
+public class Saml2MetadataReadinessListener implements ApplicationListener<AvailabilityChangeEvent<ReadinessState>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Saml2MetadataReadinessListener.class);
+
+    private final ApplicationEventPublisher publisher;
+    private final CompletableFuture<?> bootstrap;
+    private final Duration timeout;
+    private final AtomicBoolean holdingBack = new AtomicBoolean();
+
+    public Saml2MetadataReadinessListener(
+        ApplicationEventPublisher publisher,
+        CompletableFuture<?> bootstrap,
+        Duration timeout
+    ) {
+        super();
+        this.publisher = Objects.requireNonNull(publisher, "publisher must not be null");
+        this.bootstrap = Objects.requireNonNull(bootstrap, "bootstrap must not be null");
+        this.timeout = Objects.requireNonNull(timeout, "timeout must not be null");
+    }
+
+    /**
+     * Adds the listener to the context, as soon as the context has been refreshed. Listeners without an order are
+     * called in the order they were added, and the {@link ApplicationAvailability} of Spring Boot has been added while
+     * the context was refreshed. So the listener is called after it.
+     *
+     * @param context the context to hold back the readiness of
+     * @param bootstrap the load of the metadata
+     * @param timeout the maximum time to hold back the readiness
+     */
+    public static void register(
+        ConfigurableApplicationContext context,
+        CompletableFuture<?> bootstrap,
+        Duration timeout
+    ) {
+        context.addApplicationListener(
+            new Registration(context, new Saml2MetadataReadinessListener(context, bootstrap, timeout))
+        );
+    }
+
+    @Override
+    public void onApplicationEvent(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() != ReadinessState.ACCEPTING_TRAFFIC || bootstrap.isDone()) {
+            return;
+        }
+
+        // Only once, the listener receives the state it publishes itself, too
+        if (!holdingBack.compareAndSet(false, true)) {
+            return;
+        }
+
+        AvailabilityChangeEvent.publish(publisher, this, ReadinessState.REFUSING_TRAFFIC);
+
+        // A copy, so the timeout does not complete the load, other requests are waiting for
+        bootstrap
+            .copy()
+            .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((result, e) -> {
+                if (e instanceof TimeoutException) {
+                    LOG.warn(
+                        "Metadata of the identity provider not loaded within {}. Accepting traffic anyway.",
+                        timeout
+                    );
+                } else if (e != null) {
+                    LOG.warn(
+                        "Metadata of the identity provider could not be loaded. Trying again with the first login."
+                    );
+                }
+
+                AvailabilityChangeEvent.publish(publisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+            });
+    }
+
+    private static final class Registration implements ApplicationListener<ContextRefreshedEvent> {
+
+        private final ConfigurableApplicationContext context;
+        private final Saml2MetadataReadinessListener listener;
+
+        Registration(ConfigurableApplicationContext context, Saml2MetadataReadinessListener listener) {
+            super();
+            this.context = context;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onApplicationEvent(ContextRefreshedEvent event) {
+            // Child contexts publish their events to the parent, too
+            if (event.getApplicationContext() != context) {
+                return;
+            }
+
+            context.removeApplicationListener(this);
+            context.addApplicationListener(listener);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.xml.XMLParserException;
+import net.shibboleth.shared.xml.impl.BasicParserPool;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * The {@link ParserPool} of the SAML 2 module. It is independent of the global pool of OpenSAML, so its size can be
+ * tuned for the load of the assertion consumer service, and it is filled with a few builders when it is created, so the
+ * first responses do not pay for creating them.
+ * <p>
+ * The builders are created with a secure feature set by default: no DTDs, no external entities and secure processing
+ * enabled.
+ * <p>
+ * If an {@link ObservationRegistry} is set, borrowing a builder is observed as {@value #BORROW_OBSERVATION_NAME} and
+ * parsing a document as {@value #PARSE_OBSERVATION_NAME}. A borrow finding no idle builder is recorded as
+ * {@value #EXHAUSTED_EVENT_NAME} event.
+ *
+ * @author Daniel Furtlehner
+ */
+public class Saml2ParserPool implements ParserPool {
+
+    public static final int DEFAULT_MAX_POOL_SIZE = 50;
+    public static final int DEFAULT_PREFILL_SIZE = 4;
+
+    public static final String BORROW_OBSERVATION_NAME = "pnet.saml2.parser.borrow";
+    public static final String PARSE_OBSERVATION_NAME = "pnet.saml2.parser.parse";
+    public static final String EXHAUSTED_EVENT_NAME = "exhausted";
+
+    /**
+     * The features set on each builder by default.
+     */
+    public static final Map<String, Boolean> SECURE_BUILDER_FEATURES = createSecureBuilderFeatures();
+
+    private static final Observation.Event EXHAUSTED_EVENT = Observation.Event.of(EXHAUSTED_EVENT_NAME);
+
+    private static Map<String, Boolean> createSecureBuilderFeatures() {
+        Map<String, Boolean> features = new HashMap<>();
+
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+        features.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE);
+        features.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+        features.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+
+        return Collections.unmodifiableMap(features);
+    }
+
+    private final BasicParserPool delegate = new BasicParserPool();
+    private final int maxPoolSize;
+    private final AtomicInteger idleBuilders = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder exhaustedCount = new LongAdder();
+
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    public Saml2ParserPool() {
+        this(DEFAULT_MAX_POOL_SIZE, DEFAULT_PREFILL_SIZE);
+    }
+
+    public Saml2ParserPool(int maxPoolSize, int prefillSize) {
+        this(maxPoolSize, prefillSize, SECURE_BUILDER_FEATURES);
+    }
+
+    /**
+     * @param maxPoolSize the maximum number of idle builders kept in the pool
+     * @param prefillSize the number of builders created up front, at most maxPoolSize
+     * @param builderFeatures the features set on each builder. Replaces the {@link #SECURE_BUILDER_FEATURES}, so
+     *            usually they should be part of it.
+     */
+    public Saml2ParserPool(int maxPoolSize, int prefillSize, Map<String, Boolean> builderFeatures) {
+        super();
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("maxPoolSize must be at least 1");
+        }
+
+        this.maxPoolSize = maxPoolSize;
+
+        delegate.setMaxPoolSize(maxPoolSize);
+        delegate.setNamespaceAware(true);
+        delegate.setIgnoreComments(true);
+        delegate.setExpandEntityReferences(false);
+        delegate.setXincludeAware(false);
+        delegate.setBuilderFeatures(Objects.requireNonNull(builderFeatures, "builderFeatures must not be null"));
+
+        try {
+            delegate.initialize();
+        } catch (ComponentInitializationException e) {
+            throw new IllegalStateException("Could not initialize parser pool", e);
+        }
+
+        prefill(Math.min(prefillSize, maxPoolSize));
+    }
+
+    private void prefill(int prefillSize) {
+        List<DocumentBuilder> builders = new ArrayList<>(prefillSize);
+
+        try {
+            for (int i = 0; i < prefillSize; i++) {
+                builders.add(delegate.getBuilder());
+            }
+        } catch (XMLParserException e) {
+            throw new IllegalStateException("Could not create document builder", e);
+        } finally {
+            builders.forEach(delegate::returnBuilder);
+            idleBuilders.set(builders.size());
+        }
+    }
+
+    /**
+     * @param observationRegistry the registry to use, defaults to {@link ObservationRegistry#NOOP}
+     */
+    public void setObservationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * @return the number of builders currently waiting in the pool
+     */
+    public int getIdleBuilderCount() {
+        return idleBuilders.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * @return the number of borrows, that found no idle builder and had to create a new one
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.sum();
+    }
+
+    @Override
+    @Nonnull
+    public DocumentBuilder getBuilder() throws XMLParserException {
+        boolean exhausted = idleBuilders.getAndUpdate(idle -> idle > 0 ? idle - 1 : 0) == 0;
+
+        borrowCount.increment();
+
+        if (exhausted) {
+            exhaustedCount.increment();
+        }
+
+        if (observationRegistry.isNoop()) {
+            return delegate.getBuilder();
+        }
+
+        Observation observation = Observation.start(BORROW_OBSERVATION_NAME, observationRegistry);
+
+        if (exhausted) {
+            observation.event(EXHAUSTED_EVENT);
+        }
+
+        try {
+            return delegate.getBuilder();
+        } catch (XMLParserException | RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public void returnBuilder(@Nonnull DocumentBuilder builder) {
+        delegate.returnBuilder(builder);
+
+        idleBuilders.updateAndGet(idle -> idle < maxPoolSize ? idle + 1 : idle);
+    }
+
+    @Override
+    @Nonnull
+    public Document newDocument() throws XMLParserException {
+        DocumentBuilder builder = getBuilder();
+
+        try {
+            return builder.newDocument();
+        } finally {
+            returnBuilder(builder);
+        }
+    }
+
+    @Override
+    @Nonnull
+    public Document parse(@Nonnull InputStream input) throws XMLParserException {
+        return parse(new InputSource(input));
+    }
+
+    @Override
+    @Nonnull
+    public Document parse(@Nonnull Reader input) throws XMLParserException {
+        return parse(new InputSource(input));
+    }
+
+    private Document parse(InputSource input) throws XMLParserException {
+        DocumentBuilder builder = getBuilder();
+
+        try {
+            if (observationRegistry.isNoop()) {
+                return builder.parse(input);
+            }
+
+            return parseObserved(builder, input);
+        } catch (SAXException | IOException e) {
+            throw new XMLParserException("Unable to parse the XML document", e);
+        } finally {
+            returnBuilder(builder);
+        }
+    }
+
+    private Document parseObserved(DocumentBuilder builder, InputSource input) throws SAXException, IOException {
+        Observation observation = Observation.start(PARSE_OBSERVATION_NAME, observationRegistry);
+
+        try {
+            return builder.parse(input);
+        } catch (SAXException | IOException | RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+}
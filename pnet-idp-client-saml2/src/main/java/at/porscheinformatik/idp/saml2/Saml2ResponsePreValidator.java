@@ -0,0 +1,288 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import static java.lang.String.*;
+
+import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.shibboleth.shared.net.URIComparator;
+import net.shibboleth.shared.net.URIException;
+import net.shibboleth.shared.net.impl.BasicURLComparator;
+import net.shibboleth.shared.xml.DOMTypeSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.springframework.security.saml2.core.Saml2Error;
+import org.springframework.security.saml2.core.Saml2ErrorCodes;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationException;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationToken;
+
+/**
+ * A cheap check of a SAML response, before it is parsed into a DOM, unmarshalled and the signature is verified. The
+ * response is scanned once with StAX. It enforces limits on the size and the structure of the document, and rejects
+ * responses with a foreign Issuer, a wrong Destination or InResponseTo, or an IssueInstant that is far off. This protects
+ * the assertion consumer service from floods of garbage or replayed responses.
+ * <p>
+ * The checks are a coarse gate only. Responses passing it are fully validated by the {@link Saml2ResponseProcessor}.
+ * Values that are missing are left for the processor to report.
+ *
+ * @author Daniel Furtlehner
+ */
+public class Saml2ResponsePreValidator {
+
+    public static final int DEFAULT_MAX_RESPONSE_LENGTH = 2 * 1024 * 1024;
+    public static final int DEFAULT_MAX_DEPTH = 32;
+    public static final int DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT = 32;
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+    private static final String RESPONSE_ELEMENT = "Response";
+    private static final String ISSUER_ELEMENT = "Issuer";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+
+        return factory;
+    }
+
+    private final URIComparator uriComparator = new BasicURLComparator();
+
+    private int maxResponseLength = DEFAULT_MAX_RESPONSE_LENGTH;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int maxAttributesPerElement = DEFAULT_MAX_ATTRIBUTES_PER_ELEMENT;
+    private Duration maxAge = DEFAULT_MAX_AGE;
+
+    /**
+     * @param maxResponseLength the maximum number of characters of the decoded response
+     */
+    public void setMaxResponseLength(int maxResponseLength) {
+        this.maxResponseLength = maxResponseLength;
+    }
+
+    /**
+     * @param maxDepth the maximum nesting depth of elements
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param maxAttributesPerElement the maximum number of XML attributes on a single element
+     */
+    public void setMaxAttributesPerElement(int maxAttributesPerElement) {
+        this.maxAttributesPerElement = maxAttributesPerElement;
+    }
+
+    /**
+     * @param maxAge the maximum age of the IssueInstant of the response. The clock skew is added to it.
+     */
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge must not be null");
+    }
+
+    /**
+     * @param token the token containing the response
+     * @throws Saml2AuthenticationException if the response is rejected
+     */
+    public void validate(Saml2AuthenticationToken token) throws Saml2AuthenticationException {
+        String serializedResponse = token.getSaml2Response();
+
+        if (serializedResponse == null || serializedResponse.isEmpty()) {
+            throw error(Saml2ErrorCodes.MALFORMED_RESPONSE_DATA, "SAML response is empty");
+        }
+
+        if (serializedResponse.length() > maxResponseLength) {
+            throw error(
+                Saml2ErrorCodes.MALFORMED_RESPONSE_DATA,
+                format("SAML response exceeds the maximum length of %d characters", maxResponseLength)
+            );
+        }
+
+        ResponseHeader header = scan(serializedResponse);
+        Optional<HttpRequestContext> requestContext = token.getDetails() instanceof HttpRequestContext context
+            ? Optional.of(context)
+            : Optional.empty();
+
+        checkIssuer(token, header.issuer);
+        checkIssueInstant(header.issueInstant);
+
+        if (requestContext.isPresent()) {
+            checkDestination(requestContext.get(), header.destination);
+            checkInResponseTo(requestContext.get(), header.inResponseTo);
+        }
+    }
+
+    private ResponseHeader scan(String serializedResponse) {
+        ResponseHeader header = new ResponseHeader();
+
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(serializedResponse));
+
+            try {
+                int depth = 0;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.DTD) {
+                        throw error(Saml2ErrorCodes.MALFORMED_RESPONSE_DATA, "SAML response must not contain a DTD");
+                    }
+
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+
+                    depth++;
+
+                    checkLimits(reader, depth);
+
+                    if (depth == 1) {
+                        readResponseElement(reader, header);
+                    } else if (depth == 2 && isElement(reader, SAMLConstants.SAML20_NS, ISSUER_ELEMENT)) {
+                        header.issuer = reader.getElementText().trim();
+
+                        // getElementText consumes the end element
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new Saml2AuthenticationException(
+                new Saml2Error(Saml2ErrorCodes.MALFORMED_RESPONSE_DATA, "SAML response is not well-formed"),
+                e
+            );
+        }
+
+        return header;
+    }
+
+    private void checkLimits(XMLStreamReader reader, int depth) {
+        if (depth > maxDepth) {
+            throw error(
+                Saml2ErrorCodes.MALFORMED_RESPONSE_DATA,
+                format("SAML response exceeds the maximum element depth of %d", maxDepth)
+            );
+        }
+
+        if (reader.getAttributeCount() > maxAttributesPerElement) {
+            throw error(
+                Saml2ErrorCodes.MALFORMED_RESPONSE_DATA,
+                format("SAML response exceeds the maximum of %d attributes per element", maxAttributesPerElement)
+            );
+        }
+    }
+
+    private void readResponseElement(XMLStreamReader reader, ResponseHeader header) {
+        if (!isElement(reader, SAMLConstants.SAML20P_NS, RESPONSE_ELEMENT)) {
+            throw error(
+                Saml2ErrorCodes.MALFORMED_RESPONSE_DATA,
+                format("Expected a SAML 2 Response but got %s", reader.getName())
+            );
+        }
+
+        header.destination = reader.getAttributeValue(XMLConstants.NULL_NS_URI, "Destination");
+        header.inResponseTo = reader.getAttributeValue(XMLConstants.NULL_NS_URI, "InResponseTo");
+        header.issueInstant = reader.getAttributeValue(XMLConstants.NULL_NS_URI, "IssueInstant");
+    }
+
+    private boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        return namespace.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private void checkIssuer(Saml2AuthenticationToken token, String issuer) {
+        if (issuer == null || issuer.isEmpty()) {
+            return;
+        }
+
+        String entityId = token.getRelyingPartyRegistration().getAssertingPartyMetadata().getEntityId();
+
+        if (!Objects.equals(entityId, issuer)) {
+            throw error(Saml2ErrorCodes.INVALID_ISSUER, format("Invalid issuer %s", issuer));
+        }
+    }
+
+    private void checkIssueInstant(String issueInstant) {
+        if (issueInstant == null) {
+            return;
+        }
+
+        Instant instant;
+
+        try {
+            instant = DOMTypeSupport.stringToInstant(issueInstant);
+        } catch (IllegalArgumentException e) {
+            throw error(Saml2ErrorCodes.MALFORMED_RESPONSE_DATA, format("Invalid IssueInstant %s", issueInstant));
+        }
+
+        Instant now = Instant.now();
+
+        if (instant.isAfter(now.plus(Saml2Utils.CLOCK_SKEW))) {
+            throw error(Saml2ErrorCodes.INVALID_RESPONSE, format("IssueInstant %s is in the future", instant));
+        }
+
+        if (instant.isBefore(now.minus(maxAge).minus(Saml2Utils.CLOCK_SKEW))) {
+            throw error(Saml2ErrorCodes.INVALID_RESPONSE, format("IssueInstant %s is too old", instant));
+        }
+    }
+
+    private void checkDestination(HttpRequestContext requestContext, String destination) {
+        if (destination == null || destination.isBlank()) {
+            return;
+        }
+
+        String receiverEndpoint = requestContext.getRequest().getRequestURL().toString();
+
+        try {
+            if (!uriComparator.compare(destination.trim(), receiverEndpoint)) {
+                throw error(Saml2ErrorCodes.INVALID_DESTINATION, format("Invalid destination %s", destination));
+            }
+        } catch (URIException e) {
+            throw error(Saml2ErrorCodes.INVALID_DESTINATION, format("Invalid destination %s", destination));
+        }
+    }
+
+    private void checkInResponseTo(HttpRequestContext requestContext, String inResponseTo) {
+        if (inResponseTo == null) {
+            return;
+        }
+
+        Optional<String> authnRequestId = requestContext.getAuthnRequestId();
+
+        if (authnRequestId.isPresent() && !authnRequestId.get().equals(inResponseTo)) {
+            throw error(Saml2ErrorCodes.INVALID_IN_RESPONSE_TO, format("Invalid InResponseTo %s", inResponseTo));
+        }
+    }
+
+    private static Saml2AuthenticationException error(String errorCode, String description) {
+        return new Saml2AuthenticationException(new Saml2Error(errorCode, description));
+    }
+
+    private static final class ResponseHeader {
+
+        private String issuer;
+        private String destination;
+        private String inResponseTo;
+        private String issueInstant;
+    }
+}
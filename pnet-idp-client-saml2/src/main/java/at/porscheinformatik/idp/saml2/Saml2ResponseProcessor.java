@@ -19,6 +19,10 @@ import at.porscheinformatik.idp.saml2.response.VerifyAuthenticationStrengthMessa
 import at.porscheinformatik.idp.saml2.response.VerifyAuthnInstantMessageHandler;
 import at.porscheinformatik.idp.saml2.response.VerifySignatureMessageHandler;
 import at.porscheinformatik.idp.saml2.response.VerifyStatusMessageHandler;
+import io.micrometer.common.KeyValue;
+import io.micrometer.common.KeyValues;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.List;
@@ -34,13 +38,31 @@ import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.Response;
 import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationToken;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.security.saml2.provider.service.registration.Saml2MessageBinding;
 
 /**
  * @author Daniel Furtlehner
  */
 public class Saml2ResponseProcessor {
 
+    public static final String OBSERVATION_NAME = "pnet.saml2.response";
+    public static final String HANDLER_OBSERVATION_NAME = "pnet.saml2.response.handler";
+    public static final String REJECTED_EVENT_NAME = "rejected";
+
+    private static final String REGISTRATION_ID_KEY = "registration.id";
+    private static final String BINDING_KEY = "binding";
+    private static final String HANDLER_KEY = "handler";
+    private static final Observation.Event REJECTED_EVENT = Observation.Event.of(REJECTED_EVENT_NAME);
+
     public static Saml2ResponseProcessor withDefaultHandlers() {
+        return new Saml2ResponseProcessor(defaultHandlers());
+    }
+
+    /**
+     * @return new instances of the default handlers in the order they are invoked. Also used by the benchmarks.
+     */
+    static List<MessageHandler> defaultHandlers() {
         MessageLifetimeSecurityHandler lifetimeHandler = new MessageLifetimeSecurityHandler();
         lifetimeHandler.setClockSkew(CLOCK_SKEW);
 
@@ -65,24 +87,106 @@ public class Saml2ResponseProcessor {
         handlers.add(new CheckSubjectIdentifierMessageHandler());
         handlers.add(new VerifyAuthenticationStrengthMessageHandler());
         handlers.add(new CheckRelayStateMessageHandler());
-        return new Saml2ResponseProcessor(handlers);
+        return handlers;
     }
 
     private final List<MessageHandler> handlers = new ArrayList<>();
 
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
     public Saml2ResponseProcessor(List<MessageHandler> handlers) {
         this.handlers.addAll(handlers);
     }
 
+    /**
+     * Set the registry used to observe the processing of responses. Each response is observed as
+     * {@value #OBSERVATION_NAME}, and each handler as {@value #HANDLER_OBSERVATION_NAME}. A handler rejecting the
+     * response is recorded as {@value #REJECTED_EVENT_NAME} event of the handler observation. All observations carry the
+     * registration id and the binding, the handler observations the simple class name of the handler, too.
+     *
+     * @param observationRegistry the registry to use, defaults to {@link ObservationRegistry#NOOP}
+     */
+    public void setObservationRegistry(ObservationRegistry observationRegistry) {
+        this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+    }
+
+    public ObservationRegistry getObservationRegistry() {
+        return observationRegistry;
+    }
+
     public void process(Saml2AuthenticationToken token, Response response) throws MessageHandlerException {
         MessageContext messageContext = buildMessageContext(token, response);
 
-        for (MessageHandler handler : handlers) {
+        if (observationRegistry.isNoop()) {
+            for (MessageHandler handler : handlers) {
+                handler.invoke(messageContext);
+            }
+
+            return;
+        }
+
+        KeyValues keyValues = KeyValues.of(
+            KeyValue.of(REGISTRATION_ID_KEY, token.getRelyingPartyRegistration().getRegistrationId()),
+            KeyValue.of(BINDING_KEY, bindingName(messageContext))
+        );
+        Observation observation = Observation.createNotStarted(OBSERVATION_NAME, observationRegistry)
+            .lowCardinalityKeyValues(keyValues)
+            .start();
+
+        try (Observation.Scope scope = observation.openScope()) {
+            for (MessageHandler handler : handlers) {
+                invokeObserved(handler, messageContext, keyValues);
+            }
+        } catch (MessageHandlerException | RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    private void invokeObserved(MessageHandler handler, MessageContext messageContext, KeyValues keyValues)
+        throws MessageHandlerException {
+        Observation observation = Observation.createNotStarted(HANDLER_OBSERVATION_NAME, observationRegistry)
+            .lowCardinalityKeyValues(keyValues)
+            .lowCardinalityKeyValue(HANDLER_KEY, handler.getClass().getSimpleName())
+            .start();
+
+        try {
             handler.invoke(messageContext);
+        } catch (MessageHandlerException e) {
+            observation.error(e);
+            observation.event(REJECTED_EVENT);
+
+            throw e;
+        } catch (RuntimeException e) {
+            observation.error(e);
+
+            throw e;
+        } finally {
+            observation.stop();
         }
     }
 
-    private MessageContext buildMessageContext(Saml2AuthenticationToken token, Response response) {
+    private static String bindingName(MessageContext messageContext) {
+        String bindingUri = messageContext.ensureSubcontext(SAMLBindingContext.class).getBindingUri();
+
+        for (Saml2MessageBinding binding : Saml2MessageBinding.values()) {
+            if (binding.getUrn().equals(bindingUri)) {
+                return binding.name();
+            }
+        }
+
+        return KeyValue.NONE_VALUE;
+    }
+
+    /**
+     * @param token the token of the response
+     * @param response the parsed response
+     * @return the context the handlers are invoked with. Also used by the benchmarks.
+     */
+    static MessageContext buildMessageContext(Saml2AuthenticationToken token, Response response) {
         HttpRequestContext details = HttpRequestContext.fromToken(token);
         boolean isPost = Objects.equals("POST", details.getRequest().getMethod());
 
@@ -100,6 +204,20 @@ public class Saml2ResponseProcessor {
         return messageContext;
     }
 
+    /**
+     * Notifies all handlers, that cache data derived from the {@link RelyingPartyRegistration}, that a new registration
+     * was published. Handlers that want to be notified implement {@link UpdateListener}.
+     *
+     * @throws Exception if one of the handlers fails to update
+     */
+    public void onRegistrationUpdate() throws Exception {
+        for (MessageHandler handler : handlers) {
+            if (handler instanceof UpdateListener listener) {
+                listener.onUpdate();
+            }
+        }
+    }
+
     @PostConstruct
     public void initialize() throws ComponentInitializationException {
         for (MessageHandler handler : handlers) {
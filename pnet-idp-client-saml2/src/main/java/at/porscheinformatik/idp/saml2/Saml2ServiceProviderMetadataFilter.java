@@ -7,26 +7,56 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.saml2.core.Saml2X509Credential;
 import org.springframework.security.saml2.provider.service.metadata.Saml2MetadataResolver;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
 import org.springframework.security.saml2.provider.service.web.RelyingPartyRegistrationResolver;
 import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 /**
+ * Serves the metadata of the service provider. The serialized metadata is cached per entity id, as long as the parts
+ * of the registration it is built from stay the same. Clients may revalidate it with the ETag and get it gzipped.
+ * <p>
+ * The cached metadata is rebuilt once a day, so the validUntil of the metadata never gets close. Clients may cache it
+ * for the remaining validity, but at most for the configured max age.
+ *
  * @author Daniel Furtlehner
  */
-public class Saml2ServiceProviderMetadataFilter extends OncePerRequestFilter {
+public class Saml2ServiceProviderMetadataFilter extends OncePerRequestFilter implements UpdateListener {
+
+    private static final String REGISTRATION_ID_VARIABLE = "registrationId";
+    private static final String CONTENT_TYPE = "application/samlmetadata+xml";
+    private static final String GZIP = "gzip";
+    private static final Duration REBUILD_INTERVAL = Duration.ofDays(1);
 
-    private final RequestMatcher requestMatcher;
+    private final BoundedCache<String, CachedMetadata> entries = new BoundedCache<>();
+    private final PathPatternRequestMatcher requestMatcher;
     private final RelyingPartyRegistrationResolver relyingPartyRegistrationResolver;
     private final Saml2MetadataResolver metadataResolver;
 
+    private boolean gzipEnabled = true;
+    private Duration maxAge = PartnerNetSaml2MetadataResolver.METADATA_MAX_VALIDITY;
+
     public Saml2ServiceProviderMetadataFilter(
         String metadataProcessingUrl,
         RelyingPartyRegistrationResolver relyingPartyRegistrationResolver,
@@ -39,17 +69,49 @@ public class Saml2ServiceProviderMetadataFilter extends OncePerRequestFilter {
         this.metadataResolver = metadataResolver;
     }
 
+    /**
+     * @param gzipEnabled true to send the metadata gzipped to clients accepting it. Defaults to true.
+     */
+    public void setGzipEnabled(boolean gzipEnabled) {
+        this.gzipEnabled = gzipEnabled;
+    }
+
+    /**
+     * @param maxAge the maximum time clients may cache the metadata. Defaults to the validity of the metadata.
+     */
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge must not be null");
+    }
+
+    @Override
+    public void onUpdate() {
+        invalidate();
+    }
+
+    /**
+     * Removes all cached metadata. Call this, when the credentials or the metadata changed.
+     */
+    public void invalidate() {
+        entries.invalidate();
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
         throws ServletException, IOException {
-        if (!requestMatcher.matches(request)) {
+        RequestMatcher.MatchResult matchResult = requestMatcher.matcher(request);
+
+        if (!matchResult.isMatch()) {
             filterChain.doFilter(request, response);
 
             return;
         }
 
         try {
-            RelyingPartyRegistration relyingPartyRegistration = relyingPartyRegistrationResolver.resolve(request, null);
+            // Pass the registration id of the path, if there is one. Otherwise the resolver guesses it.
+            RelyingPartyRegistration relyingPartyRegistration = relyingPartyRegistrationResolver.resolve(
+                request,
+                matchResult.getVariables().get(REGISTRATION_ID_VARIABLE)
+            );
 
             if (relyingPartyRegistration == null) {
                 response.sendError(HttpStatus.NOT_FOUND.value());
@@ -57,16 +119,163 @@ public class Saml2ServiceProviderMetadataFilter extends OncePerRequestFilter {
                 return;
             }
 
-            String metadata = metadataResolver.resolve(relyingPartyRegistration);
+            CachedMetadata metadata = getMetadata(relyingPartyRegistration);
+            boolean gzip = gzipEnabled && acceptsGzip(request);
+            String etag = gzip ? metadata.gzipEtag : metadata.etag;
 
-            response.setContentType("application/samlmetadata+xml");
+            if (gzipEnabled) {
+                response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(metadata).getHeaderValue());
+
+            if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+                return;
+            }
+
+            byte[] body = gzip ? metadata.getGzipped() : metadata.bytes;
+
+            response.setContentType(CONTENT_TYPE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
             response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"saml-metadata.xml\"");
-            response.setContentLength(metadata.length());
 
-            response.getWriter().append(metadata);
-            response.getWriter().flush();
+            if (gzip) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+            }
+
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            response.getOutputStream().flush();
         } catch (Exception e) {
             throw new IOException("Error buiding metadata", e);
         }
     }
+
+    private CachedMetadata getMetadata(RelyingPartyRegistration relyingPartyRegistration) {
+        Instant now = Instant.now();
+
+        return entries.get(
+            relyingPartyRegistration.getEntityId(),
+            metadata -> metadata.isBuiltFor(relyingPartyRegistration) && metadata.isFresh(now),
+            entityId -> {
+                byte[] bytes = metadataResolver.resolve(relyingPartyRegistration).getBytes(StandardCharsets.UTF_8);
+
+                return new CachedMetadata(relyingPartyRegistration, bytes, now);
+            }
+        );
+    }
+
+    private CacheControl cacheControl(CachedMetadata metadata) {
+        Duration remaining = Duration.between(Instant.now(), metadata.validUntil);
+
+        if (remaining.isNegative()) {
+            return CacheControl.noCache();
+        }
+
+        return CacheControl.maxAge(remaining.compareTo(maxAge) < 0 ? remaining : maxAge).cachePublic();
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] parts = encoding.trim().split(";");
+
+            if (GZIP.equalsIgnoreCase(parts[0].trim())) {
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    private static String etag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+
+            return "\"" + HexFormat.of().formatHex(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static final class CachedMetadata {
+
+        private final String assertionConsumerServiceLocation;
+        private final String assertionConsumerServiceBinding;
+        private final boolean wantAuthnRequestsSigned;
+        private final List<Saml2X509Credential> signingCredentials;
+        private final List<Saml2X509Credential> decryptionCredentials;
+        private final byte[] bytes;
+        private final String etag;
+        private final String gzipEtag;
+        private final Instant builtAt;
+        private final Instant validUntil;
+
+        private volatile byte[] gzipped;
+
+        CachedMetadata(RelyingPartyRegistration registration, byte[] bytes, Instant builtAt) {
+            assertionConsumerServiceLocation = registration.getAssertionConsumerServiceLocation();
+            assertionConsumerServiceBinding = registration.getAssertionConsumerServiceBinding().getUrn();
+            wantAuthnRequestsSigned = registration.getAssertingPartyMetadata().getWantAuthnRequestsSigned();
+            signingCredentials = List.copyOf(registration.getSigningX509Credentials());
+            decryptionCredentials = List.copyOf(registration.getDecryptionX509Credentials());
+            this.bytes = bytes;
+            this.builtAt = builtAt;
+
+            etag = etag(bytes);
+            gzipEtag = etag.substring(0, etag.length() - 1) + "-" + GZIP + "\"";
+            validUntil = builtAt.plus(PartnerNetSaml2MetadataResolver.METADATA_MAX_VALIDITY);
+        }
+
+        boolean isBuiltFor(RelyingPartyRegistration registration) {
+            String binding = registration.getAssertionConsumerServiceBinding().getUrn();
+
+            return (
+                Objects.equals(assertionConsumerServiceLocation, registration.getAssertionConsumerServiceLocation()) &&
+                Objects.equals(assertionConsumerServiceBinding, binding) &&
+                wantAuthnRequestsSigned == registration.getAssertingPartyMetadata().getWantAuthnRequestsSigned() &&
+                sameCredentials(signingCredentials, registration.getSigningX509Credentials()) &&
+                sameCredentials(decryptionCredentials, registration.getDecryptionX509Credentials())
+            );
+        }
+
+        private static boolean sameCredentials(
+            List<Saml2X509Credential> credentials,
+            Collection<Saml2X509Credential> otherCredentials
+        ) {
+            return credentials.size() == otherCredentials.size() && credentials.containsAll(otherCredentials);
+        }
+
+        boolean isFresh(Instant now) {
+            return now.isBefore(builtAt.plus(REBUILD_INTERVAL));
+        }
+
+        byte[] getGzipped() {
+            byte[] result = gzipped;
+
+            if (result == null) {
+                result = gzip(bytes);
+                gzipped = result;
+            }
+
+            return result;
+        }
+    }
 }
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Encodes a document to UTF-8 while it is read. Only a small buffer is allocated, the document is neither copied to a
+ * char array nor to a byte array. So the XML parser reads bytes, like it does for documents read from the network,
+ * instead of the chars of a {@link java.io.StringReader}.
+ *
+ * @author Daniel Furtlehner
+ */
+final class Utf8InputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private boolean done;
+
+    Utf8InputStream(CharSequence document) {
+        super();
+        chars = CharBuffer.wrap(Objects.requireNonNull(document, "document must not be null"));
+
+        // Nothing to read yet
+        bytes.flip();
+    }
+
+    /**
+     * The parser uses the encoding of the XML declaration. Documents declaring another encoding than UTF-8 must not be
+     * read from this stream.
+     *
+     * @param document the document
+     * @return true, if the document declares no encoding or UTF-8
+     */
+    static boolean declaresUtf8(String document) {
+        if (!document.startsWith("<?xml")) {
+            return true;
+        }
+
+        int end = document.indexOf("?>");
+        int encoding = document.indexOf("encoding");
+
+        if (end < 0 || encoding < 0 || encoding > end) {
+            return true;
+        }
+
+        int start = encoding + "encoding".length();
+
+        while (start < end && document.charAt(start) != '"' && document.charAt(start) != '\'') {
+            start++;
+        }
+
+        int close = start < end ? document.indexOf(document.charAt(start), start + 1) : -1;
+
+        if (close < 0 || close > end) {
+            return false;
+        }
+
+        String name = document.substring(start + 1, close).toUpperCase(Locale.ROOT);
+
+        return "UTF-8".equals(name) || "UTF8".equals(name);
+    }
+
+    @Override
+    public int read() {
+        return fill() ? bytes.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, bytes.remaining());
+        bytes.get(b, off, count);
+
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return bytes.remaining();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    private boolean fill() {
+        while (!bytes.hasRemaining()) {
+            if (done) {
+                return false;
+            }
+
+            bytes.clear();
+
+            CoderResult result = encoder.encode(chars, bytes, true);
+
+            // Underflow means, that all chars are encoded
+            if (result.isUnderflow()) {
+                encoder.flush(bytes);
+                done = true;
+            }
+
+            bytes.flip();
+        }
+
+        return true;
+    }
+}
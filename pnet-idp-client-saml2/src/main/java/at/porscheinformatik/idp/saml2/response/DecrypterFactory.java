@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2.response;
+
+import at.porscheinformatik.idp.saml2.BoundedCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nonnull;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.saml.saml2.encryption.EncryptedElementTypeEncryptedKeyResolver;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.encryption.support.ChainingEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.EncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+
+/**
+ * Creates {@link Decrypter}s for the decryption credentials of a relying party. The credential and key resolvers
+ * needed by the decrypter are immutable and only change, when the credentials of the relying party change. So they are
+ * built once per entity id and reused, as long as the credentials stay the same.
+ * <p>
+ * OpenSAML does not guarantee that a {@link Decrypter} may be shared between threads. So each call returns a new,
+ * lightweight decrypter, that uses the cached resolvers.
+ * <p>
+ * The key encryption key is selected with an {@link IndexedKeyInfoCredentialResolver}. When multiple decryption
+ * credentials are configured, the key referenced by the KeyInfo of the encrypted key is tried first.
+ *
+ * @author Daniel Furtlehner
+ */
+public class DecrypterFactory {
+
+    private final BoundedCache<String, DecryptionResolvers> entries = new BoundedCache<>();
+
+    /**
+     * @param entityId the entity id of the relying party
+     * @param credentials the decryption credentials of the relying party
+     * @return a decrypter for the given credentials
+     */
+    @Nonnull
+    public Decrypter getDecrypter(String entityId, Collection<Saml2X509Credential> credentials) {
+        return entries
+            .get(
+                entityId,
+                resolvers -> resolvers.isBuiltFor(credentials),
+                key -> new DecryptionResolvers(key, List.copyOf(credentials))
+            )
+            .newDecrypter();
+    }
+
+    /**
+     * Removes all cached resolvers. Call this, when the credentials of the relying party changed.
+     */
+    public void invalidate() {
+        entries.invalidate();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    private static final class DecryptionResolvers {
+
+        private final List<Saml2X509Credential> credentials;
+        private final KeyInfoCredentialResolver keyResolver;
+        private final EncryptedKeyResolver encryptedKeyResolver;
+
+        DecryptionResolvers(String entityId, List<Saml2X509Credential> credentials) {
+            this.credentials = credentials;
+
+            List<Credential> samlCredentials = credentials
+                .stream()
+                .map(key -> CredentialSupport.getSimpleCredential(key.getCertificate(), key.getPrivateKey()))
+                .toList();
+
+            keyResolver = new IndexedKeyInfoCredentialResolver(samlCredentials, true);
+
+            List<EncryptedKeyResolver> encryptedKeyResolvers = new ArrayList<>();
+            encryptedKeyResolvers.add(new InlineEncryptedKeyResolver());
+            encryptedKeyResolvers.add(new EncryptedElementTypeEncryptedKeyResolver());
+            encryptedKeyResolvers.add(new SimpleRetrievalMethodEncryptedKeyResolver());
+
+            encryptedKeyResolver = new ChainingEncryptedKeyResolver(encryptedKeyResolvers, entityId);
+        }
+
+        boolean isBuiltFor(Collection<Saml2X509Credential> otherCredentials) {
+            if (credentials.size() != otherCredentials.size()) {
+                return false;
+            }
+
+            return credentials.containsAll(otherCredentials);
+        }
+
+        Decrypter newDecrypter() {
+            return new Decrypter(null, keyResolver, encryptedKeyResolver);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2.response;
+
+import java.math.BigInteger;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.security.auth.x500.X500Principal;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.security.x509.X509Support;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.KeyValue;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.opensaml.xmlsec.signature.X509Digest;
+import org.opensaml.xmlsec.signature.X509IssuerSerial;
+import org.opensaml.xmlsec.signature.X509SKI;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link KeyInfoCredentialResolver} over a fixed set of local credentials. The credentials are indexed by the
+ * certificate digests, issuer and serial number, subject key identifier and public key when the resolver is built.
+ * <p>
+ * On resolve, the {@link KeyInfo} of the {@link KeyInfoCriterion} is matched against the index, and only the matching
+ * credentials are returned. This avoids expensive private key operations with the wrong key, when multiple keys are
+ * configured during a key rollover. When the fallback is enabled, all remaining credentials are returned after the
+ * matching ones. So a KeyInfo that does not identify the key, or identifies the wrong one, still works.
+ *
+ * @author Daniel Furtlehner
+ */
+public class IndexedKeyInfoCredentialResolver implements KeyInfoCredentialResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedKeyInfoCredentialResolver.class);
+
+    private static final Map<String, String> DIGEST_ALGORITHMS = Map.of(
+        SignatureConstants.ALGO_ID_DIGEST_SHA1,
+        "SHA-1",
+        SignatureConstants.ALGO_ID_DIGEST_SHA256,
+        "SHA-256",
+        SignatureConstants.ALGO_ID_DIGEST_SHA512,
+        "SHA-512"
+    );
+
+    private final List<Credential> credentials;
+    private final boolean fallbackToAll;
+    private final Map<String, Credential> index = new HashMap<>();
+
+    /**
+     * @param credentials the local credentials to resolve from
+     * @param fallbackToAll true to return all remaining credentials after the matching ones
+     */
+    public IndexedKeyInfoCredentialResolver(List<Credential> credentials, boolean fallbackToAll) {
+        this.credentials = List.copyOf(credentials);
+        this.fallbackToAll = fallbackToAll;
+
+        for (Credential credential : this.credentials) {
+            addToIndex(credential);
+        }
+    }
+
+    @Override
+    @Nonnull
+    public Iterable<Credential> resolve(@Nullable CriteriaSet criteria) throws ResolverException {
+        Set<Credential> result = new LinkedHashSet<>();
+        KeyInfoCriterion keyInfoCriterion = criteria == null ? null : criteria.get(KeyInfoCriterion.class);
+        KeyInfo keyInfo = keyInfoCriterion == null ? null : keyInfoCriterion.getKeyInfo();
+
+        if (keyInfo != null) {
+            for (String key : indexKeys(keyInfo)) {
+                Credential credential = index.get(key);
+
+                if (credential != null) {
+                    result.add(credential);
+                }
+            }
+        }
+
+        if (result.isEmpty()) {
+            LOG.debug("No credential matches the KeyInfo.");
+        }
+
+        if (fallbackToAll) {
+            result.addAll(credentials);
+        }
+
+        return result;
+    }
+
+    @Override
+    @Nullable
+    public Credential resolveSingle(@Nullable CriteriaSet criteria) throws ResolverException {
+        for (Credential credential : resolve(criteria)) {
+            return credential;
+        }
+
+        return null;
+    }
+
+    private void addToIndex(Credential credential) {
+        if (credential.getPublicKey() != null) {
+            index.putIfAbsent(publicKeyKey(credential.getPublicKey()), credential);
+        }
+
+        if (!(credential instanceof X509Credential x509Credential)) {
+            return;
+        }
+
+        X509Certificate certificate = x509Credential.getEntityCertificate();
+
+        try {
+            byte[] encoded = certificate.getEncoded();
+
+            for (String algorithm : DIGEST_ALGORITHMS.values()) {
+                byte[] digest = MessageDigest.getInstance(algorithm).digest(encoded);
+
+                index.putIfAbsent(digestKey(algorithm, digest), credential);
+            }
+        } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
+            LOG.warn("Could not compute the digests of certificate {}", certificate.getSubjectX500Principal(), e);
+        }
+
+        index.putIfAbsent(
+            issuerSerialKey(certificate.getIssuerX500Principal(), certificate.getSerialNumber()),
+            credential
+        );
+
+        byte[] subjectKeyIdentifier = X509Support.getSubjectKeyIdentifier(certificate);
+
+        if (subjectKeyIdentifier != null) {
+            index.putIfAbsent(subjectKeyIdentifierKey(subjectKeyIdentifier), credential);
+        }
+    }
+
+    private List<String> indexKeys(KeyInfo keyInfo) {
+        List<String> keys = new ArrayList<>();
+
+        try {
+            for (X509Certificate certificate : KeyInfoSupport.getCertificates(keyInfo)) {
+                keys.add(publicKeyKey(certificate.getPublicKey()));
+            }
+        } catch (CertificateException e) {
+            LOG.debug("Could not parse the certificates of the KeyInfo", e);
+        }
+
+        for (KeyValue keyValue : keyInfo.getKeyValues()) {
+            if (keyValue.getRSAKeyValue() != null) {
+                try {
+                    keys.add(publicKeyKey(KeyInfoSupport.getRSAKey(keyValue.getRSAKeyValue())));
+                } catch (KeyException e) {
+                    LOG.debug("Could not parse the RSAKeyValue of the KeyInfo", e);
+                }
+            }
+        }
+
+        for (X509Data x509Data : keyInfo.getX509Datas()) {
+            for (X509Digest digest : x509Data.getX509Digests()) {
+                String algorithm = DIGEST_ALGORITHMS.get(digest.getAlgorithm());
+
+                if (algorithm != null && digest.getValue() != null) {
+                    keys.add(digestKey(algorithm, decode(digest.getValue())));
+                }
+            }
+
+            for (X509IssuerSerial issuerSerial : x509Data.getX509IssuerSerials()) {
+                if (issuerSerial.getX509IssuerName() == null || issuerSerial.getX509SerialNumber() == null) {
+                    continue;
+                }
+
+                try {
+                    X500Principal issuer = new X500Principal(issuerSerial.getX509IssuerName().getValue());
+
+                    keys.add(issuerSerialKey(issuer, issuerSerial.getX509SerialNumber().getValue()));
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    LOG.debug("Could not parse the X509IssuerSerial of the KeyInfo", e);
+                }
+            }
+
+            for (X509SKI ski : x509Data.getX509SKIs()) {
+                if (ski.getValue() != null) {
+                    keys.add(subjectKeyIdentifierKey(decode(ski.getValue())));
+                }
+            }
+        }
+
+        return keys;
+    }
+
+    private static byte[] decode(String base64) {
+        return Base64.getMimeDecoder().decode(base64);
+    }
+
+    private static String publicKeyKey(PublicKey publicKey) {
+        return "key:" + Base64.getEncoder().encodeToString(publicKey.getEncoded());
+    }
+
+    private static String digestKey(String algorithm, byte[] digest) {
+        return "digest:" + algorithm + ":" + HexFormat.of().formatHex(digest);
+    }
+
+    private static String issuerSerialKey(X500Principal issuer, BigInteger serialNumber) {
+        return "issuerSerial:" + issuer.getName(X500Principal.CANONICAL) + ":" + serialNumber;
+    }
+
+    private static String subjectKeyIdentifierKey(byte[] subjectKeyIdentifier) {
+        return "ski:" + HexFormat.of().formatHex(subjectKeyIdentifier);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2.response;
+
+import at.porscheinformatik.idp.saml2.BoundedCache;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nonnull;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialResolver;
+import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.SecurityConfigurationSupport;
+import org.opensaml.xmlsec.SignatureValidationConfiguration;
+import org.opensaml.xmlsec.SignatureValidationParameters;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+
+/**
+ * Caches the {@link SignatureTrustEngine} and the {@link SignatureValidationParameters} built for a set of
+ * verification credentials. The verification credentials only change, when the metadata of the identity provider
+ * changes. So there is no need to build the trust engine for each response.
+ * <p>
+ * The trust engine preselects the credential referenced by the KeyInfo of the signature with an
+ * {@link IndexedKeyInfoCredentialResolver}. Only when the KeyInfo does not reference a known certificate, the trust
+ * engine falls back to trying all trusted credentials. Without the preselection, every credential was tried twice
+ * during a key rollover, once as KeyInfo candidate and once as trusted credential.
+ *
+ * @author Daniel Furtlehner
+ */
+public class SignatureTrustEngineCache {
+
+    private final BoundedCache<List<X509Certificate>, TrustEngineEntry> entries = new BoundedCache<>();
+
+    /**
+     * @param credentials the verification credentials of the asserting party
+     * @return the trust engine and validation parameters for the given credentials
+     */
+    @Nonnull
+    public TrustEngineEntry get(Collection<Saml2X509Credential> credentials) {
+        List<X509Certificate> key = credentials.stream().map(Saml2X509Credential::getCertificate).toList();
+
+        return entries.get(key, entry -> true, TrustEngineEntry::build);
+    }
+
+    /**
+     * Removes all cached trust engines. Call this, when the metadata of the asserting party changed.
+     */
+    public void invalidate() {
+        entries.invalidate();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    public static final class TrustEngineEntry {
+
+        private static TrustEngineEntry build(List<X509Certificate> certificates) {
+            List<Credential> samlCredentials = certificates //
+                .stream()
+                .<Credential>map(BasicX509Credential::new)
+                .toList();
+
+            CredentialResolver resolver = new StaticCredentialResolver(samlCredentials);
+            KeyInfoCredentialResolver keyInfoResolver = new IndexedKeyInfoCredentialResolver(samlCredentials, false);
+
+            return new TrustEngineEntry(
+                new ExplicitKeySignatureTrustEngine(resolver, keyInfoResolver),
+                buildSignatureValidationParameters()
+            );
+        }
+
+        private static SignatureValidationParameters buildSignatureValidationParameters() {
+            SignatureValidationConfiguration validationConfiguration =
+                SecurityConfigurationSupport.getGlobalSignatureValidationConfiguration();
+
+            SignatureValidationParameters params = new SignatureValidationParameters();
+            params.setExcludedAlgorithms(validationConfiguration.getExcludedAlgorithms());
+            params.setIncludedAlgorithms(validationConfiguration.getIncludedAlgorithms());
+
+            return params;
+        }
+
+        private final SignatureTrustEngine trustEngine;
+        private final SignatureValidationParameters validationParameters;
+
+        private TrustEngineEntry(SignatureTrustEngine trustEngine, SignatureValidationParameters validationParameters) {
+            this.trustEngine = trustEngine;
+            this.validationParameters = validationParameters;
+        }
+
+        public SignatureTrustEngine getTrustEngine() {
+            return trustEngine;
+        }
+
+        public SignatureValidationParameters getValidationParameters() {
+            return validationParameters;
+        }
+    }
+}
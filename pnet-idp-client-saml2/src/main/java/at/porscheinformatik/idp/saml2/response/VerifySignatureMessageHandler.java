@@ -3,11 +3,10 @@
  */
 package at.porscheinformatik.idp.saml2.response;
 
+import at.porscheinformatik.idp.saml2.UpdateListener;
+import at.porscheinformatik.idp.saml2.response.SignatureTrustEngineCache.TrustEngineEntry;
 import java.util.Collection;
-import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import javax.annotation.Nonnull;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.handler.MessageHandlerException;
@@ -16,29 +15,29 @@ import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.saml.saml2.core.StatusCode;
 import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
 import org.opensaml.security.SecurityException;
-import org.opensaml.security.credential.Credential;
-import org.opensaml.security.credential.CredentialResolver;
-import org.opensaml.security.credential.impl.StaticCredentialResolver;
-import org.opensaml.security.x509.BasicX509Credential;
-import org.opensaml.xmlsec.SecurityConfigurationSupport;
-import org.opensaml.xmlsec.SignatureValidationConfiguration;
-import org.opensaml.xmlsec.SignatureValidationParameters;
-import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
-import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
 import org.opensaml.xmlsec.signature.support.SignatureException;
-import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
 import org.opensaml.xmlsec.signature.support.SignatureValidationParametersCriterion;
-import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
 import org.springframework.security.saml2.core.Saml2X509Credential;
 
 /**
  * @author Daniel Furtlehner
  */
-public class VerifySignatureMessageHandler extends AbstractSimpleMessageHandler {
+public class VerifySignatureMessageHandler extends AbstractSimpleMessageHandler implements UpdateListener {
 
     private static final SAMLSignatureProfileValidator SIGNATURE_PROFILE_VALIDATOR =
         new SAMLSignatureProfileValidator();
 
+    private final SignatureTrustEngineCache trustEngineCache;
+
+    public VerifySignatureMessageHandler() {
+        this(new SignatureTrustEngineCache());
+    }
+
+    public VerifySignatureMessageHandler(SignatureTrustEngineCache trustEngineCache) {
+        super();
+        this.trustEngineCache = Objects.requireNonNull(trustEngineCache, "trustEngineCache must not be null");
+    }
+
     @Override
     public void invoke(MessageContext messageContext) throws MessageHandlerException {
         Response response = getResponse(messageContext);
@@ -86,13 +85,13 @@ public class VerifySignatureMessageHandler extends AbstractSimpleMessageHandler
         throws SignatureException {
         SIGNATURE_PROFILE_VALIDATOR.validate(signable.getSignature());
 
-        SignatureTrustEngine trustEngine = buildTrustEngine(credentials);
+        TrustEngineEntry trustEngineEntry = trustEngineCache.get(credentials);
 
         CriteriaSet trustBasisCriteria = new CriteriaSet();
-        trustBasisCriteria.add(new SignatureValidationParametersCriterion(buildSignatureValidationParameters()));
+        trustBasisCriteria.add(new SignatureValidationParametersCriterion(trustEngineEntry.getValidationParameters()));
 
         try {
-            if (!trustEngine.validate(signable.getSignature(), trustBasisCriteria)) {
+            if (!trustEngineEntry.getTrustEngine().validate(signable.getSignature(), trustBasisCriteria)) {
                 throw new SignatureException("Failed to validate signature with all available certificates.");
             }
         } catch (SecurityException e) {
@@ -100,28 +99,15 @@ public class VerifySignatureMessageHandler extends AbstractSimpleMessageHandler
         }
     }
 
-    @Nonnull
-    private SignatureTrustEngine buildTrustEngine(Collection<Saml2X509Credential> credentials) {
-        List<Credential> samlCredentials = credentials //
-            .stream()
-            .map(key -> new BasicX509Credential(key.getCertificate()))
-            .collect(Collectors.toList());
-
-        CredentialResolver resolver = new StaticCredentialResolver(samlCredentials);
-        KeyInfoCredentialResolver keyInfoResolver = new StaticKeyInfoCredentialResolver(samlCredentials);
-
-        return new ExplicitKeySignatureTrustEngine(resolver, keyInfoResolver);
+    /**
+     * The verification credentials of the asserting party changed. Drop the trust engines built for the old ones.
+     */
+    @Override
+    public void onUpdate() {
+        trustEngineCache.invalidate();
     }
 
-    @Nonnull
-    private SignatureValidationParameters buildSignatureValidationParameters() {
-        SignatureValidationConfiguration validationConfiguration =
-            SecurityConfigurationSupport.getGlobalSignatureValidationConfiguration();
-
-        SignatureValidationParameters params = new SignatureValidationParameters();
-        params.setExcludedAlgorithms(validationConfiguration.getExcludedAlgorithms());
-        params.setIncludedAlgorithms(validationConfiguration.getIncludedAlgorithms());
-
-        return params;
+    public SignatureTrustEngineCache getTrustEngineCache() {
+        return trustEngineCache;
     }
 }
@@ -0,0 +1,46 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+    @Test
+    void rebuildsInvalidValues() {
+        BoundedCache<String, String> cache = new BoundedCache<>();
+
+        assertThat(cache.get("a", value -> true, key -> key + "1"), equalTo("a1"));
+        assertThat(cache.get("a", value -> true, key -> key + "2"), equalTo("a1"));
+        assertThat(cache.get("a", value -> false, key -> key + "3"), equalTo("a3"));
+        assertThat(cache.get("b", value -> true, key -> null), nullValue());
+        assertThat(cache.get("b", value -> true, key -> key + "4"), equalTo("b4"));
+
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(4L));
+    }
+
+    @Test
+    void clearsWhenFull() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>();
+
+        for (int i = 0; i < BoundedCache.MAX_ENTRIES; i++) {
+            cache.get(i, value -> true, String::valueOf);
+        }
+
+        assertThat(cache.get(0, value -> true, key -> "new"), equalTo("0"));
+        assertThat(cache.get(BoundedCache.MAX_ENTRIES, value -> true, String::valueOf), equalTo("64"));
+        assertThat(cache.get(0, value -> true, key -> "new"), equalTo("new"));
+    }
+
+    @Test
+    void invalidates() {
+        BoundedCache<String, String> cache = new BoundedCache<>();
+
+        cache.get("a", value -> true, key -> "old");
+        cache.invalidate();
+
+        assertThat(cache.get("a", value -> true, key -> "new"), equalTo("new"));
+    }
+}
@@ -0,0 +1,77 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistrationRepository;
+
+class CachingRelyingPartyRegistrationResolverTest {
+
+    private static final String IDP_ENTITY_ID = "https://identity.com/identity/saml2";
+
+    private RelyingPartyRegistration registration = registration();
+
+    private final RelyingPartyRegistrationRepository repository = registrationId ->
+        "pnet".equals(registrationId) ? registration : null;
+    private final CachingRelyingPartyRegistrationResolver resolver = new CachingRelyingPartyRegistrationResolver(
+        repository
+    );
+
+    @Test
+    void resolvesPlaceholdersOncePerBaseUrl() {
+        RelyingPartyRegistration first = resolver.resolve(request("service.com"), "pnet");
+        RelyingPartyRegistration second = resolver.resolve(request("service.com"), "pnet");
+        RelyingPartyRegistration other = resolver.resolve(request("other.com"), "pnet");
+
+        assertThat(first.getEntityId(), equalTo("https://service.com/saml2/pnet"));
+        assertThat(second, sameInstance(first));
+        assertThat(other.getEntityId(), equalTo("https://other.com/saml2/pnet"));
+        assertThat(resolver.getHitCount(), equalTo(1L));
+        assertThat(resolver.getMissCount(), equalTo(2L));
+    }
+
+    @Test
+    void resolvesAgainWhenRegistrationChanges() {
+        RelyingPartyRegistration first = resolver.resolve(request("service.com"), "pnet");
+
+        registration = registration();
+
+        assertThat(resolver.resolve(request("service.com"), "pnet"), not(sameInstance(first)));
+    }
+
+    @Test
+    void resolvesAgainAfterInvalidation() {
+        RelyingPartyRegistration first = resolver.resolve(request("service.com"), "pnet");
+
+        resolver.onUpdate();
+
+        assertThat(resolver.resolve(request("service.com"), "pnet"), not(sameInstance(first)));
+    }
+
+    @Test
+    void returnsNullForUnknownRegistration() {
+        assertThat(resolver.resolve(request("service.com"), "unknown"), nullValue());
+    }
+
+    private static MockHttpServletRequest request(String host) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/saml2/pnet");
+        request.setScheme("https");
+        request.setServerName(host);
+        request.setServerPort(443);
+
+        return request;
+    }
+
+    private static RelyingPartyRegistration registration() {
+        return RelyingPartyRegistration.withRegistrationId("pnet")
+            .entityId("{baseUrl}/saml2/{registrationId}")
+            .assertionConsumerServiceLocation("{baseUrl}/saml2/sso/post/{registrationId}")
+            .assertingPartyMetadata(builder ->
+                builder.entityId(IDP_ENTITY_ID).singleSignOnServiceLocation(IDP_ENTITY_ID + "/authorize")
+            )
+            .build();
+    }
+}
@@ -0,0 +1,61 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import at.porscheinformatik.idp.saml2.response.DecryptAssertionsMessageHandler;
+import at.porscheinformatik.idp.saml2.response.DecrypterFactory;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
+
+class DecrypterFactoryTest {
+
+    private static final String SP_ENTITY_ID = "https://service.com/service/saml2/pnet";
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    @Test
+    void reusesResolversForSameCredentials() throws Exception {
+        DecrypterFactory factory = new DecrypterFactory();
+        List<Saml2X509Credential> credentials = decryptionCredentials();
+
+        factory.getDecrypter(SP_ENTITY_ID, credentials);
+        factory.getDecrypter(SP_ENTITY_ID, credentials);
+
+        assertThat(factory.getMissCount(), equalTo(1L));
+        assertThat(factory.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    void rebuildsResolversForChangedCredentials() throws Exception {
+        DecrypterFactory factory = new DecrypterFactory();
+
+        factory.getDecrypter(SP_ENTITY_ID, decryptionCredentials());
+        factory.getDecrypter(SP_ENTITY_ID, List.of());
+
+        assertThat(factory.getMissCount(), equalTo(2L));
+        assertThat(factory.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    void rebuildsResolversOnUpdate() throws Exception {
+        DecryptAssertionsMessageHandler handler = new DecryptAssertionsMessageHandler();
+        DecrypterFactory factory = handler.getDecrypterFactory();
+        List<Saml2X509Credential> credentials = decryptionCredentials();
+
+        factory.getDecrypter(SP_ENTITY_ID, credentials);
+        handler.onUpdate();
+        factory.getDecrypter(SP_ENTITY_ID, credentials);
+
+        assertThat(factory.getMissCount(), equalTo(2L));
+        assertThat(factory.getHitCount(), equalTo(0L));
+    }
+
+    private List<Saml2X509Credential> decryptionCredentials() throws Exception {
+        return Saml2TestUtils.defaultCredentialsManager().getCredentials(Saml2X509CredentialType.DECRYPTION);
+    }
+}
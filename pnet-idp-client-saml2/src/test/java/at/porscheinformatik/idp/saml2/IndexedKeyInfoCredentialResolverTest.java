@@ -0,0 +1,103 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import at.porscheinformatik.idp.saml2.response.IndexedKeyInfoCredentialResolver;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.stream.StreamSupport;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
+
+class IndexedKeyInfoCredentialResolverTest {
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    @Test
+    void matchesByDigest() throws Exception {
+        Saml2X509Credential decryptionCredential = decryptionCredential();
+        IndexedKeyInfoCredentialResolver resolver = resolver(decryptionCredential, false);
+
+        X509Data x509Data = XMLObjectSupport.buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
+        x509Data
+            .getX509Digests()
+            .add(
+                KeyInfoSupport.buildX509Digest(
+                    decryptionCredential.getCertificate(),
+                    SignatureConstants.ALGO_ID_DIGEST_SHA256
+                )
+            );
+
+        List<Credential> result = resolve(resolver, keyInfo(x509Data));
+
+        assertThat(result, hasSize(1));
+        assertThat(result.get(0).getPublicKey(), equalTo(decryptionCredential.getCertificate().getPublicKey()));
+    }
+
+    @Test
+    void matchesByIssuerSerial() throws Exception {
+        Saml2X509Credential decryptionCredential = decryptionCredential();
+        X509Certificate certificate = decryptionCredential.getCertificate();
+        IndexedKeyInfoCredentialResolver resolver = resolver(decryptionCredential, false);
+
+        X509Data x509Data = XMLObjectSupport.buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
+        x509Data
+            .getX509IssuerSerials()
+            .add(
+                KeyInfoSupport.buildX509IssuerSerial(
+                    certificate.getIssuerX500Principal().getName(),
+                    certificate.getSerialNumber()
+                )
+            );
+
+        assertThat(resolve(resolver, keyInfo(x509Data)), hasSize(1));
+    }
+
+    @Test
+    void fallsBackToAllCredentialsWithoutMatch() throws Exception {
+        Saml2X509Credential decryptionCredential = decryptionCredential();
+        KeyInfo emptyKeyInfo = keyInfo(XMLObjectSupport.buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME));
+
+        assertThat(resolve(resolver(decryptionCredential, false), emptyKeyInfo), empty());
+        assertThat(resolve(resolver(decryptionCredential, true), emptyKeyInfo), hasSize(1));
+    }
+
+    private IndexedKeyInfoCredentialResolver resolver(Saml2X509Credential credential, boolean fallbackToAll) {
+        Credential samlCredential = CredentialSupport.getSimpleCredential(
+            credential.getCertificate(),
+            credential.getPrivateKey()
+        );
+
+        return new IndexedKeyInfoCredentialResolver(List.of(samlCredential), fallbackToAll);
+    }
+
+    private List<Credential> resolve(IndexedKeyInfoCredentialResolver resolver, KeyInfo keyInfo) throws Exception {
+        Iterable<Credential> result = resolver.resolve(new CriteriaSet(new KeyInfoCriterion(keyInfo)));
+
+        return StreamSupport.stream(result.spliterator(), false).toList();
+    }
+
+    private KeyInfo keyInfo(X509Data x509Data) {
+        KeyInfo keyInfo = XMLObjectSupport.buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+        keyInfo.getX509Datas().add(x509Data);
+
+        return keyInfo;
+    }
+
+    private Saml2X509Credential decryptionCredential() throws Exception {
+        return Saml2TestUtils.defaultCredentialsManager().getCredentials(Saml2X509CredentialType.DECRYPTION).get(0);
+    }
+}
@@ -0,0 +1,65 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.saml2.core.Response;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationToken;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+
+class PartnerNetSamlAuthenticationProviderTest {
+
+    private static final String IDP_ENTITY_ID = "https://identity.com/identity/saml2";
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    @Test
+    void parsesResponseOfToken() throws Exception {
+        Response original = Saml2ObjectUtils.response(IDP_ENTITY_ID, null, null);
+        Response other = Saml2ObjectUtils.response(IDP_ENTITY_ID, null, null);
+        String serializedResponse = XmlUtils.marshall(original);
+
+        // A custom token converter may decode the response differently, the token is what counts
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/saml2/sso/post/pnet");
+        request.addParameter(
+            "SAMLResponse",
+            Base64.getMimeEncoder().encodeToString(XmlUtils.marshall(other).getBytes(StandardCharsets.UTF_8))
+        );
+
+        AtomicReference<Response> parsed = new AtomicReference<>();
+        PartnerNetSamlAuthenticationProvider provider = new PartnerNetSamlAuthenticationProvider(
+            new Saml2ResponseProcessor(List.of()),
+            (response, relayState) -> {
+                parsed.set(response);
+
+                return null;
+            }
+        );
+
+        provider.authenticate(token(serializedResponse, request));
+
+        assertThat(parsed.get().getID(), equalTo(original.getID()));
+    }
+
+    private Saml2AuthenticationToken token(String serializedResponse, MockHttpServletRequest request) {
+        RelyingPartyRegistration registration = RelyingPartyRegistration.withRegistrationId("pnet")
+            .entityId("https://service.com/service/saml2/pnet")
+            .assertingPartyMetadata(builder ->
+                builder.entityId(IDP_ENTITY_ID).singleSignOnServiceLocation(IDP_ENTITY_ID + "/authorize")
+            )
+            .build();
+        Saml2AuthenticationToken token = new Saml2AuthenticationToken(registration, serializedResponse);
+        token.setDetails(new HttpRequestContext(request));
+
+        return token;
+    }
+}
@@ -0,0 +1,113 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PooledHttpClientFactoryTest {
+
+    private final List<Integer> remotePorts = new ArrayList<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/metadata", exchange -> {
+            byte[] body = "metadata".getBytes(StandardCharsets.UTF_8);
+
+            synchronized (remotePorts) {
+                remotePorts.add(exchange.getRemoteAddress().getPort());
+            }
+
+            requestCount.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void sharesClient() throws Exception {
+        try (PooledHttpClientFactory factory = new PooledHttpClientFactory(4, 2)) {
+            assertThat(factory.newClient(), sameInstance(factory.newClient()));
+            assertThat(factory.getMaxConnections(), equalTo(4));
+            assertThat(factory.getMaxConnectionsPerRoute(), equalTo(2));
+        }
+    }
+
+    @Test
+    void reusesConnections() throws Exception {
+        try (PooledHttpClientFactory factory = new PooledHttpClientFactory()) {
+            HttpClient client = factory.newClient();
+
+            assertThat(get(client), equalTo("metadata"));
+            assertThat(get(factory.newClient()), equalTo("metadata"));
+
+            assertThat(remotePorts, hasSize(2));
+            assertThat(remotePorts.get(1), equalTo(remotePorts.get(0)));
+            assertThat(factory.getLeasedConnectionCount(), equalTo(0));
+            assertThat(factory.getAvailableConnectionCount(), equalTo(1));
+            assertThat(factory.getPendingRequestCount(), equalTo(0));
+        }
+    }
+
+    @Test
+    void observesRequests() throws Exception {
+        RecordingObservationHandler handler = new RecordingObservationHandler();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(handler);
+
+        try (PooledHttpClientFactory factory = new PooledHttpClientFactory()) {
+            factory.setObservationRegistry(registry);
+
+            get(factory.newClient());
+        }
+
+        assertThat(handler.stopped, contains(PooledHttpClientFactory.REQUEST_OBSERVATION_NAME + " 200"));
+        assertThat(requestCount.get(), equalTo(1));
+    }
+
+    private String get(HttpClient client) throws Exception {
+        HttpGet request = new HttpGet("http://localhost:" + server.getAddress().getPort() + "/metadata");
+
+        return client.execute(request, response -> EntityUtils.toString(response.getEntity()));
+    }
+
+    private static final class RecordingObservationHandler implements ObservationHandler<Observation.Context> {
+
+        private final List<String> stopped = new ArrayList<>();
+
+        @Override
+        public void onStop(Observation.Context context) {
+            stopped.add(context.getName() + " " + context.getLowCardinalityKeyValue("status").getValue());
+        }
+
+        @Override
+        public boolean supportsContext(Observation.Context context) {
+            return true;
+        }
+    }
+}
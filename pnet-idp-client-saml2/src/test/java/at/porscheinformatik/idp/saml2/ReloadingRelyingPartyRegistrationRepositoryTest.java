@@ -2,13 +2,26 @@ package at.porscheinformatik.idp.saml2;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.cert.CertificateEncodingException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.saml2.Saml2Exception;
 import org.springframework.security.saml2.core.Saml2X509Credential;
 import org.springframework.security.saml2.provider.service.registration.AssertingPartyMetadata;
 import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
@@ -87,6 +100,96 @@ class ReloadingRelyingPartyRegistrationRepositoryTest {
         );
     }
 
+    @Test
+    void failedBootstrapIsRetried() throws Exception {
+        ReloadingRelyingPartyRegistrationRepository repository = buildRepository(
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            new TestClientFactory("saml2_metadata.xml", "https://unavailable.auto-partner.net/identity/saml2")
+        );
+
+        CompletableFuture<RelyingPartyRegistration> bootstrap = repository.initializeAsync();
+
+        assertThrows(CompletionException.class, bootstrap::join);
+        assertThat(repository.isReady(), equalTo(false));
+        assertThat(repository.initializeAsync(), not(sameInstance(bootstrap)));
+        assertThrows(Saml2Exception.class, () -> repository.findByRegistrationId("rpId"));
+    }
+
+    @Test
+    void loadsValidBackupFile(@TempDir Path directory) throws Exception {
+        Path backupFile = directory.resolve("metadata.xml");
+        Files.writeString(backupFile, backupMetadata(ZonedDateTime.now(ZoneId.of("Z")).plusDays(6)));
+
+        ReloadingRelyingPartyRegistrationRepository repository = buildRepository(
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            new TestClientFactory("saml2_metadata.xml", "https://unavailable.auto-partner.net/identity/saml2")
+        );
+        repository.setBackupFile(backupFile);
+
+        // The backup file is loaded synchronously
+        CompletableFuture<RelyingPartyRegistration> bootstrap = repository.initializeAsync();
+
+        assertThat(bootstrap.isDone(), equalTo(true));
+        assertThat(repository.isReady(), equalTo(true));
+        assertThat(
+            repository.findByRegistrationId("rpId").getAssertingPartyMetadata().getEntityId(),
+            equalTo("https://qa-identity.auto-partner.net/identity/saml2")
+        );
+    }
+
+    @Test
+    void ignoresExpiredBackupFile(@TempDir Path directory) throws Exception {
+        Path backupFile = directory.resolve("metadata.xml");
+        Files.writeString(backupFile, backupMetadata(ZonedDateTime.now(ZoneId.of("Z")).minusDays(1)));
+
+        ReloadingRelyingPartyRegistrationRepository repository = buildRepository(
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            "https://qa-identity.auto-partner.net/identity/saml2",
+            new TestClientFactory("saml2_metadata.xml", "https://unavailable.auto-partner.net/identity/saml2")
+        );
+        repository.setBackupFile(backupFile);
+
+        assertThrows(CompletionException.class, repository.initializeAsync()::join);
+        assertThat(repository.isReady(), equalTo(false));
+    }
+
+    @Test
+    void keepsRegistrationWhenMetadataIsNotModified() throws Exception {
+        assertRefreshKeepsRegistration(true);
+    }
+
+    @Test
+    void keepsRegistrationWhenMetadataIsUnchanged() throws Exception {
+        assertRefreshKeepsRegistration(false);
+    }
+
+    private void assertRefreshKeepsRegistration(boolean conditional) throws Exception {
+        String metadataUrl = "https://qa-identity.auto-partner.net/identity/saml2";
+        TestClientFactory clientFactory = new TestClientFactory("saml2_metadata.xml", metadataUrl, conditional);
+        ReloadingRelyingPartyRegistrationRepository repository = buildRepository(metadataUrl, metadataUrl, clientFactory);
+        AtomicInteger updates = new AtomicInteger();
+
+        RelyingPartyRegistration registration = repository.initializeAsync().join();
+        repository.onUpdate(updates::incrementAndGet);
+
+        repository.refresh();
+
+        assertThat(clientFactory.getRequestCount(), equalTo(2));
+        assertThat(updates.get(), equalTo(0));
+        assertThat(repository.findByRegistrationId("rpId"), sameInstance(registration));
+    }
+
+    private String backupMetadata(ZonedDateTime validUntil) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("saml2_metadata.xml")) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace(
+                "${validUntil}",
+                validUntil.format(DateTimeFormatter.ISO_DATE_TIME)
+            );
+        }
+    }
+
     private String firstCertificateAsString(Collection<Saml2X509Credential> credentials)
         throws CertificateEncodingException {
         Saml2X509Credential credential = credentials.iterator().next();
@@ -98,6 +201,14 @@ class ReloadingRelyingPartyRegistrationRepositoryTest {
         String entityId,
         String metadataUrl,
         String metadataFile
+    ) throws Exception {
+        return buildRepository(entityId, metadataUrl, new TestClientFactory(metadataFile, metadataUrl));
+    }
+
+    private ReloadingRelyingPartyRegistrationRepository buildRepository(
+        String entityId,
+        String metadataUrl,
+        HttpClientFactory clientFactory
     ) throws Exception {
         Saml2CredentialsManager credentialsManager = Saml2TestUtils.defaultCredentialsManager();
         return new ReloadingRelyingPartyRegistrationRepository(
@@ -105,7 +216,7 @@ class ReloadingRelyingPartyRegistrationRepositoryTest {
             entityId,
             metadataUrl,
             credentialsManager,
-            new TestClientFactory(metadataFile, metadataUrl),
+            clientFactory,
             "/saml2/sso/post/{registrationId}",
             "/saml2/{registrationId}"
         );
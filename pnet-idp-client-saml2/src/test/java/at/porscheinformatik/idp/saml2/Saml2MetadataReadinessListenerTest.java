@@ -0,0 +1,121 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ApplicationAvailabilityBean;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.support.GenericApplicationContext;
+
+class Saml2MetadataReadinessListenerTest {
+
+    private final List<Object> states = new CopyOnWriteArrayList<>();
+    private final ApplicationEventPublisher publisher = event ->
+        states.add(((AvailabilityChangeEvent<?>) event).getState());
+
+    @Test
+    void refusesTrafficUntilLoaded() {
+        CompletableFuture<Object> bootstrap = new CompletableFuture<>();
+        Saml2MetadataReadinessListener listener = new Saml2MetadataReadinessListener(
+            publisher,
+            bootstrap,
+            Duration.ofMinutes(1)
+        );
+
+        listener.onApplicationEvent(ready());
+        listener.onApplicationEvent(ready());
+
+        assertThat(states, contains(ReadinessState.REFUSING_TRAFFIC));
+
+        bootstrap.complete("registration");
+
+        assertThat(states, contains(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC));
+    }
+
+    @Test
+    void acceptsTrafficAfterTimeout() throws Exception {
+        CompletableFuture<Object> bootstrap = new CompletableFuture<>();
+        Saml2MetadataReadinessListener listener = new Saml2MetadataReadinessListener(
+            publisher,
+            bootstrap,
+            Duration.ofMillis(10)
+        );
+
+        listener.onApplicationEvent(ready());
+
+        for (int i = 0; i < 100 && states.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(states, contains(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC));
+        assertThat(bootstrap.isDone(), is(false));
+    }
+
+    @Test
+    void ignoresLoadedMetadata() {
+        Saml2MetadataReadinessListener listener = new Saml2MetadataReadinessListener(
+            publisher,
+            CompletableFuture.completedFuture("registration"),
+            Duration.ofMinutes(1)
+        );
+
+        listener.onApplicationEvent(ready());
+
+        assertThat(states, empty());
+    }
+
+    @Test
+    void refusesTrafficOfTheContextUntilLoaded() {
+        CompletableFuture<Object> bootstrap = new CompletableFuture<>();
+
+        try (GenericApplicationContext context = new GenericApplicationContext()) {
+            // Registered before the availability, like the configurer does while the context is refreshed
+            Saml2MetadataReadinessListener.register(context, bootstrap, Duration.ofMinutes(1));
+            context.registerBean(ApplicationAvailabilityBean.class);
+            context.refresh();
+
+            ApplicationAvailability availability = context.getBean(ApplicationAvailability.class);
+
+            // Published by Spring Boot, when the application is ready
+            AvailabilityChangeEvent.publish(context, ReadinessState.ACCEPTING_TRAFFIC);
+
+            assertThat(availability.getReadinessState(), equalTo(ReadinessState.REFUSING_TRAFFIC));
+
+            bootstrap.complete("registration");
+
+            assertThat(availability.getReadinessState(), equalTo(ReadinessState.ACCEPTING_TRAFFIC));
+        }
+    }
+
+    @Test
+    void acceptsTrafficOfTheContextWithLoadedMetadata() {
+        try (GenericApplicationContext context = new GenericApplicationContext()) {
+            Saml2MetadataReadinessListener.register(
+                context,
+                CompletableFuture.completedFuture("registration"),
+                Duration.ofMinutes(1)
+            );
+            context.registerBean(ApplicationAvailabilityBean.class);
+            context.refresh();
+
+            AvailabilityChangeEvent.publish(context, ReadinessState.ACCEPTING_TRAFFIC);
+
+            assertThat(
+                context.getBean(ApplicationAvailability.class).getReadinessState(),
+                equalTo(ReadinessState.ACCEPTING_TRAFFIC)
+            );
+        }
+    }
+
+    private static AvailabilityChangeEvent<ReadinessState> ready() {
+        return new AvailabilityChangeEvent<>(new Object(), ReadinessState.ACCEPTING_TRAFFIC);
+    }
+}
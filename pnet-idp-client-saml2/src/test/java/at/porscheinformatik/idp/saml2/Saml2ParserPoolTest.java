@@ -0,0 +1,102 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import net.shibboleth.shared.xml.XMLParserException;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+class Saml2ParserPoolTest {
+
+    @Test
+    void prefillsBuilders() {
+        Saml2ParserPool pool = new Saml2ParserPool(8, 3);
+
+        assertThat(pool.getIdleBuilderCount(), equalTo(3));
+        assertThat(new Saml2ParserPool(2, 10).getIdleBuilderCount(), equalTo(2));
+    }
+
+    @Test
+    void parsesDocument() throws Exception {
+        Saml2ParserPool pool = new Saml2ParserPool(8, 1);
+
+        Document document = pool.parse(new StringReader("<a xmlns=\"urn:test\"><b/></a>"));
+
+        assertThat(document.getDocumentElement().getNamespaceURI(), equalTo("urn:test"));
+        assertThat(pool.getBorrowCount(), equalTo(1L));
+        assertThat(pool.getExhaustedCount(), equalTo(0L));
+        assertThat(pool.getIdleBuilderCount(), equalTo(1));
+    }
+
+    @Test
+    void rejectsDoctype() {
+        Saml2ParserPool pool = new Saml2ParserPool();
+
+        assertThrows(XMLParserException.class, () ->
+            pool.parse(new StringReader("<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY x \"y\">]><a>&x;</a>"))
+        );
+    }
+
+    @Test
+    void countsExhaustion() throws Exception {
+        Saml2ParserPool pool = new Saml2ParserPool(8, 1);
+
+        DocumentBuilder first = pool.getBuilder();
+        DocumentBuilder second = pool.getBuilder();
+
+        assertThat(pool.getExhaustedCount(), equalTo(1L));
+
+        pool.returnBuilder(first);
+        pool.returnBuilder(second);
+
+        assertThat(pool.getIdleBuilderCount(), equalTo(2));
+    }
+
+    @Test
+    void observesBorrowAndParse() throws Exception {
+        RecordingObservationHandler handler = new RecordingObservationHandler();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(handler);
+
+        Saml2ParserPool pool = new Saml2ParserPool(8, 0);
+        pool.setObservationRegistry(registry);
+
+        pool.parse(new StringReader("<a/>"));
+
+        assertThat(
+            handler.stopped,
+            contains(Saml2ParserPool.BORROW_OBSERVATION_NAME, Saml2ParserPool.PARSE_OBSERVATION_NAME)
+        );
+        assertThat(handler.events, contains(Saml2ParserPool.EXHAUSTED_EVENT_NAME));
+    }
+
+    private static final class RecordingObservationHandler implements ObservationHandler<Observation.Context> {
+
+        private final List<String> stopped = new ArrayList<>();
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(Observation.Event event, Observation.Context context) {
+            events.add(event.getName());
+        }
+
+        @Override
+        public void onStop(Observation.Context context) {
+            stopped.add(context.getName());
+        }
+
+        @Override
+        public boolean supportsContext(Observation.Context context) {
+            return true;
+        }
+    }
+}
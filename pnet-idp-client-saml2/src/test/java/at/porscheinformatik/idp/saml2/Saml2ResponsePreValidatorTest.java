@@ -0,0 +1,121 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.saml2.core.Response;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.saml2.core.Saml2ErrorCodes;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationException;
+import org.springframework.security.saml2.provider.service.authentication.Saml2AuthenticationToken;
+import org.springframework.security.saml2.provider.service.registration.RelyingPartyRegistration;
+
+class Saml2ResponsePreValidatorTest {
+
+    private static final String IDP_ENTITY_ID = "https://identity.com/identity/saml2";
+    private static final String SP_ENTITY_ID = "https://service.com/service/saml2/pnet";
+    private static final String RESPONSE_DESTINATION = SP_ENTITY_ID + "/sso/post/pnet";
+    private static final String AUTHN_REQUEST_ID = "XYZ";
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    private final Saml2ResponsePreValidator validator = new Saml2ResponsePreValidator();
+
+    @Test
+    void acceptsValidResponse() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, AUTHN_REQUEST_ID);
+
+        assertDoesNotThrow(() -> validator.validate(token(XmlUtils.marshall(response))));
+    }
+
+    @Test
+    void rejectsForeignIssuer() throws Exception {
+        Response response = Saml2ObjectUtils.response(
+            "https://unkown.com/identity/saml2",
+            RESPONSE_DESTINATION,
+            AUTHN_REQUEST_ID
+        );
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.INVALID_ISSUER);
+    }
+
+    @Test
+    void rejectsWrongDestination() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, SP_ENTITY_ID + "/other", AUTHN_REQUEST_ID);
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.INVALID_DESTINATION);
+    }
+
+    @Test
+    void rejectsWrongInResponseTo() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, "ABC");
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.INVALID_IN_RESPONSE_TO);
+    }
+
+    @Test
+    void rejectsStaleResponse() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, AUTHN_REQUEST_ID);
+        response.setIssueInstant(Instant.now().minus(Duration.ofHours(1)));
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.INVALID_RESPONSE);
+    }
+
+    @Test
+    void rejectsOversizedResponse() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, AUTHN_REQUEST_ID);
+        validator.setMaxResponseLength(64);
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.MALFORMED_RESPONSE_DATA);
+    }
+
+    @Test
+    void rejectsTooDeepResponse() throws Exception {
+        Response response = Saml2ObjectUtils.response(IDP_ENTITY_ID, RESPONSE_DESTINATION, AUTHN_REQUEST_ID);
+        validator.setMaxDepth(1);
+
+        assertRejected(XmlUtils.marshall(response), Saml2ErrorCodes.MALFORMED_RESPONSE_DATA);
+    }
+
+    @Test
+    void rejectsGarbage() {
+        assertRejected("<samlp:Response", Saml2ErrorCodes.MALFORMED_RESPONSE_DATA);
+        assertRejected("<?xml version=\"1.0\"?><!DOCTYPE a><a/>", Saml2ErrorCodes.MALFORMED_RESPONSE_DATA);
+        assertRejected("<a/>", Saml2ErrorCodes.MALFORMED_RESPONSE_DATA);
+    }
+
+    private void assertRejected(String serializedResponse, String errorCode) {
+        Saml2AuthenticationException exception = assertThrows(Saml2AuthenticationException.class, () ->
+            validator.validate(token(serializedResponse))
+        );
+
+        assertThat(exception.getSaml2Error().getErrorCode(), equalTo(errorCode));
+    }
+
+    private Saml2AuthenticationToken token(String serializedResponse) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/service/saml2/pnet/sso/post/pnet");
+        request.setScheme("https");
+        request.setServerName("service.com");
+        request.setServerPort(443);
+
+        Saml2Utils.storeAuthnRequestId(request, AUTHN_REQUEST_ID);
+
+        RelyingPartyRegistration registration = RelyingPartyRegistration.withRegistrationId("pnet")
+            .entityId(SP_ENTITY_ID)
+            .assertingPartyMetadata(builder ->
+                builder.entityId(IDP_ENTITY_ID).singleSignOnServiceLocation(IDP_ENTITY_ID + "/authorize")
+            )
+            .build();
+        Saml2AuthenticationToken token = new Saml2AuthenticationToken(registration, serializedResponse);
+        token.setDetails(new HttpRequestContext(request));
+
+        return token;
+    }
+}
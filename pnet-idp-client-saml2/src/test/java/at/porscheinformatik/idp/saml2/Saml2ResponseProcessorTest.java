@@ -12,12 +12,17 @@ import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import at.porscheinformatik.idp.saml2.HttpRequestContextAwareSaml2AuthenticationDetailsSource.HttpRequestContext;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.apache.commons.codec.binary.Base64;
@@ -457,6 +462,51 @@ class Saml2ResponseProcessorTest {
         processor.process(tokenAndResponse.getToken(), tokenAndResponse.getResponse());
     }
 
+    @Test
+    void observesPipelineAndHandlers() throws Exception {
+        TokenAndResponse tokenAndResponse = buildTokenAndResponse(true, false, false, false, 2, null, null);
+        RecordingObservationHandler observationHandler = new RecordingObservationHandler();
+
+        Saml2ResponseProcessor processor = Saml2ResponseProcessor.withDefaultHandlers();
+        processor.setObservationRegistry(observationRegistry(observationHandler));
+        processor.initialize();
+
+        processor.process(tokenAndResponse.getToken(), tokenAndResponse.getResponse());
+
+        List<Observation.Context> stopped = observationHandler.stopped;
+        Observation.Context pipeline = stopped.get(stopped.size() - 1);
+
+        // The 14 default handlers and the pipeline
+        assertThat(stopped, hasSize(15));
+        assertThat(pipeline.getName(), equalTo(Saml2ResponseProcessor.OBSERVATION_NAME));
+        assertThat(pipeline.getLowCardinalityKeyValue("registration.id").getValue(), equalTo("pnet"));
+        assertThat(pipeline.getLowCardinalityKeyValue("binding").getValue(), equalTo("POST"));
+        assertThat(
+            stopped.get(0).getLowCardinalityKeyValue("handler").getValue(),
+            equalTo("MessageLifetimeSecurityHandler")
+        );
+        assertThat(observationHandler.events, empty());
+    }
+
+    @Test
+    void observesRejectingHandler() throws Exception {
+        TokenAndResponse tokenAndResponse = buildTokenAndResponse(noIssuer());
+        RecordingObservationHandler observationHandler = new RecordingObservationHandler();
+
+        Saml2ResponseProcessor processor = Saml2ResponseProcessor.withDefaultHandlers();
+        processor.setObservationRegistry(observationRegistry(observationHandler));
+        processor.initialize();
+
+        assertThrows(MessageHandlerException.class, () ->
+            processor.process(tokenAndResponse.getToken(), tokenAndResponse.getResponse())
+        );
+
+        List<Observation.Context> stopped = observationHandler.stopped;
+
+        assertThat(observationHandler.events, contains("CheckIssuerMessageHandler:rejected"));
+        assertThat(stopped.get(stopped.size() - 1).getError(), instanceOf(MessageHandlerException.class));
+    }
+
     @Test
     void failsOnMissingResponseRelayState() throws Exception {
         TokenAndResponse tokenAndResponse = buildTokenAndResponse(
@@ -718,6 +768,34 @@ class Saml2ResponseProcessorTest {
             .build();
     }
 
+    private ObservationRegistry observationRegistry(ObservationHandler<Observation.Context> handler) {
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(handler);
+
+        return registry;
+    }
+
+    private static final class RecordingObservationHandler implements ObservationHandler<Observation.Context> {
+
+        private final List<Observation.Context> stopped = new ArrayList<>();
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(Observation.Event event, Observation.Context context) {
+            events.add(context.getLowCardinalityKeyValue("handler").getValue() + ":" + event.getName());
+        }
+
+        @Override
+        public void onStop(Observation.Context context) {
+            stopped.add(context);
+        }
+
+        @Override
+        public boolean supportsContext(Observation.Context context) {
+            return true;
+        }
+    }
+
     private static final class TokenAndResponse {
 
         private final Saml2AuthenticationToken token;
@@ -12,8 +12,11 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.Test;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.schema.XSString;
@@ -31,6 +34,8 @@ import org.opensaml.security.credential.UsageType;
 import org.opensaml.xmlsec.encryption.support.EncryptionConstants;
 import org.opensaml.xmlsec.signature.X509Data;
 import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
@@ -149,6 +154,53 @@ class Saml2ServiceProviderMetadataFilterTest {
         assertThat(digestMethods, containsInAnyOrder(SignatureConstants.ALGO_ID_DIGEST_SHA256));
     }
 
+    @Test
+    void cachedMetadataWithEtag() throws Exception {
+        Saml2ServiceProviderMetadataFilter filter = buildFilter();
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        MockHttpServletResponse second = new MockHttpServletResponse();
+
+        filter.doFilter(buildRequestFromUrl(SP_ENTITY_ID), first, new TestFilterChain());
+        filter.doFilter(buildRequestFromUrl(SP_ENTITY_ID), second, new TestFilterChain());
+
+        String etag = first.getHeader(HttpHeaders.ETAG);
+
+        assertThat(etag, notNullValue());
+        assertThat(second.getHeader(HttpHeaders.ETAG), equalTo(etag));
+        assertThat(second.getContentAsByteArray(), equalTo(first.getContentAsByteArray()));
+        assertThat(first.getContentLength(), equalTo(first.getContentAsByteArray().length));
+        assertThat(first.getHeader(HttpHeaders.CACHE_CONTROL), containsString("max-age="));
+
+        MockHttpServletRequest revalidation = buildRequestFromUrl(SP_ENTITY_ID);
+        revalidation.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+
+        filter.doFilter(revalidation, notModified, new TestFilterChain());
+
+        assertThat(notModified.getStatus(), equalTo(HttpStatus.NOT_MODIFIED.value()));
+        assertThat(notModified.getContentAsByteArray().length, equalTo(0));
+    }
+
+    @Test
+    void gzippedMetadata() throws Exception {
+        Saml2ServiceProviderMetadataFilter filter = buildFilter();
+        MockHttpServletResponse plain = new MockHttpServletResponse();
+        MockHttpServletResponse gzipped = new MockHttpServletResponse();
+        MockHttpServletRequest gzipRequest = buildRequestFromUrl(SP_ENTITY_ID);
+        gzipRequest.addHeader(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8");
+
+        filter.doFilter(buildRequestFromUrl(SP_ENTITY_ID), plain, new TestFilterChain());
+        filter.doFilter(gzipRequest, gzipped, new TestFilterChain());
+
+        assertThat(plain.getHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(gzipped.getHeader(HttpHeaders.CONTENT_ENCODING), equalTo("gzip"));
+        assertThat(gzipped.getHeader(HttpHeaders.ETAG), not(equalTo(plain.getHeader(HttpHeaders.ETAG))));
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertThat(in.readAllBytes(), equalTo(plain.getContentAsByteArray()));
+        }
+    }
+
     private KeyDescriptor assertKeyOfType(List<KeyDescriptor> keyDescriptors, UsageType usage) {
         KeyDescriptor keyDescriptor = keyDescriptors //
             .stream()
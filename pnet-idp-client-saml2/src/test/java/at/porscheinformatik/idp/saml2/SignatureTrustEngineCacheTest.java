@@ -0,0 +1,74 @@
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import at.porscheinformatik.idp.saml2.response.SignatureTrustEngineCache;
+import at.porscheinformatik.idp.saml2.response.SignatureTrustEngineCache.TrustEngineEntry;
+import java.util.List;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.springframework.security.saml2.core.Saml2X509Credential;
+import org.springframework.security.saml2.core.Saml2X509Credential.Saml2X509CredentialType;
+
+class SignatureTrustEngineCacheTest {
+
+    static {
+        Saml2Initializer.initialize();
+    }
+
+    @Test
+    void reusesTrustEngineForSameCredentials() throws Exception {
+        SignatureTrustEngineCache cache = new SignatureTrustEngineCache();
+
+        TrustEngineEntry first = cache.get(verificationCredentials());
+        TrustEngineEntry second = cache.get(verificationCredentials());
+
+        assertThat(second, sameInstance(first));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    void rebuildsTrustEngineAfterInvalidation() throws Exception {
+        SignatureTrustEngineCache cache = new SignatureTrustEngineCache();
+
+        TrustEngineEntry first = cache.get(verificationCredentials());
+        cache.invalidate();
+        TrustEngineEntry second = cache.get(verificationCredentials());
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(cache.getMissCount(), equalTo(2L));
+        assertThat(cache.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    void preselectsSigningCredentialByKeyInfo() throws Exception {
+        SignatureTrustEngineCache cache = new SignatureTrustEngineCache();
+        List<Saml2X509Credential> credentials = verificationCredentials();
+        KeyInfoCredentialResolver keyInfoResolver = cache.get(credentials).getTrustEngine().getKeyInfoResolver();
+
+        KeyInfo keyInfo = XMLObjectSupport.buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+        KeyInfoSupport.addCertificate(keyInfo, credentials.get(0).getCertificate());
+
+        assertThat(keyInfoResolver.resolve(new CriteriaSet(new KeyInfoCriterion(keyInfo))), iterableWithSize(1));
+
+        KeyInfo emptyKeyInfo = XMLObjectSupport.buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+
+        assertThat(keyInfoResolver.resolve(new CriteriaSet(new KeyInfoCriterion(emptyKeyInfo))), emptyIterable());
+    }
+
+    private List<Saml2X509Credential> verificationCredentials() throws Exception {
+        return Saml2TestUtils.defaultCredentialsManager()
+            .getCredentials(Saml2X509CredentialType.SIGNING)
+            .stream()
+            .map(Saml2X509Credential::getCertificate)
+            .map(Saml2X509Credential::verification)
+            .toList();
+    }
+}
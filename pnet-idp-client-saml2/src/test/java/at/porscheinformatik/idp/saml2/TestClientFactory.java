@@ -2,16 +2,20 @@ package at.porscheinformatik.idp.saml2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpHost;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.entity.StringEntity;
@@ -23,13 +27,32 @@ import org.springframework.util.StreamUtils;
 
 public class TestClientFactory implements HttpClientFactory {
 
+    private static final String ETAG = "\"metadata\"";
+
     private final String metadata;
     private final String metadataUrl;
+    private final boolean conditional;
+    private final AtomicInteger requestCount = new AtomicInteger();
 
     public TestClientFactory(String metadataFile, String metadataUrl) throws IOException {
+        this(metadataFile, metadataUrl, false);
+    }
+
+    /**
+     * @param metadataFile the file containing the metadata
+     * @param metadataUrl the only url, the client answers
+     * @param conditional true to send an ETag and answer matching conditional requests with 304
+     * @throws IOException on errors reading the metadata file
+     */
+    public TestClientFactory(String metadataFile, String metadataUrl, boolean conditional) throws IOException {
         super();
         metadata = loadMetadata(metadataFile);
         this.metadataUrl = metadataUrl;
+        this.conditional = conditional;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
     }
 
     private String loadMetadata(String metadataFile) throws IOException {
@@ -59,7 +82,9 @@ public class TestClientFactory implements HttpClientFactory {
                 throw new IllegalArgumentException("Only get requests are supported.");
             }
 
-            String uri = request.getRequestUri();
+            String uri = uri(request);
+
+            requestCount.incrementAndGet();
 
             if (!Objects.equals(metadataUrl, uri)) {
                 throw new IOException(
@@ -67,13 +92,33 @@ public class TestClientFactory implements HttpClientFactory {
                 );
             }
 
+            Header ifNoneMatch = request.getFirstHeader(HttpHeaders.IF_NONE_MATCH);
+
+            if (conditional && ifNoneMatch != null && ETAG.equals(ifNoneMatch.getValue())) {
+                return CloseableHttpResponse.adapt(
+                    new BasicClassicHttpResponse(HttpStatus.SC_NOT_MODIFIED, "Not Modified")
+                );
+            }
+
             BasicClassicHttpResponse response = new BasicClassicHttpResponse(HttpStatus.SC_OK, "OK");
 
             response.setEntity(new StringEntity(metadata, ContentType.create("application/samlmetadata+xml", "UTF-8")));
 
+            if (conditional) {
+                response.setHeader(HttpHeaders.ETAG, ETAG);
+            }
+
             return CloseableHttpResponse.adapt(response);
         }
 
+        private String uri(ClassicHttpRequest request) throws IOException {
+            try {
+                return request.getUri().toString();
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
         @Override
         public void close() throws IOException {
             // Nothing to close here
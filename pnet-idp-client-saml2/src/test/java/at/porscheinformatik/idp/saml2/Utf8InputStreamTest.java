@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package at.porscheinformatik.idp.saml2;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Daniel Furtlehner
+ */
+class Utf8InputStreamTest {
+
+    @Test
+    void encodesWhileReading() {
+        // Multi byte chars and surrogate pairs end up on the boundaries of the buffer
+        String document = "<a>" + "Jörg 😀 € ".repeat(5000) + "</a>";
+        Utf8InputStream in = new Utf8InputStream(document);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int count;
+
+        while ((count = in.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+
+        assertThat(out.toByteArray(), equalTo(document.getBytes(StandardCharsets.UTF_8)));
+        assertThat(in.read(), equalTo(-1));
+    }
+
+    @Test
+    void readsSingleBytes() {
+        Utf8InputStream in = new Utf8InputStream("ö");
+
+        assertThat(in.read(), equalTo(0xC3));
+        assertThat(in.read(), equalTo(0xB6));
+        assertThat(in.read(), equalTo(-1));
+        assertThat(new Utf8InputStream("").read(), equalTo(-1));
+    }
+
+    @Test
+    void checksDeclaredEncoding() {
+        assertThat(Utf8InputStream.declaresUtf8("<a/>"), equalTo(true));
+        assertThat(Utf8InputStream.declaresUtf8("<?xml version=\"1.0\"?><a/>"), equalTo(true));
+        assertThat(Utf8InputStream.declaresUtf8("<?xml version='1.0' encoding='utf-8'?><a/>"), equalTo(true));
+        assertThat(Utf8InputStream.declaresUtf8("<?xml version=\"1.0\" encoding=\"UTF-8\"?><a/>"), equalTo(true));
+        assertThat(
+            Utf8InputStream.declaresUtf8("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a/>"),
+            equalTo(false)
+        );
+        assertThat(Utf8InputStream.declaresUtf8("<?xml version=\"1.0\"?><a encoding=\"latin1\"/>"), equalTo(true));
+    }
+}